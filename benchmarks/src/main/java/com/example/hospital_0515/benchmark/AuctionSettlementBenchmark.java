@@ -0,0 +1,42 @@
+package com.example.hospital_0515.benchmark;
+
+import com.example.hospital_0515.service.AuctionSettlementService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 竞拍结算（handleAuctionEnd 的主体）的基准测试。每个出诊日只能结算一次，
+ * 每次调用结算下一天，测量次数与 SeededHospital 的 settlementDays 默认值一致
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AuctionSettlementBenchmark {
+
+    private AuctionSettlementService auctionSettlementService;
+    private int day;
+
+    @Setup(Level.Trial)
+    public void setUp(SeededHospital hospital) {
+        auctionSettlementService = hospital.bean(AuctionSettlementService.class);
+    }
+
+    @Benchmark
+    public AuctionSettlementService.SettlementReport settle(SeededHospital hospital) {
+        return auctionSettlementService.settle(hospital.firstAuctionDay().plusDays(day++));
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.hospital_0515.benchmark;
+
+import com.example.hospital_0515.Hospital0515Application;
+import com.example.hospital_0515.model.Visit;
+import com.example.hospital_0515.repository.VisitRepository;
+import com.example.hospital_0515.service.AvailabilityService;
+import com.example.hospital_0515.service.DoctorService;
+import com.example.hospital_0515.service.PatientService;
+import com.example.hospital_0515.service.RecommendationService;
+import com.example.hospital_0515.service.SlotInventoryService;
+import com.example.hospital_0515.util.VirtualThreads;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 平台线程与虚拟线程执行模式（hospital.threads.virtual）在挂号高峰负载下的对比。
+ * 应用在随机端口启动，每个 JMH 线程是一个已登录的患者，反复执行完整的 HTTP 挂号会话：
+ * 查询可预约出诊 → 挂号 → 支付 → 取消（归还号源，负载保持稳定）。
+ * 并发数用 -t 调整，超过 Tomcat 默认的 200 个请求线程时两种模式的差别才明显；virtual 模式需要 Java 21 及以上。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Threads(64)
+@Fork(1)
+public class BookingRushBenchmarks {
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    // 患者数不少于并发数，每个线程使用不同的患者，避免重复挂号
+    @Param("300")
+    public int patients;
+
+    @Param("50")
+    public int doctors;
+
+    @Param("6")
+    public int visitsPerDoctor;
+
+    @Param("20")
+    public int slotsPerVisit;
+
+    private final AtomicInteger nextPatient = new AtomicInteger();
+    private ConfigurableApplicationContext context;
+    private ObjectMapper objectMapper;
+    private String baseUrl;
+
+    @Setup(Level.Trial)
+    public void start() {
+        boolean virtual = "virtual".equals(threads);
+        if (virtual && !VirtualThreads.isSupported()) {
+            throw new IllegalStateException("virtual 模式需要 Java 21 及以上，当前版本: " + System.getProperty("java.version"));
+        }
+        context = new SpringApplicationBuilder(Hospital0515Application.class).run(
+                "--spring.datasource.url=jdbc:h2:mem:booking-rush;DB_CLOSE_DELAY=-1",
+                "--server.port=0",
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=WARN",
+                "--hospital.threads.virtual=" + virtual);
+        objectMapper = context.getBean(ObjectMapper.class);
+        baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        seed();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    /**
+     * 出诊安排在后天，满足“出诊前一天或更早才能取消”的限制
+     */
+    private void seed() {
+        context.getBean(PatientService.class).generateRandomPatients(patients);
+        context.getBean(DoctorService.class).generateRandomDoctors(doctors);
+        LocalDateTime dayAfterTomorrow = LocalDate.now().plusDays(2).atTime(8, 0);
+        List<Visit> visits = new ArrayList<>();
+        for (int d = 0; d < doctors; d++) {
+            for (int v = 0; v < visitsPerDoctor; v++) {
+                Visit visit = new Visit();
+                visit.setDoctorName("doctor" + d);
+                visit.setDepartment("Department " + d);
+                visit.setStatus("APPROVED");
+                visit.setAvailableSlots(slotsPerVisit);
+                visit.setVisitTime(dayAfterTomorrow.plusMinutes(30L * v));
+                visits.add(visit);
+            }
+        }
+        context.getBean(VisitRepository.class).saveAll(visits);
+        // 内存索引在应用启动时从空库加载，写入数据后重新加载
+        context.getBean(SlotInventoryService.class).rebuild();
+        context.getBean(AvailabilityService.class).reload();
+        context.getBean(RecommendationService.class).reload();
+    }
+
+    /**
+     * 每个 JMH 线程一个患者会话，登录（BCrypt）只在开始时执行一次
+     */
+    @State(Scope.Thread)
+    public static class PatientSession {
+
+        private final HttpClient client = HttpClient.newBuilder()
+                .cookieHandler(new CookieManager())
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        private BookingRushBenchmarks hospital;
+
+        @Setup(Level.Trial)
+        public void login(BookingRushBenchmarks hospital) throws IOException, InterruptedException {
+            this.hospital = hospital;
+            int patient = hospital.nextPatient.getAndIncrement() % hospital.patients;
+            // 所有线程同时登录，BCrypt 校验在少核机器上排队较久，登录不计入测量，超时放宽
+            HttpResponse<String> response = send(HttpRequest.newBuilder(hospital.uri("/login"))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .POST(HttpRequest.BodyPublishers.ofString("username=patient" + patient + "&password=p" + patient)),
+                    Duration.ofMinutes(10));
+            // 登录成功时重定向到角色页面，失败时重定向到 /login.html?error
+            String location = response.headers().firstValue("Location").orElse("");
+            if (response.statusCode() != 302 || location.contains("error")) {
+                throw new IllegalStateException("登录失败: patient" + patient);
+            }
+        }
+
+        HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+            return send(request, Duration.ofSeconds(60));
+        }
+
+        HttpResponse<String> send(HttpRequest.Builder request, Duration timeout) throws IOException, InterruptedException {
+            return client.send(request.timeout(timeout).build(), HttpResponse.BodyHandlers.ofString());
+        }
+
+        int put(String path) throws IOException, InterruptedException {
+            return send(HttpRequest.newBuilder(hospital.uri(path)).PUT(HttpRequest.BodyPublishers.noBody())).statusCode();
+        }
+    }
+
+    /**
+     * 一次完整的挂号会话，返回各步骤状态码之和
+     */
+    @Benchmark
+    public int bookingSession(PatientSession session) throws IOException, InterruptedException {
+        HttpResponse<String> list = session.send(HttpRequest.newBuilder(uri("/api/visits/patient")).GET());
+        List<Long> open = new ArrayList<>();
+        for (JsonNode visit : objectMapper.readTree(list.body())) {
+            if (visit.get("availableSlots").asInt() > 0) {
+                open.add(visit.get("id").asLong());
+            }
+        }
+        if (open.isEmpty()) {
+            return list.statusCode();
+        }
+        Long id = open.get(ThreadLocalRandom.current().nextInt(open.size()));
+        int status = list.statusCode() + session.put("/api/visits/book/" + id);
+        int paid = session.put("/api/visits/pay/" + id);
+        if (paid == 200) {
+            status += session.put("/api/visits/cancel/" + id);
+        }
+        return status + paid;
+    }
+
+    private URI uri(String path) {
+        return URI.create(baseUrl + path);
+    }
+}
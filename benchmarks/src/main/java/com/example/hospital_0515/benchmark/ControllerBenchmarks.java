@@ -0,0 +1,84 @@
+package com.example.hospital_0515.benchmark;
+
+import com.example.hospital_0515.controller.BidController;
+import com.example.hospital_0515.controller.VisitController;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controller 层热点接口的基准测试，包括鉴权之后的业务逻辑、幂等处理和响应序列化，不含 HTTP 和过滤器链
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ControllerBenchmarks {
+
+    private VisitController visitController;
+    private BidController bidController;
+    private int i;
+
+    @Setup(Level.Trial)
+    public void setUp(SeededHospital hospital) {
+        visitController = hospital.bean(VisitController.class);
+        bidController = hospital.bean(BidController.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void clearAuthentication() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Benchmark
+    public ResponseEntity<?> payVisit(SeededHospital hospital) {
+        i++;
+        SeededHospital.authenticate(hospital.patient(i));
+        return visitController.payVisit(hospital.normalVisit(i * 31 + 7), null);
+    }
+
+    @Benchmark
+    public ResponseEntity<?> placeBid(SeededHospital hospital) {
+        i++;
+        UsernamePasswordAuthenticationToken principal = SeededHospital.authenticate(hospital.patient(i));
+        return bidController.placeBid(hospital.auctionVisit(i), 100 + ThreadLocalRandom.current().nextInt(900), null, principal);
+    }
+
+    @Benchmark
+    public ResponseEntity<?> getTopBids(SeededHospital hospital) {
+        return bidController.getTopBids(hospital.auctionVisit(i++));
+    }
+
+    @Benchmark
+    public ResponseEntity<?> getRecommendations(SeededHospital hospital) {
+        SeededHospital.authenticate(hospital.patient(i++));
+        return visitController.getRecommendations();
+    }
+
+    @Benchmark
+    public void getAvailableVisits(SeededHospital hospital) {
+        SeededHospital.drain(visitController.getAvailableVisits(null, hospital.doctor(i++)));
+    }
+
+    @Benchmark
+    public void getVisitBids(SeededHospital hospital) {
+        SeededHospital.drain(bidController.getVisitBids(hospital.auctionVisit(i++)));
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.hospital_0515.benchmark;
+
+import com.example.hospital_0515.dto.BidView;
+import com.example.hospital_0515.dto.VisitView;
+import com.example.hospital_0515.model.Bid;
+import com.example.hospital_0515.model.Visit;
+import com.example.hospital_0515.util.JsonStreaming;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 列表接口响应写出方式的对比：直接序列化 JPA 实体列表（改为视图之前的做法），
+ * 与通过 JsonStreaming 逐条转换为 VisitView/BidView 后流式写出。
+ * 只测量序列化本身，数据预先在内存中构造，写入空输出流（writeValue 会关闭输出流，每次新建）；
+ * 每次操作的分配量用 -prof gc 查看（gc.alloc.rate.norm）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListSerializationBenchmarks {
+
+    @Param({"100", "1000", "10000"})
+    public int rows;
+
+    // 与 Spring Boot 默认配置一致：注册 JavaTimeModule，日期写成 ISO 字符串
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+            .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+    private List<Visit> visits;
+    private List<Bid> bids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        LocalDateTime tomorrow = LocalDateTime.now().plusDays(1).withHour(8).withMinute(0);
+        visits = new ArrayList<>(rows);
+        bids = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Visit visit = new Visit();
+            visit.setId((long) i);
+            visit.setDoctorName("doctor" + random.nextInt(100));
+            visit.setDepartment("Department " + random.nextInt(20));
+            visit.setStatus("APPROVED");
+            visit.setAvailableSlots(random.nextInt(20));
+            visit.setVisitTime(tomorrow.plusMinutes(random.nextInt(3 * 24 * 60)));
+            visits.add(visit);
+
+            Bid bid = new Bid();
+            bid.setId((long) i);
+            bid.setVisitId((long) random.nextInt(1000));
+            bid.setPatientUsername("patient" + random.nextInt(500));
+            bid.setBidAmount(100 + random.nextInt(900));
+            bid.setBidTime(tomorrow.minusMinutes(random.nextInt(600)));
+            bids.add(bid);
+        }
+    }
+
+    @Benchmark
+    public void visitEntityList() throws IOException {
+        objectMapper.writeValue(OutputStream.nullOutputStream(), visits);
+    }
+
+    @Benchmark
+    public void visitViewStream() throws IOException {
+        JsonStreaming.array(visits, VisitView::of, objectMapper).getBody().writeTo(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void bidEntityList() throws IOException {
+        objectMapper.writeValue(OutputStream.nullOutputStream(), bids);
+    }
+
+    @Benchmark
+    public void bidViewStream() throws IOException {
+        JsonStreaming.array(bids, BidView::of, objectMapper).getBody().writeTo(OutputStream.nullOutputStream());
+    }
+}
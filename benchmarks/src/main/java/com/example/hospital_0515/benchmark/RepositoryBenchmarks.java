@@ -0,0 +1,67 @@
+package com.example.hospital_0515.benchmark;
+
+import com.example.hospital_0515.model.Bid;
+import com.example.hospital_0515.model.Visit;
+import com.example.hospital_0515.repository.BidRepository;
+import com.example.hospital_0515.repository.BookingRepository;
+import com.example.hospital_0515.repository.VisitRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repository 层热点查询的基准测试，每次调用换一个出诊或患者，避免只命中同一行
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RepositoryBenchmarks {
+
+    private VisitRepository visitRepository;
+    private BookingRepository bookingRepository;
+    private BidRepository bidRepository;
+    private int i;
+
+    @Setup(Level.Trial)
+    public void setUp(SeededHospital hospital) {
+        visitRepository = hospital.bean(VisitRepository.class);
+        bookingRepository = hospital.bean(BookingRepository.class);
+        bidRepository = hospital.bean(BidRepository.class);
+    }
+
+    @Benchmark
+    public Optional<Visit> findVisitById(SeededHospital hospital) {
+        return visitRepository.findById(hospital.normalVisit(i++));
+    }
+
+    @Benchmark
+    public boolean existsActiveBooking(SeededHospital hospital) {
+        i++;
+        return bookingRepository.existsActive(hospital.normalVisit(i), hospital.patient(i));
+    }
+
+    @Benchmark
+    public List<Bid> findBidsByVisit(SeededHospital hospital) {
+        return bidRepository.findByVisitIdOrderByBidAmountDesc(hospital.auctionVisit(i++));
+    }
+
+    @Benchmark
+    public List<Visit> findVisitsBookedBy(SeededHospital hospital) {
+        return visitRepository.findByBookedByContaining(hospital.patient(i++));
+    }
+}
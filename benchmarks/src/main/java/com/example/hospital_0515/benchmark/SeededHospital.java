@@ -0,0 +1,180 @@
+package com.example.hospital_0515.benchmark;
+
+import com.example.hospital_0515.Hospital0515Application;
+import com.example.hospital_0515.model.Bid;
+import com.example.hospital_0515.model.Visit;
+import com.example.hospital_0515.repository.BidRepository;
+import com.example.hospital_0515.repository.VisitRepository;
+import com.example.hospital_0515.service.AvailabilityService;
+import com.example.hospital_0515.service.BidRankingService;
+import com.example.hospital_0515.service.DoctorService;
+import com.example.hospital_0515.service.PatientService;
+import com.example.hospital_0515.service.RecommendationService;
+import com.example.hospital_0515.service.SlotInventoryService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * 基准测试共用的应用实例：以内存 H2 启动完整应用，用 generateRandomPatients/generateRandomDoctors 生成用户，
+ * 普通出诊分布在未来三天，竞拍出诊分布在第10天起的 settlementDays 天，竞价随机分布在竞拍出诊上。
+ * 数据规模通过 JMH 参数调整，例如 -p visits=50000 -p bids=500000。
+ */
+@State(Scope.Benchmark)
+public class SeededHospital {
+
+    @Param("500")
+    public int patients;
+
+    @Param("100")
+    public int doctors;
+
+    @Param("20000")
+    public int visits;
+
+    @Param("100000")
+    public int bids;
+
+    @Param("5")
+    public int settlementDays;
+
+    private final Random random = new Random(42);
+    private final List<Long> normalVisitIds = new ArrayList<>();
+    private final List<Long> auctionVisitIds = new ArrayList<>();
+    private ConfigurableApplicationContext context;
+
+    @Setup(Level.Trial)
+    public void start() {
+        // 以命令行参数传入，优先级高于 application.properties
+        context = new SpringApplicationBuilder(Hospital0515Application.class).run(
+                "--spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+                "--server.port=0",
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=WARN");
+        seed();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    public <T> T bean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    private void seed() {
+        bean(PatientService.class).generateRandomPatients(patients);
+        bean(DoctorService.class).generateRandomDoctors(doctors);
+
+        LocalDateTime tomorrow = LocalDate.now().plusDays(1).atTime(8, 0);
+        LocalDateTime firstAuctionDay = firstAuctionDay().atTime(8, 0);
+        int auctions = Math.max(1, visits / 10);
+        List<Visit> seeded = new ArrayList<>(visits);
+        for (int i = 0; i < visits; i++) {
+            int doctor = random.nextInt(doctors);
+            boolean auction = i < auctions;
+            Visit visit = new Visit();
+            visit.setDoctorName("doctor" + doctor);
+            visit.setDepartment("Department " + doctor);
+            visit.setStatus("APPROVED");
+            visit.setAuction(auction);
+            visit.setAvailableSlots(auction ? 1 : 20);
+            visit.setVisitTime(auction
+                    ? firstAuctionDay.plusDays(i % settlementDays).plusMinutes(random.nextInt(9 * 60))
+                    : tomorrow.plusMinutes(random.nextInt(3 * 24 * 60)));
+            seeded.add(visit);
+        }
+        for (Visit visit : bean(VisitRepository.class).saveAll(seeded)) {
+            (visit.isAuction() ? auctionVisitIds : normalVisitIds).add(visit.getId());
+        }
+
+        // 每个患者在每个出诊上只有一条当前出价
+        List<Bid> seededBids = new ArrayList<>(bids);
+        Set<String> bidders = new HashSet<>();
+        while (seededBids.size() < bids) {
+            Long visitId = auctionVisit(random.nextInt(auctionVisitIds.size()));
+            String patientUsername = patient(random.nextInt(patients));
+            if (!bidders.add(visitId + "|" + patientUsername)) {
+                continue;
+            }
+            Bid bid = new Bid();
+            bid.setVisitId(visitId);
+            bid.setPatientUsername(patientUsername);
+            bid.setBidAmount(100 + random.nextInt(900));
+            bid.setBidTime(LocalDateTime.now());
+            seededBids.add(bid);
+        }
+        bean(BidRepository.class).saveAll(seededBids);
+
+        // 内存索引在应用启动时从空库加载，写入数据后重新加载
+        bean(SlotInventoryService.class).rebuild();
+        bean(AvailabilityService.class).reload();
+        bean(RecommendationService.class).reload();
+        Collections.shuffle(normalVisitIds, random);
+        Collections.shuffle(auctionVisitIds, random);
+        BidRankingService bidRankingService = bean(BidRankingService.class);
+        auctionVisitIds.forEach(bidRankingService::evict);
+    }
+
+    public LocalDate firstAuctionDay() {
+        return LocalDate.now().plusDays(10);
+    }
+
+    public String patient(int i) {
+        return "patient" + Math.floorMod(i, patients);
+    }
+
+    public String doctor(int i) {
+        return "doctor" + Math.floorMod(i, doctors);
+    }
+
+    public Long normalVisit(int i) {
+        return normalVisitIds.get(Math.floorMod(i, normalVisitIds.size()));
+    }
+
+    public Long auctionVisit(int i) {
+        return auctionVisitIds.get(Math.floorMod(i, auctionVisitIds.size()));
+    }
+
+    /**
+     * 以指定用户身份执行后续的 Controller 调用，当前用户通过 SecurityContext 传入
+     */
+    public static UsernamePasswordAuthenticationToken authenticate(String username) {
+        UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(username, null, Collections.emptyList());
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+        return authentication;
+    }
+
+    /**
+     * 流式列表接口的响应体写入空输出流，计入序列化的耗时和分配
+     */
+    public static void drain(ResponseEntity<StreamingResponseBody> response) {
+        try {
+            response.getBody().writeTo(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package com.example.hospital_0515.audit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AuditLogStore 以定长二进制记录保存审计日志。
+ * 记录追加到内存映射的段文件中，段写满或超过时长后滚动到新段；
+ * 每个段按块维护最小/最大时间戳作为稀疏时间索引，另有按用户和按出诊的位置索引，
+ * 查询时只读取命中的记录，日志内容本身不加载到堆内存。
+ *
+ * 记录格式（32字节）：
+ * [0]时间戳 long, [8]目标ID long, [16]操作人 int, [20]操作 int, [24]操作对象 int, [28]类型 byte, [29-31]保留
+ * 字符串字段通过字典文件编码为整数，0 表示空值。
+ *
+ * 段文件头中的记录数只在 {@link #commit()} 中、字典刷盘之后写入，重新打开时只读取该记录数之内的记录。
+ * 内存映射的页可能先于字典写回磁盘，这样崩溃后不会出现引用了未落盘字典项的记录。
+ */
+public final class AuditLogStore {
+
+    public static final String DIRECTORY = "./UserLogger/audit";
+
+    static final int RECORD_SIZE = 32;
+    static final int HEADER_SIZE = 64;
+    static final int BLOCK_SIZE = 1024;
+    private static final int MAGIC = 0x41554449;
+    private static final int VERSION = 1;
+    private static final long NO_TARGET = Long.MIN_VALUE;
+
+    private static final int SEGMENT_RECORDS = Integer.getInteger("hospital.audit.segment-records", 1 << 20);
+    private static final long MAX_SEGMENT_AGE_MILLIS = Long.getLong("hospital.audit.max-segment-age-ms", TimeUnit.DAYS.toMillis(1));
+
+    private static volatile AuditLogStore instance;
+
+    private final File directory;
+    private final Dictionary dictionary;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<Integer, PositionList> byActor = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, PositionList> byVisit = new ConcurrentHashMap<>();
+
+    public AuditLogStore(File directory) throws IOException {
+        this.directory = directory;
+        directory.mkdirs();
+        this.dictionary = new Dictionary(new File(directory, "dictionary.dat"));
+        File[] files = directory.listFiles((dir, name) -> name.matches("segment-\\d+\\.audit"));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                Segment segment = Segment.open(file, size());
+                segments.add(segment);
+                for (int i = 0; i < segment.count; i++) {
+                    index(segment, i);
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取默认目录下的日志存储
+     */
+    public static AuditLogStore getInstance() {
+        if (instance == null) {
+            synchronized (AuditLogStore.class) {
+                if (instance == null) {
+                    try {
+                        instance = new AuditLogStore(new File(DIRECTORY));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 追加一条记录
+     * @param record 日志记录
+     * @return 记录的全局位置
+     */
+    public synchronized long append(AuditRecord record) throws IOException {
+        return write(activeSegment(), record);
+    }
+
+    private long write(Segment segment, AuditRecord record) throws IOException {
+        int index = segment.count;
+        int offset = HEADER_SIZE + index * RECORD_SIZE;
+        ByteBuffer buffer = segment.buffer;
+        buffer.putLong(offset, record.getTimestamp());
+        buffer.putLong(offset + 8, record.getTargetId() == null ? NO_TARGET : record.getTargetId());
+        buffer.putInt(offset + 16, dictionary.encode(record.getActor()));
+        buffer.putInt(offset + 20, dictionary.encode(record.getOperation()));
+        buffer.putInt(offset + 24, dictionary.encode(record.getSubject()));
+        buffer.put(offset + 28, (byte) record.getKind().ordinal());
+        segment.published(index, record.getTimestamp());
+        index(segment, index);
+        return segment.base + index;
+    }
+
+    /**
+     * 原子地追加一批记录并提交：整批写入同一个段，剩余容量不足时先滚动到新段，
+     * 由一次 {@link #commit()} 发布，崩溃后重新打开时要么整批可见，要么整批不可见
+     * @param records 日志记录，条数不能超过段容量
+     */
+    public synchronized void appendBatch(List<AuditRecord> records) throws IOException {
+        if (records.size() > SEGMENT_RECORDS) {
+            throw new IllegalArgumentException("Batch of " + records.size() + " records exceeds segment capacity " + SEGMENT_RECORDS);
+        }
+        Segment active = activeSegment();
+        if (active.capacity - active.count < records.size()) {
+            active = roll(active);
+        }
+        // 直接写入选定的段，批次中途不会因段时长到期而滚动
+        for (AuditRecord record : records) {
+            write(active, record);
+        }
+        commit();
+    }
+
+    /**
+     * 将已追加的记录和字典刷到磁盘：先刷字典，再更新段文件头中的记录数并刷段文件
+     */
+    public synchronized void commit() throws IOException {
+        dictionary.force();
+        if (!segments.isEmpty()) {
+            segments.get(segments.size() - 1).persist();
+        }
+    }
+
+    /**
+     * 记录总数
+     */
+    public long size() {
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        Segment last = segments.get(segments.size() - 1);
+        return last.base + last.count;
+    }
+
+    /**
+     * 按条件查询记录，结果按写入顺序排列
+     * @param query 查询条件
+     * @return 一页查询结果
+     */
+    public AuditPage query(AuditQuery query) {
+        List<AuditRecord> records = new ArrayList<>();
+        long after = query.getAfter() == null ? -1 : query.getAfter();
+        PositionList positions = null;
+        if (query.getActor() != null) {
+            Integer actor = dictionary.lookup(query.getActor());
+            positions = actor == null ? PositionList.EMPTY : byActor.getOrDefault(actor, PositionList.EMPTY);
+        } else if (query.getVisitId() != null) {
+            positions = byVisit.getOrDefault(query.getVisitId(), PositionList.EMPTY);
+        }
+
+        if (positions != null) {
+            // 通过位置索引只读取相关记录
+            int size = positions.size();
+            for (int i = positions.firstAfter(after); i < size && records.size() < query.getLimit(); i++) {
+                long position = positions.get(i);
+                Segment segment = locate(position);
+                collect(segment, (int) (position - segment.base), query, records);
+            }
+        } else {
+            // 通过稀疏时间索引跳过不相关的段和块
+            for (Segment segment : segments) {
+                if (records.size() >= query.getLimit()) {
+                    break;
+                }
+                int count = segment.count;
+                if (segment.base + count <= after || !segment.overlaps(query.getFrom(), query.getTo())) {
+                    continue;
+                }
+                int start = (int) Math.max(0, after + 1 - segment.base);
+                for (int block = start / BLOCK_SIZE; block * BLOCK_SIZE < count && records.size() < query.getLimit(); block++) {
+                    if (!segment.blockOverlaps(block, query.getFrom(), query.getTo())) {
+                        continue;
+                    }
+                    int end = Math.min(count, (block + 1) * BLOCK_SIZE);
+                    for (int i = Math.max(start, block * BLOCK_SIZE); i < end && records.size() < query.getLimit(); i++) {
+                        collect(segment, i, query, records);
+                    }
+                }
+            }
+        }
+
+        Long next = records.size() >= query.getLimit() ? records.get(records.size() - 1).getPosition() : null;
+        return new AuditPage(records, next);
+    }
+
+    private void collect(Segment segment, int index, AuditQuery query, List<AuditRecord> records) {
+        int offset = HEADER_SIZE + index * RECORD_SIZE;
+        ByteBuffer buffer = segment.buffer;
+        long timestamp = buffer.getLong(offset);
+        if ((query.getFrom() != null && timestamp < query.getFrom()) || (query.getTo() != null && timestamp > query.getTo())) {
+            return;
+        }
+        AuditRecord.Kind kind = AuditRecord.Kind.values()[buffer.get(offset + 28)];
+        if (query.getKind() != null && query.getKind() != kind) {
+            return;
+        }
+        String operation = dictionary.decode(buffer.getInt(offset + 20));
+        if (query.getOperation() != null && !query.getOperation().equals(operation)) {
+            return;
+        }
+        long target = buffer.getLong(offset + 8);
+        if (query.getVisitId() != null && (kind != AuditRecord.Kind.BOOKING || target != query.getVisitId())) {
+            return;
+        }
+        String actor = dictionary.decode(buffer.getInt(offset + 16));
+        if (query.getActor() != null && !query.getActor().equals(actor)) {
+            return;
+        }
+        AuditRecord record = new AuditRecord(timestamp, kind, operation, actor,
+                dictionary.decode(buffer.getInt(offset + 24)), target == NO_TARGET ? null : target);
+        record.setPosition(segment.base + index);
+        records.add(record);
+    }
+
+    private void index(Segment segment, int index) {
+        int offset = HEADER_SIZE + index * RECORD_SIZE;
+        long position = segment.base + index;
+        int actor = segment.buffer.getInt(offset + 16);
+        if (actor != 0) {
+            byActor.computeIfAbsent(actor, id -> new PositionList()).add(position);
+        }
+        long target = segment.buffer.getLong(offset + 8);
+        if (segment.buffer.get(offset + 28) == AuditRecord.Kind.BOOKING.ordinal() && target != NO_TARGET) {
+            byVisit.computeIfAbsent(target, id -> new PositionList()).add(position);
+        }
+    }
+
+    private Segment activeSegment() throws IOException {
+        Segment active = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (active == null || active.count >= active.capacity
+                || System.currentTimeMillis() - active.createdAt >= MAX_SEGMENT_AGE_MILLIS) {
+            active = roll(active);
+        }
+        return active;
+    }
+
+    private Segment roll(Segment active) throws IOException {
+        if (active != null) {
+            dictionary.force();
+            active.persist();
+        }
+        File file = new File(directory, String.format("segment-%06d.audit", segments.size()));
+        Segment next = Segment.create(file, size(), SEGMENT_RECORDS);
+        segments.add(next);
+        return next;
+    }
+
+    private Segment locate(long position) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (segments.get(mid).base <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return segments.get(low);
+    }
+
+    /**
+     * 一个内存映射的段文件
+     */
+    private static final class Segment {
+        final MappedByteBuffer buffer;
+        final long base;
+        final int capacity;
+        final long createdAt;
+        final long[] blockMin;
+        final long[] blockMax;
+        volatile long minTimestamp = Long.MAX_VALUE;
+        volatile long maxTimestamp = Long.MIN_VALUE;
+        // 在记录写完之后才递增，读线程只读取 count 之内的记录
+        volatile int count;
+
+        private Segment(MappedByteBuffer buffer, long base, int capacity, long createdAt) {
+            this.buffer = buffer;
+            this.base = base;
+            this.capacity = capacity;
+            this.createdAt = createdAt;
+            int blocks = (capacity + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            this.blockMin = new long[blocks];
+            this.blockMax = new long[blocks];
+            Arrays.fill(blockMin, Long.MAX_VALUE);
+            Arrays.fill(blockMax, Long.MIN_VALUE);
+        }
+
+        static Segment create(File file, long base, int capacity) throws IOException {
+            MappedByteBuffer buffer = map(file, capacity);
+            long createdAt = System.currentTimeMillis();
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, capacity);
+            buffer.putLong(16, createdAt);
+            buffer.putLong(24, 0);
+            return new Segment(buffer, base, capacity, createdAt);
+        }
+
+        static Segment open(File file, long base) throws IOException {
+            int capacity;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                channel.read(header, 0);
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                    throw new IOException("Not an audit segment: " + file);
+                }
+                capacity = header.getInt(8);
+            }
+            MappedByteBuffer buffer = map(file, capacity);
+            Segment segment = new Segment(buffer, base, capacity, buffer.getLong(16));
+            int count = (int) buffer.getLong(24);
+            for (int i = 0; i < count; i++) {
+                segment.published(i, buffer.getLong(HEADER_SIZE + i * RECORD_SIZE));
+            }
+            return segment;
+        }
+
+        private static MappedByteBuffer map(File file, int capacity) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+            }
+        }
+
+        void published(int index, long timestamp) {
+            int block = index / BLOCK_SIZE;
+            blockMin[block] = Math.min(blockMin[block], timestamp);
+            blockMax[block] = Math.max(blockMax[block], timestamp);
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+            count = index + 1;
+        }
+
+        /**
+         * 写入记录数并刷盘，调用前字典必须已经刷盘
+         */
+        void persist() {
+            buffer.putLong(24, count);
+            buffer.force();
+        }
+
+        boolean overlaps(Long from, Long to) {
+            return (from == null || maxTimestamp >= from) && (to == null || minTimestamp <= to);
+        }
+
+        boolean blockOverlaps(int block, Long from, Long to) {
+            return (from == null || blockMax[block] >= from) && (to == null || blockMin[block] <= to);
+        }
+    }
+
+    /**
+     * 字符串字典，把用户名、操作名等编码为整数
+     */
+    private static final class Dictionary {
+        private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<Integer, String> values = new ConcurrentHashMap<>();
+        private final FileChannel channel;
+        private boolean dirty;
+
+        Dictionary(File file) throws IOException {
+            long complete = 0;
+            if (file.exists()) {
+                byte[] content = Files.readAllBytes(file.toPath());
+                // 崩溃时最后一行可能只写了一半，只读取到最后一个换行符为止
+                int end = content.length;
+                while (end > 0 && content[end - 1] != '\n') {
+                    end--;
+                }
+                complete = end;
+                for (String line : new String(content, 0, end, StandardCharsets.UTF_8).split("\n")) {
+                    int tab = line.indexOf('\t');
+                    if (tab > 0) {
+                        int id = Integer.parseInt(line.substring(0, tab));
+                        String value = line.substring(tab + 1);
+                        ids.put(value, id);
+                        values.put(id, value);
+                    }
+                }
+            }
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            // 截掉不完整的最后一行，之后从文件末尾追加
+            channel.truncate(complete);
+            channel.position(complete);
+        }
+
+        /**
+         * 只由持有存储锁的写线程调用
+         */
+        int encode(String value) throws IOException {
+            if (value == null) {
+                return 0;
+            }
+            Integer id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            String clean = value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+            int newId = values.size() + 1;
+            ByteBuffer line = ByteBuffer.wrap((newId + "\t" + clean + "\n").getBytes(StandardCharsets.UTF_8));
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            values.put(newId, value);
+            ids.put(value, newId);
+            dirty = true;
+            return newId;
+        }
+
+        Integer lookup(String value) {
+            return ids.get(value);
+        }
+
+        String decode(int id) {
+            return id == 0 ? null : values.get(id);
+        }
+
+        void force() throws IOException {
+            if (dirty) {
+                channel.force(false);
+                dirty = false;
+            }
+        }
+    }
+
+    /**
+     * 单写多读的有序位置列表
+     */
+    private static final class PositionList {
+        static final PositionList EMPTY = new PositionList();
+
+        private volatile long[] positions = new long[4];
+        private volatile int size;
+
+        void add(long position) {
+            long[] current = positions;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+                positions = current;
+            }
+            current[size] = position;
+            size = size + 1;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long get(int index) {
+            return positions[index];
+        }
+
+        /**
+         * 第一个大于 after 的位置的下标
+         */
+        int firstAfter(long after) {
+            int count = size;
+            long[] current = positions;
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (current[mid] <= after) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.hospital_0515.audit;
+
+import java.util.List;
+
+/**
+ * AuditPage 是一页审计日志查询结果，next 为下一页的游标，没有更多记录时为null。
+ */
+public class AuditPage {
+
+    private final List<AuditRecord> records;
+    private final Long next;
+
+    public AuditPage(List<AuditRecord> records, Long next) {
+        this.records = records;
+        this.next = next;
+    }
+
+    public List<AuditRecord> getRecords() { return records; }
+
+    public Long getNext() { return next; }
+}
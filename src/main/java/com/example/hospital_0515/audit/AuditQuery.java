@@ -0,0 +1,43 @@
+package com.example.hospital_0515.audit;
+
+/**
+ * AuditQuery 描述一次审计日志查询的过滤条件和分页游标。
+ */
+public class AuditQuery {
+
+    public static final int MAX_LIMIT = 1000;
+
+    private AuditRecord.Kind kind;
+    private String actor;
+    private Long visitId;
+    private String operation;
+    private Long from;
+    private Long to;
+    private Long after;
+    private int limit = 100;
+
+    // Getters and setters
+    public AuditRecord.Kind getKind() { return kind; }
+    public void setKind(AuditRecord.Kind kind) { this.kind = kind; }
+
+    public String getActor() { return actor; }
+    public void setActor(String actor) { this.actor = actor; }
+
+    public Long getVisitId() { return visitId; }
+    public void setVisitId(Long visitId) { this.visitId = visitId; }
+
+    public String getOperation() { return operation; }
+    public void setOperation(String operation) { this.operation = operation; }
+
+    public Long getFrom() { return from; }
+    public void setFrom(Long from) { this.from = from; }
+
+    public Long getTo() { return to; }
+    public void setTo(Long to) { this.to = to; }
+
+    public Long getAfter() { return after; }
+    public void setAfter(Long after) { this.after = after; }
+
+    public int getLimit() { return limit; }
+    public void setLimit(int limit) { this.limit = Math.max(1, Math.min(limit, MAX_LIMIT)); }
+}
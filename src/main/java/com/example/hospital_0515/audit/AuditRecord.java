@@ -0,0 +1,66 @@
+package com.example.hospital_0515.audit;
+
+/**
+ * AuditRecord 表示一条审计日志：患者预约操作或管理员操作。
+ * 在磁盘上以32字节定长记录保存，字符串字段通过字典编码为整数。
+ */
+public class AuditRecord {
+
+    public enum Kind { BOOKING, ADMIN }
+
+    private long position = -1;
+    private long timestamp;
+    private Kind kind;
+    private String operation;
+    private String actor;
+    private String subject;
+    private Long targetId;
+
+    public AuditRecord() {
+    }
+
+    public AuditRecord(long timestamp, Kind kind, String operation, String actor, String subject, Long targetId) {
+        this.timestamp = timestamp;
+        this.kind = kind;
+        this.operation = operation;
+        this.actor = actor;
+        this.subject = subject;
+        this.targetId = targetId;
+    }
+
+    /**
+     * 患者预约日志
+     */
+    public static AuditRecord booking(long timestamp, String operation, String patientUsername, Long visitId) {
+        return new AuditRecord(timestamp, Kind.BOOKING, operation, patientUsername, null, visitId);
+    }
+
+    /**
+     * 管理员操作日志
+     */
+    public static AuditRecord admin(long timestamp, String operation, String operatedBy, String operatedOn, Long targetId) {
+        return new AuditRecord(timestamp, Kind.ADMIN, operation, operatedBy, operatedOn, targetId);
+    }
+
+    // Getters and setters
+    public long getPosition() { return position; }
+    public void setPosition(long position) { this.position = position; }
+
+    public long getTimestamp() { return timestamp; }
+    public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+
+    public Kind getKind() { return kind; }
+    public void setKind(Kind kind) { this.kind = kind; }
+
+    public String getOperation() { return operation; }
+    public void setOperation(String operation) { this.operation = operation; }
+
+    public String getActor() { return actor; }
+    public void setActor(String actor) { this.actor = actor; }
+
+    public String getSubject() { return subject; }
+    public void setSubject(String subject) { this.subject = subject; }
+
+    public Long getTargetId() { return targetId; }
+    public void setTargetId(Long targetId) { this.targetId = targetId; }
+}
@@ -0,0 +1,151 @@
+package com.example.hospital_0515.audit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * TextLogImporter 将旧版文本格式的 patient.log 和 admin.log 导入二进制审计日志。
+ * 每个文件的记录和一条导入标记（操作 LEGACY_LOG_IMPORTED，操作对象为文件名）在同一批次中提交，
+ * 已有标记的文件不再导入，文本日志本身不做修改，重复执行不会重复导入。
+ * 可通过 main 方法离线执行：TextLogImporter [日志目录]
+ */
+public class TextLogImporter {
+
+    private static final Logger log = LoggerFactory.getLogger(TextLogImporter.class);
+
+    public static final String IMPORTED_OPERATION = "LEGACY_LOG_IMPORTED";
+    public static final String IMPORTER = "legacy-import";
+
+    private static final Pattern BOOKING = Pattern.compile(
+            "Operation: (\\S+), Patient: (.*), Visit ID: (-?\\d+|null), Timestamp: (\\d+)");
+    private static final Pattern ADMIN = Pattern.compile(
+            "(\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}) - Operation: (\\S+), Operated by: (.*), Operated on: (.*), Target ID: (-?\\d+|null)");
+    private static final DateTimeFormatter ADMIN_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final AuditLogStore store;
+
+    public TextLogImporter(AuditLogStore store) {
+        this.store = store;
+    }
+
+    /**
+     * 文件是否已经导入过
+     * @param file 文本日志
+     */
+    public boolean isImported(File file) {
+        AuditQuery query = new AuditQuery();
+        query.setKind(AuditRecord.Kind.ADMIN);
+        query.setActor(IMPORTER);
+        query.setOperation(IMPORTED_OPERATION);
+        query.setLimit(AuditQuery.MAX_LIMIT);
+        AuditPage page;
+        do {
+            page = store.query(query);
+            for (AuditRecord marker : page.getRecords()) {
+                if (file.getName().equals(marker.getSubject())) {
+                    return true;
+                }
+            }
+            query.setAfter(page.getNext());
+        } while (page.getNext() != null);
+        return false;
+    }
+
+    /**
+     * 导入患者预约日志，已导入过的文件直接返回
+     * @param file patient.log
+     * @return 导入的记录数，已导入过时为 -1
+     */
+    public int importBookingLog(File file) throws IOException {
+        if (isImported(file)) {
+            return -1;
+        }
+        List<AuditRecord> records = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher matcher = BOOKING.matcher(line.trim());
+                if (matcher.matches()) {
+                    records.add(AuditRecord.booking(Long.parseLong(matcher.group(4)), matcher.group(1),
+                            matcher.group(2), parseId(matcher.group(3))));
+                }
+            }
+        }
+        return commit(file, records);
+    }
+
+    /**
+     * 导入管理员操作日志，已导入过的文件直接返回
+     * @param file admin.log
+     * @return 导入的记录数，已导入过时为 -1
+     */
+    public int importAdminLog(File file) throws IOException {
+        if (isImported(file)) {
+            return -1;
+        }
+        List<AuditRecord> records = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher matcher = ADMIN.matcher(line.trim());
+                if (matcher.matches()) {
+                    long timestamp = LocalDateTime.parse(matcher.group(1), ADMIN_TIME)
+                            .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                    records.add(AuditRecord.admin(timestamp, matcher.group(2), matcher.group(3),
+                            matcher.group(4), parseId(matcher.group(5))));
+                }
+            }
+        }
+        return commit(file, records);
+    }
+
+    /**
+     * 记录和导入标记一起提交，标记的目标ID为导入的记录数
+     */
+    private int commit(File file, List<AuditRecord> records) throws IOException {
+        int imported = records.size();
+        records.add(AuditRecord.admin(System.currentTimeMillis(), IMPORTED_OPERATION, IMPORTER,
+                file.getName(), (long) imported));
+        store.appendBatch(records);
+        return imported;
+    }
+
+    private static Long parseId(String value) {
+        return "null".equals(value) ? null : Long.parseLong(value);
+    }
+
+    public static void main(String[] args) throws IOException {
+        File directory = new File(args.length > 0 ? args[0] : "./UserLogger");
+        AuditLogStore store = new AuditLogStore(new File(directory, "audit"));
+        TextLogImporter importer = new TextLogImporter(store);
+        File bookingLog = new File(directory, "patient.log");
+        File adminLog = new File(directory, "admin.log");
+        if (bookingLog.exists()) {
+            report(bookingLog, importer.importBookingLog(bookingLog));
+        }
+        if (adminLog.exists()) {
+            report(adminLog, importer.importAdminLog(adminLog));
+        }
+    }
+
+    private static void report(File file, int imported) {
+        if (imported < 0) {
+            log.info("{} was already imported, skipped", file);
+        } else {
+            log.info("Imported {} records from {}", imported, file);
+        }
+    }
+}
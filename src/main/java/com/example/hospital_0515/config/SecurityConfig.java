@@ -43,8 +43,12 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
                 .authorizeRequests() // 启用请求授权
                 .antMatchers("/api/users/register/**").permitAll() // 允许所有用户访问注册相关的 URL
                 .antMatchers("/login").permitAll() // 允许所有用户访问登录 URL
+                .antMatchers("/actuator/**").access("hasIpAddress('127.0.0.1') or hasIpAddress('::1')") // 仅允许本机的 Prometheus 抓取指标
                 .antMatchers("/change-password").hasRole("ADMIN_FIRST_LOGIN") // 仅允许第一次登录的管理员访问更改密码页面
+                .antMatchers("/api/users/identity-cache").hasRole("ADMIN") // 仅允许管理员查看身份缓存统计
                 .antMatchers("/api/users/**").authenticated() // 需要认证的用户才能访问 /api/users 下的所有 URL
+                .antMatchers("/api/live/**").authenticated() // 需要认证的用户才能订阅推送
+                .antMatchers("/api/audit/**").hasRole("ADMIN") // 仅允许管理员查询审计日志
                 .antMatchers("/admin.html").hasRole("ADMIN") // 仅允许管理员访问 admin.html
                 .antMatchers("/doctor.html").hasRole("DOCTOR") // 仅允许医生访问 doctor.html
                 .antMatchers("/patient.html").hasRole("PATIENT") // 仅允许患者访问 patient.html
@@ -0,0 +1,92 @@
+package com.example.hospital_0515.config;
+
+import com.example.hospital_0515.util.VirtualThreads;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 虚拟线程执行模式，hospital.threads.virtual=true 时启用，需要 Java 21 及以上。
+ * 启用后 Tomcat 请求处理、@Scheduled 定时任务和异步任务（包括流式响应的写出）都在虚拟线程上执行，
+ * 阻塞在 JDBC、BCrypt 和日志文件上的请求不再占用固定大小的平台线程池。
+ * 虚拟线程在 synchronized 块内阻塞时会占住载体线程：持锁访问数据库的结算和号源回写已改用 ReentrantLock，
+ * H2 驱动内部的 synchronized 无法修改，因此连接池大小限制为载体线程数减一，保证总有载体线程可以运行其他请求。
+ * 排查占用载体线程的位置时可加 JVM 参数 -Djdk.tracePinnedThreads=short。
+ */
+@Configuration
+@ConditionalOnProperty(name = "hospital.threads.virtual", havingValue = "true")
+public class VirtualThreadConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadConfig.class);
+
+    public VirtualThreadConfig() {
+        if (!VirtualThreads.isSupported()) {
+            throw new IllegalStateException("hospital.threads.virtual=true 需要 Java 21 及以上，当前版本: "
+                    + System.getProperty("java.version"));
+        }
+        log.info("Virtual thread mode enabled, carrier threads: {}", carrierThreads());
+    }
+
+    /**
+     * Tomcat 每个请求一个虚拟线程
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        ExecutorService executor = VirtualThreads.newExecutor("http-vt-");
+        return protocolHandler -> protocolHandler.setExecutor(executor);
+    }
+
+    /**
+     * @Scheduled 定时任务的调度器，任务在虚拟线程上执行
+     * @param poolSize 调度线程数，与平台线程模式使用同一配置
+     */
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler(@Value("${spring.task.scheduling.pool.size:1}") int poolSize) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(poolSize);
+        scheduler.setThreadFactory(VirtualThreads.threadFactory("scheduling-vt-"));
+        return scheduler;
+    }
+
+    /**
+     * 异步任务执行器，替换 Spring Boot 默认的线程池，Spring MVC 的异步请求也使用它
+     */
+    @Bean(name = {"applicationTaskExecutor", "taskExecutor"})
+    public AsyncTaskExecutor applicationTaskExecutor() {
+        return new TaskExecutorAdapter(VirtualThreads.newExecutor("task-vt-"));
+    }
+
+    /**
+     * 调整连接池大小：并发请求数不再受线程池限制，同时访问数据库的请求数由连接池决定
+     * @param poolSize 连接数，0 表示载体线程数减一（至少为2：Flyway 迁移时同时占用两个连接）
+     */
+    @Bean
+    public static BeanPostProcessor virtualThreadConnectionPoolSizer(@Value("${hospital.threads.jdbc-pool-size:0}") int poolSize) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof HikariDataSource) {
+                    int size = poolSize > 0 ? poolSize : Math.max(2, carrierThreads() - 1);
+                    ((HikariDataSource) bean).setMaximumPoolSize(size);
+                    log.info("Connection pool size for virtual threads: {}", size);
+                }
+                return bean;
+            }
+        };
+    }
+
+    private static int carrierThreads() {
+        return Integer.getInteger("jdk.virtualThreadScheduler.parallelism", Runtime.getRuntime().availableProcessors());
+    }
+}
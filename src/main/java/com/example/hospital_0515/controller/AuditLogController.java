@@ -0,0 +1,54 @@
+package com.example.hospital_0515.controller;
+
+import com.example.hospital_0515.audit.AuditLogStore;
+import com.example.hospital_0515.audit.AuditPage;
+import com.example.hospital_0515.audit.AuditQuery;
+import com.example.hospital_0515.audit.AuditRecord;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+@RestController
+@RequestMapping("/api/audit")
+public class AuditLogController {
+
+    /**
+     * 查询审计日志，可按类型、操作人、出诊、操作和时间范围过滤，按游标分页
+     * @param kind 日志类型：BOOKING 或 ADMIN
+     * @param actor 操作人（患者或管理员用户名）
+     * @param visitId 出诊ID，仅匹配预约日志
+     * @param operation 操作，如 BOOK、CANCEL、DELETE
+     * @param from 开始时间
+     * @param to 结束时间
+     * @param after 上一页返回的游标
+     * @param limit 每页数量
+     * @return 一页日志记录
+     */
+    @GetMapping("/records")
+    public ResponseEntity<AuditPage> getRecords(@RequestParam(required = false) AuditRecord.Kind kind,
+                                                @RequestParam(required = false) String actor,
+                                                @RequestParam(required = false) Long visitId,
+                                                @RequestParam(required = false) String operation,
+                                                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                @RequestParam(required = false) Long after,
+                                                @RequestParam(defaultValue = "100") int limit) {
+        AuditQuery query = new AuditQuery();
+        query.setKind(kind);
+        query.setActor(actor);
+        query.setVisitId(visitId);
+        query.setOperation(operation);
+        query.setFrom(toEpochMilli(from));
+        query.setTo(toEpochMilli(to));
+        query.setAfter(after);
+        query.setLimit(limit);
+        return ResponseEntity.ok(AuditLogStore.getInstance().query(query));
+    }
+
+    private Long toEpochMilli(LocalDateTime time) {
+        return time == null ? null : time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
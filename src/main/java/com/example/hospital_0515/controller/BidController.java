@@ -1,21 +1,33 @@
 package com.example.hospital_0515.controller;
 
+import com.example.hospital_0515.dto.BidView;
+import com.example.hospital_0515.dto.TopBid;
 import com.example.hospital_0515.model.Bid;
+import com.example.hospital_0515.model.BidHistory;
 import com.example.hospital_0515.model.Visit;
 import com.example.hospital_0515.model.Patient;
 import com.example.hospital_0515.repository.BidRepository;
 import com.example.hospital_0515.repository.VisitRepository;
 import com.example.hospital_0515.repository.PatientRepository;
+import com.example.hospital_0515.repository.BidHistoryRepository;
+import com.example.hospital_0515.service.BidRankingService;
+import com.example.hospital_0515.service.BidService;
+import com.example.hospital_0515.service.ConflictRetryExecutor;
+import com.example.hospital_0515.service.IdempotencyService;
+import com.example.hospital_0515.service.LiveUpdateService;
+import com.example.hospital_0515.util.JsonStreaming;
+import com.example.hospital_0515.util.KeysetPagination;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.security.Principal;
 import java.util.stream.Collectors;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.*;
-import java.util.Comparator;
 import org.springframework.http.HttpStatus;
 
 @RestController // 标注这是一个RESTful控制器
@@ -31,16 +43,44 @@ public class BidController {
     @Autowired // 自动注入PatientRepository
     private PatientRepository patientRepository;
 
+    @Autowired // 自动注入BidHistoryRepository
+    private BidHistoryRepository bidHistoryRepository;
+
+    @Autowired // 自动注入BidService，每个患者只保留一条当前出价
+    private BidService bidService;
+
+    @Autowired // 自动注入ConflictRetryExecutor，同一患者并发出价时重试
+    private ConflictRetryExecutor conflictRetryExecutor;
+
+    @Autowired // 自动注入BidRankingService
+    private BidRankingService bidRankingService;
+
+    @Autowired // 自动注入LiveUpdateService
+    private LiveUpdateService liveUpdateService;
+
+    @Autowired // 自动注入IdempotencyService，重复提交的竞价不再写入新记录
+    private IdempotencyService idempotencyService;
+
+    @Autowired // 自动注入ObjectMapper，用于列表字段投影和流式输出
+    private ObjectMapper objectMapper;
+
     /**
      * 处理竞价请求
      * @param visitId 挂号ID
      * @param amount 竞拍金额
+     * @param idempotencyKey 幂等键，重复提交时返回第一次的结果
      * @param principal 当前认证用户信息
      * @return 返回响应实体
      */
     @PostMapping("/place")
-    public ResponseEntity<?> placeBid(@RequestParam Long visitId, @RequestParam double amount, Principal principal) {
-        String patientUsername = principal.getName(); // 获取当前用户的用户名
+    public ResponseEntity<?> placeBid(@RequestParam Long visitId, @RequestParam double amount,
+                                      @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
+                                      Principal principal) {
+        return idempotencyService.execute(idempotencyKey, principal.getName(), "bid:" + visitId + ":" + amount,
+                () -> placeBid(visitId, amount, principal.getName()));
+    }
+
+    private ResponseEntity<?> placeBid(Long visitId, double amount, String patientUsername) {
         LocalDateTime now = LocalDateTime.now(); // 获取当前时间
 
         // 获取患者信息
@@ -54,37 +94,75 @@ public class BidController {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).body("您的信用分低于60，无法参与竞拍");
         }
 
-        // 创建新的竞拍对象
-        Bid bid = new Bid();
-        bid.setVisitId(visitId);
-        bid.setPatientUsername(patientUsername);
-        bid.setBidAmount(amount);
-        bid.setBidTime(now);
-
-        // 保存竞拍信息到数据库
-        bidRepository.save(bid);
+        // 更新当前出价并追加出价历史，不高于当前出价时不修改
+        Bid bid = conflictRetryExecutor.execute("placeBid", () -> bidService.place(visitId, patientUsername, amount, now));
+        if (bid == null) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("出价需高于您当前的出价");
+        }
+        bidRankingService.onBidPlaced(bid, patient.getCreditScore()); // 更新内存竞价榜
+        liveUpdateService.onBidsChanged(visitId); // 推送竞价榜变化
         return ResponseEntity.ok().build();
     }
 
     /**
-     * 获取当前患者的所有竞价记录
+     * 分页获取当前患者在各出诊上的当前出价
+     * @param cursor 上一页响应头中的游标，第一页不传
+     * @param limit 每页数量
+     * @param fields 逗号分隔的返回字段，不传时返回完整记录
      * @param principal 当前认证用户信息
-     * @return 返回竞价记录的响应实体
+     * @return 返回竞价记录的响应实体，有下一页时带游标响应头
      */
     @GetMapping("/patient-bids")
-    public ResponseEntity<List<Bid>> getPatientBids(Principal principal) {
+    public ResponseEntity<?> getPatientBids(@RequestParam(required = false) String cursor,
+                                            @RequestParam(required = false) Integer limit,
+                                            @RequestParam(required = false) String fields,
+                                            Principal principal) {
         String patientUsername = principal.getName(); // 获取当前用户的用户名
-        return ResponseEntity.ok(bidRepository.findByPatientUsername(patientUsername)); // 查询并返回该用户的所有竞价记录
+        int pageSize = KeysetPagination.limit(limit);
+        long afterId;
+        try {
+            afterId = KeysetPagination.decodeId(cursor);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        List<Bid> bids = bidRepository.findByPatientUsernameAfterId(patientUsername, afterId, KeysetPagination.pageable(pageSize));
+        return KeysetPagination.respond(bids, pageSize, bid -> KeysetPagination.encodeId(bid.getId()), fields, objectMapper);
+    }
+
+    /**
+     * 分页获取当前患者的全部出价历史
+     * @param cursor 上一页响应头中的游标，第一页不传
+     * @param limit 每页数量
+     * @param fields 逗号分隔的返回字段，不传时返回完整记录
+     * @param principal 当前认证用户信息
+     * @return 返回出价历史的响应实体，有下一页时带游标响应头
+     */
+    @GetMapping("/patient-bid-history")
+    public ResponseEntity<?> getPatientBidHistory(@RequestParam(required = false) String cursor,
+                                                  @RequestParam(required = false) Integer limit,
+                                                  @RequestParam(required = false) String fields,
+                                                  Principal principal) {
+        int pageSize = KeysetPagination.limit(limit);
+        long afterId;
+        try {
+            afterId = KeysetPagination.decodeId(cursor);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        List<BidHistory> history = bidHistoryRepository.findByPatientUsernameAfterId(principal.getName(), afterId,
+                KeysetPagination.pageable(pageSize));
+        return KeysetPagination.respond(history, pageSize, entry -> KeysetPagination.encodeId(entry.getId()), fields, objectMapper);
     }
 
     /**
-     * 获取特定挂号ID的所有竞价记录
+     * 获取特定挂号ID上每个患者的当前出价
      * @param visitId 挂号ID
      * @return 返回竞价记录的响应实体
      */
     @GetMapping("/visit-bids/{visitId}")
-    public ResponseEntity<List<Bid>> getVisitBids(@PathVariable Long visitId) {
-        return ResponseEntity.ok(bidRepository.findByVisitId(visitId)); // 查询并返回该挂号ID的所有竞价记录
+    public ResponseEntity<StreamingResponseBody> getVisitBids(@PathVariable Long visitId) {
+        // 查询该挂号ID的当前出价（每个患者一条）并逐条写出
+        return JsonStreaming.array(bidRepository.findByVisitId(visitId), BidView::of, objectMapper);
     }
 
     /**
@@ -93,28 +171,10 @@ public class BidController {
      * @return 返回前五名竞价记录的响应实体
      */
     @GetMapping("/top-bids/{visitId}")
-    public ResponseEntity<List<Map<String, Object>>> getTopBids(@PathVariable Long visitId) {
-        List<Bid> bids = bidRepository.findByVisitId(visitId); // 获取指定挂号ID的所有竞价记录
-
-        // 获取每个竞价记录的患者信息并构建结果集
-        List<Map<String, Object>> result = bids.stream().map(bid -> {
-            Patient patient = patientRepository.findByUsername(bid.getPatientUsername());
-            Map<String, Object> bidInfo = new HashMap<>();
-            bidInfo.put("patientUsername", bid.getPatientUsername());
-            bidInfo.put("bidAmount", bid.getBidAmount());
-            bidInfo.put("bidTime", bid.getBidTime());
-            bidInfo.put("creditScore", patient.getCreditScore());
-            return bidInfo;
-        }).collect(Collectors.toList());
-
-        // 根据竞拍金额和信用分进行排序并限制前5名
-        result = result.stream()
-                .sorted(Comparator.comparingDouble(b -> {
-                    double bidAmount = (double) ((Map<String, Object>) b).get("bidAmount");
-                    int creditScore = (int) ((Map<String, Object>) b).get("creditScore");
-                    return bidAmount * creditScore;
-                }).reversed())
-                .limit(5)
+    public ResponseEntity<List<TopBid>> getTopBids(@PathVariable Long visitId) {
+        // 从内存竞价榜中读取按 出价*信用分 排序的前5名
+        List<TopBid> result = bidRankingService.getTopBids(visitId, 5).stream()
+                .map(TopBid::of)
                 .collect(Collectors.toList());
 
         return ResponseEntity.ok(result); // 返回前五名竞价记录
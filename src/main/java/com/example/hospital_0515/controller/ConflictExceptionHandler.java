@@ -0,0 +1,19 @@
+package com.example.hospital_0515.controller;
+
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+@RestControllerAdvice // 所有控制器共用的版本冲突处理
+public class ConflictExceptionHandler {
+
+    /**
+     * 重试次数用完仍然冲突时返回 409，客户端可以重新提交
+     */
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<String> handleConflict(OptimisticLockingFailureException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body("数据已被其他操作修改，请重试");
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.hospital_0515.controller;
+
+import com.example.hospital_0515.service.LiveUpdateService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController // 号源和竞价榜变化的推送通道
+@RequestMapping("/api/live")
+public class LiveUpdateController {
+
+    @Autowired // 自动注入 LiveUpdateService
+    private LiveUpdateService liveUpdateService;
+
+    /**
+     * 订阅推送，返回 text/event-stream 事件流
+     * @param topics 逗号分隔的主题：slots 为所有出诊的剩余号源，bids:出诊ID 为该竞拍出诊的前5名竞价
+     * @return 事件 slots 的数据为 {出诊ID: 剩余号源}，事件 bids 的数据为 {visitId, bids}
+     */
+    @GetMapping
+    public ResponseEntity<?> subscribe(@RequestParam List<String> topics) {
+        try {
+            return ResponseEntity.ok(liveUpdateService.subscribe(topics));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+        }
+    }
+}
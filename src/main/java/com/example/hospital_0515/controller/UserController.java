@@ -1,6 +1,7 @@
 //UserController.java
 package com.example.hospital_0515.controller;
 
+import com.example.hospital_0515.dto.RosterPatient;
 import com.example.hospital_0515.model.Admin;
 import com.example.hospital_0515.model.Doctor;
 import com.example.hospital_0515.model.Patient;
@@ -9,8 +10,16 @@ import com.example.hospital_0515.repository.AdminRepository;
 import com.example.hospital_0515.repository.DoctorRepository;
 import com.example.hospital_0515.repository.PatientRepository;
 import com.example.hospital_0515.repository.VisitRepository;
+import com.example.hospital_0515.service.BidRankingService;
+import com.example.hospital_0515.service.ConflictRetryExecutor;
+import com.example.hospital_0515.service.DoctorCacheService;
+import com.example.hospital_0515.service.DoctorRosterService;
+import com.example.hospital_0515.service.IdentityCacheService;
 import com.example.hospital_0515.util.AdminOperationLogger;
+import com.example.hospital_0515.util.KeysetPagination;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -18,6 +27,7 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
 import java.util.*;
 import org.springframework.http.HttpStatus;
 
@@ -40,6 +50,24 @@ public class UserController {
     @Autowired // 自动注入 VisitRepository
     private VisitRepository visitRepository;
 
+    @Autowired // 自动注入 BidRankingService
+    private BidRankingService bidRankingService;
+
+    @Autowired // 自动注入 IdentityCacheService
+    private IdentityCacheService identityCacheService;
+
+    @Autowired // 自动注入 DoctorCacheService
+    private DoctorCacheService doctorCacheService;
+
+    @Autowired // 自动注入 DoctorRosterService
+    private DoctorRosterService doctorRosterService;
+
+    @Autowired // 自动注入 ObjectMapper，用于列表字段投影
+    private ObjectMapper objectMapper;
+
+    @Autowired // 自动注入 ConflictRetryExecutor，患者信息版本冲突时重新读取并重试
+    private ConflictRetryExecutor conflictRetryExecutor;
+
     // 初始化方法，创建默认的管理员账号
     @PostConstruct
     public void init() {
@@ -67,17 +95,25 @@ public class UserController {
         }
     }
 
-    // 获取当前医生预订的患者列表
+    // 分页获取预约过当前医生出诊的患者名册，from/to 按出诊时间过滤，cursor 为上一页响应头中的游标
     @GetMapping("/patients/booked-by-current-doctor")
-    public ResponseEntity<List<Patient>> getPatientsBookedByCurrentDoctor() {
+    public ResponseEntity<?> getPatientsBookedByCurrentDoctor(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String fields) {
         String currentDoctorUsername = getCurrentDoctorUsername(); // 获取当前医生的用户名
-        List<Visit> visits = visitRepository.findByDoctorName(currentDoctorUsername); // 获取该医生的所有挂号信息
-        Set<String> patientUsernames = new HashSet<>();
-        for (Visit visit : visits) {
-            patientUsernames.addAll(visit.getBookedBy()); // 获取所有预约该医生的患者用户名
+        int pageSize = KeysetPagination.limit(limit);
+        String afterUsername;
+        try {
+            afterUsername = KeysetPagination.decodeKey(cursor);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         }
-        List<Patient> patients = patientRepository.findByUsernameIn(patientUsernames); // 查询所有患者信息
-        return ResponseEntity.ok(patients);
+        // 名册由缓存提供，只为当前页的患者查询一次资料
+        List<RosterPatient> roster = doctorRosterService.getRoster(currentDoctorUsername, from, to, afterUsername, pageSize + 1);
+        return KeysetPagination.respond(roster, pageSize, patient -> KeysetPagination.encodeKey(patient.getUsername()), fields, objectMapper);
     }
 
     // 注册患者
@@ -85,7 +121,9 @@ public class UserController {
     public ResponseEntity<Patient> registerPatient(@RequestBody Patient patient) {
         patient.setPassword(passwordEncoder.encode(patient.getPassword())); // 加密密码
         patient.setStatus("PENDING"); // 设置状态为待审批
-        return ResponseEntity.ok(patientRepository.save(patient)); // 保存患者信息并返回
+        Patient saved = patientRepository.save(patient); // 保存患者信息
+        identityCacheService.invalidate(saved.getUsername()); // 清除该用户名的身份缓存
+        return ResponseEntity.ok(saved);
     }
 
     // 注册医生
@@ -93,7 +131,10 @@ public class UserController {
     public ResponseEntity<Doctor> registerDoctor(@RequestBody Doctor doctor) {
         doctor.setPassword(passwordEncoder.encode(doctor.getPassword())); // 加密密码
         doctor.setStatus("PENDING"); // 设置状态为待审批
-        return ResponseEntity.ok(doctorRepository.save(doctor)); // 保存医生信息并返回
+        Doctor saved = doctorRepository.save(doctor); // 保存医生信息
+        identityCacheService.invalidate(saved.getUsername()); // 清除该用户名的身份缓存
+        doctorCacheService.onDoctorChanged(saved); // 更新医生缓存
+        return ResponseEntity.ok(saved);
     }
 
     // 注册管理员
@@ -101,7 +142,9 @@ public class UserController {
     public ResponseEntity<Admin> registerAdmin(@RequestBody Admin admin) {
         admin.setPassword(passwordEncoder.encode(admin.getPassword())); // 加密密码
         admin.setStatus("PENDING"); // 设置状态为待审批
-        return ResponseEntity.ok(adminRepository.save(admin)); // 保存管理员信息并返回
+        Admin saved = adminRepository.save(admin); // 保存管理员信息
+        identityCacheService.invalidate(saved.getUsername()); // 清除该用户名的身份缓存
+        return ResponseEntity.ok(saved);
     }
 
     // 更新用户信息
@@ -110,14 +153,16 @@ public class UserController {
         String currentAdminUsername = getCurrentAdminUsername(); // 获取当前管理员用户名
         switch (role) {
             case "patient":
-                Patient patient = patientRepository.findById(id).orElseThrow(); // 查找患者
-                if (updates.containsKey("name")) patient.setName((String) updates.get("name"));
-                if (updates.containsKey("medicalRecord")) patient.setMedicalRecord((String) updates.get("medicalRecord"));
-                if (updates.containsKey("age")) patient.setAge((Integer) updates.get("age"));
-                if (updates.containsKey("gender")) patient.setGender((String) updates.get("gender"));
-                if (updates.containsKey("address")) patient.setAddress((String) updates.get("address"));
-                if (updates.containsKey("contact")) patient.setContact((String) updates.get("contact"));
-                patientRepository.save(patient); // 保存更新信息
+                conflictRetryExecutor.run("updatePatient", () -> {
+                    Patient patient = patientRepository.findById(id).orElseThrow(); // 查找患者
+                    if (updates.containsKey("name")) patient.setName((String) updates.get("name"));
+                    if (updates.containsKey("medicalRecord")) patient.setMedicalRecord((String) updates.get("medicalRecord"));
+                    if (updates.containsKey("age")) patient.setAge((Integer) updates.get("age"));
+                    if (updates.containsKey("gender")) patient.setGender((String) updates.get("gender"));
+                    if (updates.containsKey("address")) patient.setAddress((String) updates.get("address"));
+                    if (updates.containsKey("contact")) patient.setContact((String) updates.get("contact"));
+                    patientRepository.save(patient); // 保存更新信息
+                });
                 AdminOperationLogger.logOperation("UPDATE", currentAdminUsername, role, id); // 记录操作日志
                 break;
             case "doctor":
@@ -132,6 +177,7 @@ public class UserController {
                 if (updates.containsKey("hospital")) doctor.setHospital((String) updates.get("hospital"));
                 if (updates.containsKey("specialty")) doctor.setSpecialty((String) updates.get("specialty"));
                 doctorRepository.save(doctor); // 保存更新信息
+                doctorCacheService.onDoctorChanged(doctor); // 更新医生缓存
                 AdminOperationLogger.logOperation("UPDATE", currentAdminUsername, role, id); // 记录操作日志
                 break;
             case "admin":
@@ -152,14 +198,20 @@ public class UserController {
         String currentAdminUsername = getCurrentAdminUsername(); // 获取当前管理员用户名
         switch (role) {
             case "patient":
+                patientRepository.findById(id).ifPresent(p -> identityCacheService.invalidate(p.getUsername())); // 清除身份缓存
                 patientRepository.deleteById(id); // 删除患者
                 AdminOperationLogger.logOperation("DELETE", currentAdminUsername, role, id); // 记录操作日志
                 break;
             case "doctor":
+                doctorRepository.findById(id).ifPresent(d -> {
+                    identityCacheService.invalidate(d.getUsername()); // 清除身份缓存
+                    doctorCacheService.onDoctorRemoved(d.getUsername()); // 清除医生缓存
+                });
                 doctorRepository.deleteById(id); // 删除医生
                 AdminOperationLogger.logOperation("DELETE", currentAdminUsername, role, id); // 记录操作日志
                 break;
             case "admin":
+                adminRepository.findById(id).ifPresent(a -> identityCacheService.invalidate(a.getUsername())); // 清除身份缓存
                 adminRepository.deleteById(id); // 删除管理员
                 AdminOperationLogger.logOperation("DELETE", currentAdminUsername, role, id); // 记录操作日志
                 break;
@@ -190,34 +242,61 @@ public class UserController {
     public ResponseEntity<?> approveUser(@PathVariable String role, @PathVariable Long id) {
         switch (role) {
             case "patient":
-                Patient patient = patientRepository.findById(id).orElseThrow(); // 查找患者
-                patient.setStatus("APPROVED"); // 设置状态为已审批
-                patientRepository.save(patient); // 保存更新信息
+                String patientUsername = conflictRetryExecutor.execute("approvePatient", () -> {
+                    Patient patient = patientRepository.findById(id).orElseThrow(); // 查找患者
+                    patient.setStatus("APPROVED"); // 设置状态为已审批
+                    patientRepository.save(patient); // 保存更新信息
+                    return patient.getUsername();
+                });
+                identityCacheService.invalidate(patientUsername); // 清除身份缓存
                 break;
             case "doctor":
                 Doctor doctor = doctorRepository.findById(id).orElseThrow(); // 查找医生
                 doctor.setStatus("APPROVED"); // 设置状态为已审批
                 doctorRepository.save(doctor); // 保存更新信息
+                doctorCacheService.onDoctorChanged(doctor); // 更新医生缓存
+                identityCacheService.invalidate(doctor.getUsername()); // 清除身份缓存
                 break;
             case "admin":
                 Admin admin = adminRepository.findById(id).orElseThrow(); // 查找管理员
                 admin.setStatus("APPROVED"); // 设置状态为已审批
                 adminRepository.save(admin); // 保存更新信息
+                identityCacheService.invalidate(admin.getUsername()); // 清除身份缓存
                 break;
         }
         return ResponseEntity.ok().build();
     }
 
-    // 获取所有已审批的患者
+    // 分页获取已审批的患者，cursor 为上一页响应头中的游标，fields 为逗号分隔的返回字段
     @GetMapping("/patients")
-    public ResponseEntity<List<Patient>> getAllPatients() {
-        return ResponseEntity.ok(patientRepository.findByStatus("APPROVED"));
+    public ResponseEntity<?> getAllPatients(@RequestParam(required = false) String cursor,
+                                            @RequestParam(required = false) Integer limit,
+                                            @RequestParam(required = false) String fields) {
+        int pageSize = KeysetPagination.limit(limit);
+        long afterId;
+        try {
+            afterId = KeysetPagination.decodeId(cursor);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        List<Patient> patients = patientRepository.findByStatusAfterId("APPROVED", afterId, KeysetPagination.pageable(pageSize));
+        return KeysetPagination.respond(patients, pageSize, patient -> KeysetPagination.encodeId(patient.getId()), fields, objectMapper);
     }
 
-    // 获取所有已审批的医生
+    // 分页获取已审批的医生，参数同上
     @GetMapping("/doctors")
-    public ResponseEntity<List<Doctor>> getAllDoctors() {
-        return ResponseEntity.ok(doctorRepository.findByStatus("APPROVED"));
+    public ResponseEntity<?> getAllDoctors(@RequestParam(required = false) String cursor,
+                                           @RequestParam(required = false) Integer limit,
+                                           @RequestParam(required = false) String fields) {
+        int pageSize = KeysetPagination.limit(limit);
+        long afterId;
+        try {
+            afterId = KeysetPagination.decodeId(cursor);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        List<Doctor> doctors = doctorRepository.findByStatusAfterId("APPROVED", afterId, KeysetPagination.pageable(pageSize));
+        return KeysetPagination.respond(doctors, pageSize, doctor -> KeysetPagination.encodeId(doctor.getId()), fields, objectMapper);
     }
 
     // 获取所有已审批的管理员
@@ -235,6 +314,7 @@ public class UserController {
             admin.setPassword(passwordEncoder.encode(newPassword)); // 加密新密码
             admin.setFirstLogin(false); // 设置为已登录
             adminRepository.save(admin); // 保存更新信息
+            identityCacheService.invalidate(admin.getUsername()); // 清除身份缓存
             return ResponseEntity.ok().build();
         }
         return ResponseEntity.badRequest().build();
@@ -251,8 +331,12 @@ public class UserController {
         if (patient != null) {
             List<Visit> visits = visitRepository.findByDoctorNameAndBookedByContaining(currentDoctorUsername, username);
             if (!visits.isEmpty()) { // 检查医生是否有权限修改患者信用分
-                patient.setCreditScore(score); // 更新信用分
-                patientRepository.save(patient); // 保存更新信息
+                conflictRetryExecutor.run("updateCreditScore", () -> {
+                    Patient current = patientRepository.findByUsername(username); // 冲突重试时重新读取
+                    current.setCreditScore(score); // 更新信用分
+                    patientRepository.save(current); // 保存更新信息
+                });
+                bidRankingService.onCreditScoreChanged(username, score); // 重新计算竞价排名
                 return ResponseEntity.ok().build();
             } else {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).body("您没有权限修改此患者的信用分");
@@ -298,18 +382,23 @@ public class UserController {
         String currentUsername = getCurrentUsername(); // 获取当前用户名
         switch (role) {
             case "patient":
-                Patient patient = patientRepository.findByUsername(currentUsername);
-                if (patient == null) {
+                if (patientRepository.findByUsername(currentUsername) == null) {
                     return ResponseEntity.badRequest().build();
                 }
-                if (updates.containsKey("name")) patient.setName((String) updates.get("name"));
-                if (updates.containsKey("medicalRecord")) patient.setMedicalRecord((String) updates.get("medicalRecord"));
-                if (updates.containsKey("age")) patient.setAge((Integer) updates.get("age"));
-                if (updates.containsKey("gender")) patient.setGender((String) updates.get("gender"));
-                if (updates.containsKey("address")) patient.setAddress((String) updates.get("address"));
-                if (updates.containsKey("contact")) patient.setContact((String) updates.get("contact"));
-                if (updates.containsKey("password")) patient.setPassword(passwordEncoder.encode((String) updates.get("password")));
-                patientRepository.save(patient); // 保存更新信息
+                // 密码只编码一次，重试时复用
+                String encodedPassword = updates.containsKey("password") ? passwordEncoder.encode((String) updates.get("password")) : null;
+                conflictRetryExecutor.run("updatePatientSelf", () -> {
+                    Patient patient = patientRepository.findByUsername(currentUsername);
+                    if (updates.containsKey("name")) patient.setName((String) updates.get("name"));
+                    if (updates.containsKey("medicalRecord")) patient.setMedicalRecord((String) updates.get("medicalRecord"));
+                    if (updates.containsKey("age")) patient.setAge((Integer) updates.get("age"));
+                    if (updates.containsKey("gender")) patient.setGender((String) updates.get("gender"));
+                    if (updates.containsKey("address")) patient.setAddress((String) updates.get("address"));
+                    if (updates.containsKey("contact")) patient.setContact((String) updates.get("contact"));
+                    if (encodedPassword != null) patient.setPassword(encodedPassword);
+                    patientRepository.save(patient); // 保存更新信息
+                });
+                if (updates.containsKey("password")) identityCacheService.invalidate(currentUsername); // 密码变化后清除身份缓存
                 break;
             case "doctor":
                 Doctor doctor = doctorRepository.findByUsername(currentUsername);
@@ -327,6 +416,8 @@ public class UserController {
                 if (updates.containsKey("specialty")) doctor.setSpecialty((String) updates.get("specialty"));
                 if (updates.containsKey("password")) doctor.setPassword(passwordEncoder.encode((String) updates.get("password")));
                 doctorRepository.save(doctor); // 保存更新信息
+                doctorCacheService.onDoctorChanged(doctor); // 更新医生缓存
+                if (updates.containsKey("password")) identityCacheService.invalidate(currentUsername); // 密码变化后清除身份缓存
                 break;
             case "admin":
                 Admin admin = adminRepository.findByUsername(currentUsername);
@@ -338,29 +429,56 @@ public class UserController {
                 if (updates.containsKey("contact")) admin.setContact((String) updates.get("contact"));
                 if (updates.containsKey("password")) admin.setPassword(passwordEncoder.encode((String) updates.get("password")));
                 adminRepository.save(admin); // 保存更新信息
+                if (updates.containsKey("password")) identityCacheService.invalidate(currentUsername); // 密码变化后清除身份缓存
                 break;
         }
         return ResponseEntity.ok().build();
     }
 
+    // 获取当前用户信息，先从身份缓存确定角色和ID，只按主键查询一次
     @GetMapping("/current")
     public ResponseEntity<?> getCurrentUser() {
         String username = getCurrentUsername();
-        Admin admin = adminRepository.findByUsername(username);
-        if (admin != null) {
-            return ResponseEntity.ok(admin);
-        }
-        Doctor doctor = doctorRepository.findByUsername(username);
-        if (doctor != null) {
-            return ResponseEntity.ok(doctor);
-        }
-        Patient patient = patientRepository.findByUsername(username);
-        if (patient != null) {
-            return ResponseEntity.ok(patient);
+        IdentityCacheService.Identity identity = identityCacheService.find(username);
+        if (identity != null) {
+            switch (identity.getRole()) {
+                case IdentityCacheService.ROLE_ADMIN:
+                    Optional<Admin> admin = adminRepository.findById(identity.getId());
+                    if (admin.isPresent()) {
+                        return ResponseEntity.ok(admin.get());
+                    }
+                    break;
+                case IdentityCacheService.ROLE_DOCTOR:
+                    Optional<Doctor> doctor = doctorRepository.findById(identity.getId());
+                    if (doctor.isPresent()) {
+                        return ResponseEntity.ok(doctor.get());
+                    }
+                    break;
+                default:
+                    Optional<Patient> patient = patientRepository.findById(identity.getId());
+                    if (patient.isPresent()) {
+                        return ResponseEntity.ok(patient.get());
+                    }
+                    break;
+            }
+            // 缓存中的身份已失效
+            identityCacheService.invalidate(username);
         }
         return ResponseEntity.badRequest().body("用户不存在");
     }
 
+    // 获取身份缓存的命中统计
+    @GetMapping("/identity-cache")
+    public ResponseEntity<Map<String, Object>> getIdentityCacheStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("size", identityCacheService.getSize());
+        stats.put("hits", identityCacheService.getHitCount());
+        stats.put("misses", identityCacheService.getMissCount());
+        stats.put("evictions", identityCacheService.getEvictionCount());
+        stats.put("hitRatio", identityCacheService.getHitRatio());
+        return ResponseEntity.ok(stats);
+    }
+
 
 }
 
@@ -1,12 +1,26 @@
 package com.example.hospital_0515.controller;
 
+import com.example.hospital_0515.dto.VisitDetails;
+import com.example.hospital_0515.dto.VisitView;
 import com.example.hospital_0515.model.Visit;
 import com.example.hospital_0515.repository.VisitRepository;
 import com.example.hospital_0515.model.Patient;
-import com.example.hospital_0515.model.Doctor;
 import com.example.hospital_0515.repository.PatientRepository;
-import com.example.hospital_0515.repository.DoctorRepository;
+import com.example.hospital_0515.service.AvailabilityService;
+import com.example.hospital_0515.service.BidRankingService;
+import com.example.hospital_0515.service.BookingMailboxService;
+import com.example.hospital_0515.service.BookingService;
+import com.example.hospital_0515.service.DoctorCacheService;
+import com.example.hospital_0515.service.IdempotencyService;
+import com.example.hospital_0515.service.LiveUpdateService;
+import com.example.hospital_0515.service.RecommendationService;
+import com.example.hospital_0515.service.SlotInventoryService;
+import com.example.hospital_0515.service.VisitDirectoryService;
+import com.example.hospital_0515.service.WaitlistService;
+import com.example.hospital_0515.util.JsonStreaming;
+import com.example.hospital_0515.util.KeysetPagination;
 import com.example.hospital_0515.util.PatientBookingLogger;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
@@ -14,13 +28,13 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.DayOfWeek;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.List;
 import java.util.stream.Collectors;
-import java.time.temporal.ChronoUnit;
 import java.util.*;
 
 @RestController
@@ -34,21 +48,49 @@ public class VisitController {
     private PatientRepository patientRepository;
 
     @Autowired
-    private DoctorRepository doctorRepository;
+    private SlotInventoryService slotInventoryService;
+
+    @Autowired
+    private BookingService bookingService;
+
+    @Autowired
+    private BookingMailboxService bookingMailboxService;
+
+    @Autowired
+    private WaitlistService waitlistService;
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Autowired
+    private VisitDirectoryService visitDirectoryService;
+
+    @Autowired
+    private BidRankingService bidRankingService;
+
+    @Autowired
+    private RecommendationService recommendationService;
+
+    @Autowired
+    private AvailabilityService availabilityService;
+
+    @Autowired
+    private DoctorCacheService doctorCacheService;
+
+    @Autowired
+    private LiveUpdateService liveUpdateService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
 
     /**
      * 根据ID获取出诊信息
      */
     @GetMapping("/{id}")
-    public ResponseEntity<Map<String, Object>> getVisitById(@PathVariable Long id) {
+    public ResponseEntity<VisitDetails> getVisitById(@PathVariable Long id) {
         Visit visit = visitRepository.findById(id).orElseThrow();
-        Map<String, Object> visitDetails = new HashMap<>();
-        visitDetails.put("visit", visit);
-        Doctor doctor = doctorRepository.findByUsername(visit.getDoctorName());
-        if (doctor != null) {
-            visitDetails.put("hospital", doctor.getHospital());
-        }
-        return ResponseEntity.ok(visitDetails);
+        // 医院名称从医生缓存读取，不再加载完整的医生实体
+        return ResponseEntity.ok(new VisitDetails(VisitView.of(visit), doctorCacheService.getHospital(visit.getDoctorName())));
     }
 
     /**
@@ -60,7 +102,10 @@ public class VisitController {
         visit.setDoctorName(currentDoctorUsername);
         visit.setStatus("PENDING");
         visit.setAuction(false);  // 设置为非竞拍号源
-        return ResponseEntity.ok(visitRepository.save(visit));
+        Visit saved = visitRepository.save(visit);
+        visitDirectoryService.onVisitAdded(saved);
+        availabilityService.onVisitChanged(saved);
+        return ResponseEntity.ok(saved);
     }
 
     /**
@@ -72,7 +117,9 @@ public class VisitController {
         visit.setDoctorName(currentDoctorUsername);
         visit.setStatus("PENDING");
         visit.setAuction(true);  // 设置为竞拍号源
-        return ResponseEntity.ok(visitRepository.save(visit));
+        Visit saved = visitRepository.save(visit);
+        visitDirectoryService.onVisitAdded(saved);
+        return ResponseEntity.ok(saved);
     }
 
     /**
@@ -85,16 +132,19 @@ public class VisitController {
         String currentDoctorUsername = getCurrentDoctorUsername();
         visit.setDoctorName(currentDoctorUsername);
         visit.setAuction(false);  // 设置为非竞拍号源
-        return ResponseEntity.ok(visitRepository.save(visit));
+        Visit saved = visitRepository.save(visit);
+        visitDirectoryService.onVisitAdded(saved);
+        return ResponseEntity.ok(saved);
     }
 
     /**
      * 获取所有周期性出诊信息
      */
     @GetMapping("/recurring")
-    public ResponseEntity<List<Visit>> getAllRecurringVisits() {
+    public ResponseEntity<StreamingResponseBody> getAllRecurringVisits() {
         String currentDoctorUsername = getCurrentDoctorUsername();
-        return ResponseEntity.ok(visitRepository.findByDoctorNameAndRecurringAndAuction(currentDoctorUsername, true, false));
+        return JsonStreaming.array(visitRepository.findByDoctorNameAndRecurringAndAuction(currentDoctorUsername, true, false),
+                VisitView::of, objectMapper);
     }
 
     /**
@@ -106,6 +156,11 @@ public class VisitController {
         String currentDoctorUsername = getCurrentDoctorUsername();
         if (visit.getDoctorName().equals(currentDoctorUsername)) {
             visitRepository.deleteById(id);
+            bookingService.deleteByVisit(id);
+            slotInventoryService.invalidate(id);
+            visitDirectoryService.onVisitRemoved(visit);
+            recommendationService.onVisitRemoved(id);
+            availabilityService.onVisitRemoved(id);
             return ResponseEntity.ok().build();
         } else {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
@@ -113,11 +168,14 @@ public class VisitController {
     }
 
     /**
-     * 获取所有待审批的普通出诊信息
+     * 分页获取待审批的普通出诊信息
+     * cursor 为上一页响应头中的游标，fields 为逗号分隔的返回字段
      */
     @GetMapping("/pending")
-    public ResponseEntity<List<Visit>> getPendingVisits() {
-        return ResponseEntity.ok(visitRepository.findByRecurringAndStatusAndAuction(false, "PENDING", false));
+    public ResponseEntity<?> getPendingVisits(@RequestParam(required = false) String cursor,
+                                              @RequestParam(required = false) Integer limit,
+                                              @RequestParam(required = false) String fields) {
+        return pageByStatusAndAuction("PENDING", false, cursor, limit, fields);
     }
 
     /**
@@ -125,9 +183,14 @@ public class VisitController {
      */
     @PutMapping("/approve/{id}")
     public ResponseEntity<?> approveVisit(@PathVariable Long id) {
-        Visit visit = visitRepository.findById(id).orElseThrow();
-        visit.setStatus("APPROVED");
-        visitRepository.save(visit);
+        // 只更新状态，避免用数据库中的旧值覆盖内存号源尚未回写的变化
+        if (visitRepository.updateStatus(id, "APPROVED") == 0) {
+            throw new NoSuchElementException("出诊不存在: " + id);
+        }
+        visitRepository.findById(id).ifPresent(visit -> {
+            recommendationService.onVisitOpened(visit);
+            availabilityService.onVisitChanged(visit);
+        });
         return ResponseEntity.ok().build();
     }
 
@@ -136,9 +199,9 @@ public class VisitController {
      */
     @PutMapping("/approve-auction/{id}")
     public ResponseEntity<?> approveAuctionVisit(@PathVariable Long id) {
-        Visit visit = visitRepository.findById(id).orElseThrow();
-        visit.setStatus("APPROVED");
-        visitRepository.save(visit);
+        if (visitRepository.updateStatus(id, "APPROVED") == 0) {
+            throw new NoSuchElementException("出诊不存在: " + id);
+        }
         return ResponseEntity.ok().build();
     }
 
@@ -146,37 +209,50 @@ public class VisitController {
      * 获取医生的所有普通出诊信息
      */
     @GetMapping("/normal")
-    public ResponseEntity<List<Visit>> getDoctorNormalVisits() {
+    public ResponseEntity<StreamingResponseBody> getDoctorNormalVisits() {
         String currentDoctorUsername = getCurrentDoctorUsername();
         List<Visit> visits = visitRepository.findByDoctorNameAndNormal(currentDoctorUsername);
-        return ResponseEntity.ok(visits);
+        return JsonStreaming.array(bookingService.fillBookedBy(visits), VisitView::of, objectMapper);
     }
 
     /**
      * 获取所有待审批的竞拍出诊信息
      */
     @GetMapping("/pending-auction")
-    public ResponseEntity<List<Visit>> getPendingAuctionVisits() {
-        return ResponseEntity.ok(visitRepository.findByStatusAndAuction("PENDING", true));
+    public ResponseEntity<StreamingResponseBody> getPendingAuctionVisits() {
+        return JsonStreaming.array(visitRepository.findByStatusAndAuction("PENDING", true), VisitView::of, objectMapper);
     }
 
     /**
      * 获取医生的所有竞拍出诊信息
      */
     @GetMapping("/auction")
-    public ResponseEntity<List<Visit>> getDoctorAuctionVisits() {
+    public ResponseEntity<StreamingResponseBody> getDoctorAuctionVisits() {
         String currentDoctorUsername = getCurrentDoctorUsername();
         List<Visit> visits = visitRepository.findByDoctorNameAndAuction(currentDoctorUsername);
-        return ResponseEntity.ok(visits);
+        return JsonStreaming.array(visits, VisitView::of, objectMapper);
     }
 
     /**
-     * 获取所有可用的竞拍出诊信息
+     * 分页获取可用的竞拍出诊信息，参数同上
      */
     @GetMapping("/available-auction")
-    public ResponseEntity<List<Visit>> getAvailableAuctionVisits() {
-        List<Visit> visits = visitRepository.findByStatusAndAuction("APPROVED", true);
-        return ResponseEntity.ok(visits);
+    public ResponseEntity<?> getAvailableAuctionVisits(@RequestParam(required = false) String cursor,
+                                                       @RequestParam(required = false) Integer limit,
+                                                       @RequestParam(required = false) String fields) {
+        return pageByStatusAndAuction("APPROVED", true, cursor, limit, fields);
+    }
+
+    private ResponseEntity<?> pageByStatusAndAuction(String status, boolean auction, String cursor, Integer limit, String fields) {
+        int pageSize = KeysetPagination.limit(limit);
+        long afterId;
+        try {
+            afterId = KeysetPagination.decodeId(cursor);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        List<Visit> visits = visitRepository.findByStatusAndAuctionAfterId(status, auction, afterId, KeysetPagination.pageable(pageSize));
+        return KeysetPagination.respond(visits, pageSize, visit -> KeysetPagination.encodeId(visit.getId()), fields, objectMapper);
     }
 
     /**
@@ -188,6 +264,12 @@ public class VisitController {
         String currentDoctorUsername = getCurrentDoctorUsername();
         if (visit.getDoctorName().equals(currentDoctorUsername)) {
             visitRepository.deleteById(id);
+            bookingService.deleteByVisit(id);
+            slotInventoryService.invalidate(id);
+            visitDirectoryService.onVisitRemoved(visit);
+            bidRankingService.evict(id);
+            recommendationService.onVisitRemoved(id);
+            availabilityService.onVisitRemoved(id);
             return ResponseEntity.ok().build();
         } else {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
@@ -198,41 +280,22 @@ public class VisitController {
      * 获取指定时间段内医生的所有出诊信息
      */
     @GetMapping("/doctor")
-    public ResponseEntity<List<Visit>> getDoctorVisits(@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
+    public ResponseEntity<StreamingResponseBody> getDoctorVisits(@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
                                                        @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate) {
         String currentDoctorUsername = getCurrentDoctorUsername();
-        return ResponseEntity.ok(visitRepository.findByDoctorNameAndVisitTimeBetweenAndStatusAndAuction(currentDoctorUsername, startDate, endDate, "APPROVED", false));
+        List<Visit> visits = visitRepository.findByDoctorNameAndVisitTimeBetweenAndStatusAndAuction(currentDoctorUsername, startDate, endDate, "APPROVED", false);
+        return JsonStreaming.array(bookingService.fillBookedBy(visits), VisitView::of, objectMapper);
     }
 
     /**
      * 获取可预约的出诊信息，按科室和医生姓名筛选
      */
     @GetMapping("/patient")
-    public ResponseEntity<List<Visit>> getAvailableVisits(@RequestParam(required = false) String department,
+    public ResponseEntity<StreamingResponseBody> getAvailableVisits(@RequestParam(required = false) String department,
                                                           @RequestParam(required = false) String doctorName) {
-        LocalDateTime now = LocalDateTime.now();
-        LocalDateTime startOfToday = now.truncatedTo(ChronoUnit.DAYS);
-        LocalDateTime endOfToday = startOfToday.plusDays(1);
-
-        // 21日到24日的时间范围
-        LocalDateTime oneDayLater = startOfToday.plusDays(1);
-        LocalDateTime fourDaysLater = startOfToday.plusDays(4);
-
-        List<Visit> visits = new ArrayList<>();
-
-        // 根据当前时间来决定当天的预约时间范围，上午7点开始开放预约
-        if (now.getHour() < 9 && now.getHour() >= 7) {
-            // 上午9点前，可以预约当天上午和下午的号
-            visits.addAll(visitRepository.findAvailableVisits(department, doctorName, now, endOfToday, false));
-        } else if (now.getHour() < 14) {
-            // 上午9点后到下午14点前，可以预约当天下午的号
-            visits.addAll(visitRepository.findAvailableVisits(department, doctorName, startOfToday.plusHours(12), endOfToday, false));
-        }
-
-        // 21日到24日的号
-        visits.addAll(visitRepository.findAvailableVisits(department, doctorName, oneDayLater, fourDaysLater, false));
-
-        return ResponseEntity.ok(visits);
+        // 预约时段规则和号源过滤由内存中的可预约索引完成，不查询数据库
+        List<Visit> visits = availabilityService.findBookable(department, doctorName, LocalDateTime.now());
+        return JsonStreaming.array(visits, VisitView::of, objectMapper);
     }
 
     /**
@@ -240,7 +303,8 @@ public class VisitController {
      */
     @PutMapping("/book/{id}")
     public ResponseEntity<?> bookVisit(@PathVariable Long id) {
-        Visit visit = visitRepository.findById(id).orElseThrow();
+        // 从内存号源中读取，数据库中的号源数由定时回写更新，可能滞后；出诊不存在时抛出异常
+        int availableSlots = slotInventoryService.available(id);
         String currentPatientUsername = getCurrentPatientUsername();
         Patient patient = patientRepository.findByUsername(currentPatientUsername);
 
@@ -250,7 +314,7 @@ public class VisitController {
         }
 
         // 检查是否已挂号
-        if (visit.getBookedBy().contains(currentPatientUsername)) {
+        if (bookingService.isBooked(id, currentPatientUsername)) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("您已挂号，不能重复挂号");
         }
 
@@ -259,7 +323,7 @@ public class VisitController {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).body("信用分低于60分，无法预约挂号");
         }
 
-        if (visit.getAvailableSlots() <= 0) {
+        if (availableSlots <= 0) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("该号已挂完");
         }
 
@@ -267,11 +331,17 @@ public class VisitController {
     }
 
     /**
-     * 支付预约
+     * 支付预约。带 Idempotency-Key 请求头重复提交时返回第一次的结果，不再重复执行
      */
     @PutMapping("/pay/{id}")
-    public ResponseEntity<?> payVisit(@PathVariable Long id) {
-        Visit visit = visitRepository.findById(id).orElseThrow();
+    public ResponseEntity<?> payVisit(@PathVariable Long id,
+                                      @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        return idempotencyService.execute(idempotencyKey, getCurrentPatientUsername(), "pay:" + id, () -> pay(id));
+    }
+
+    private ResponseEntity<?> pay(Long id) {
+        // 从内存号源中读取，出诊不存在时抛出异常
+        slotInventoryService.available(id);
         String currentPatientUsername = getCurrentPatientUsername();
         Patient patient = patientRepository.findByUsername(currentPatientUsername);
 
@@ -280,24 +350,105 @@ public class VisitController {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("患者不存在");
         }
 
-        // 检查是否已挂号
-        if (visit.getBookedBy().contains(currentPatientUsername)) {
+        // 检查信用分
+        if (patient.getCreditScore() < 60) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("信用分低于60分，无法预约挂号");
+        }
+
+        // 由出诊所在的预约信箱串行判断重复挂号、占用号源并批量写入预约记录
+        BookingMailboxService.Outcome outcome;
+        try {
+            outcome = bookingMailboxService.pay(id, currentPatientUsername);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+        }
+        if (outcome == BookingMailboxService.Outcome.ALREADY_BOOKED) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("您已挂号，不能重复挂号");
         }
+        if (outcome == BookingMailboxService.Outcome.SOLD_OUT) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("该号已挂完，可加入候补");
+        }
+        availabilityService.onSlotsChanged(id);
+        liveUpdateService.onSlotsChanged(id);
+        recommendationService.onBooked(currentPatientUsername, id);
+        PatientBookingLogger.logBooking("BOOK", currentPatientUsername, id);
+        return ResponseEntity.ok().build();
+    }
+
+    /**
+     * 加入候补队列。有患者取消时号源按信用分从高到低、同分先到先得直接转给候补患者，不需要反复刷新重试；
+     * 加入时仍有号源则直接挂号
+     * @return status 为 WAITLISTED 或 BOOKED，position 为在队列中的位置
+     */
+    @PutMapping("/waitlist/{id}")
+    public ResponseEntity<?> joinWaitlist(@PathVariable Long id) {
+        // 从内存号源中读取，出诊不存在时抛出异常
+        slotInventoryService.available(id);
+        String currentPatientUsername = getCurrentPatientUsername();
+        Patient patient = patientRepository.findByUsername(currentPatientUsername);
+
+        // 检查患者是否存在
+        if (patient == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("患者不存在");
+        }
 
         // 检查信用分
         if (patient.getCreditScore() < 60) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).body("信用分低于60分，无法预约挂号");
         }
 
-        if (visit.getAvailableSlots() <= 0) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("该号已挂完");
+        BookingMailboxService.Outcome outcome;
+        try {
+            outcome = bookingMailboxService.joinWaitlist(id, currentPatientUsername, patient.getCreditScore());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
         }
+        switch (outcome) {
+            case ALREADY_BOOKED:
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("您已挂号，不能重复挂号");
+            case ALREADY_WAITLISTED:
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("您已在候补队列中");
+            case BOOKED:
+                availabilityService.onSlotsChanged(id);
+                liveUpdateService.onSlotsChanged(id);
+                recommendationService.onBooked(currentPatientUsername, id);
+                PatientBookingLogger.logBooking("BOOK", currentPatientUsername, id);
+                break;
+            default:
+                PatientBookingLogger.logBooking("WAITLIST_JOIN", currentPatientUsername, id);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("status", outcome.name());
+        body.put("position", waitlistService.position(id, currentPatientUsername));
+        return ResponseEntity.ok(body);
+    }
 
-        visit.setAvailableSlots(visit.getAvailableSlots() - 1);
-        visit.getBookedBy().add(currentPatientUsername);  // 添加到列表中
-        visitRepository.save(visit);  // 保存修改
-        PatientBookingLogger.logBooking("BOOK", currentPatientUsername, id);
+    /**
+     * 查询当前患者在候补队列中的位置，0 表示不在队列中
+     */
+    @GetMapping("/waitlist/{id}")
+    public ResponseEntity<?> getWaitlistPosition(@PathVariable Long id) {
+        slotInventoryService.available(id);
+        return ResponseEntity.ok(Collections.singletonMap("position",
+                waitlistService.position(id, getCurrentPatientUsername())));
+    }
+
+    /**
+     * 离开候补队列
+     */
+    @DeleteMapping("/waitlist/{id}")
+    public ResponseEntity<?> leaveWaitlist(@PathVariable Long id) {
+        String currentPatientUsername = getCurrentPatientUsername();
+        BookingMailboxService.Outcome outcome;
+        try {
+            outcome = bookingMailboxService.leaveWaitlist(id, currentPatientUsername);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+        }
+        if (outcome == BookingMailboxService.Outcome.NOT_WAITLISTED) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("您不在候补队列中");
+        }
+        PatientBookingLogger.logBooking("WAITLIST_LEAVE", currentPatientUsername, id);
         return ResponseEntity.ok().build();
     }
 
@@ -310,6 +461,11 @@ public class VisitController {
         Visit visit = visitRepository.findById(id).orElseThrow();
         if (visit.getDoctorName().equals(currentDoctorUsername)) {
             visitRepository.deleteById(id);
+            bookingService.deleteByVisit(id);
+            slotInventoryService.invalidate(id);
+            visitDirectoryService.onVisitRemoved(visit);
+            recommendationService.onVisitRemoved(id);
+            availabilityService.onVisitRemoved(id);
             return ResponseEntity.ok().build();
         } else {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
@@ -321,12 +477,7 @@ public class VisitController {
      */
     @GetMapping("/departments")
     public ResponseEntity<List<String>> getDepartments() {
-        List<String> departments = visitRepository.findAll().stream()
-                .filter(visit -> !visit.isAuction())
-                .map(Visit::getDepartment)
-                .distinct()
-                .collect(Collectors.toList());
-        return ResponseEntity.ok(departments);
+        return ResponseEntity.ok(visitDirectoryService.getDepartments());
     }
 
     /**
@@ -334,24 +485,32 @@ public class VisitController {
      */
     @GetMapping("/doctors")
     public ResponseEntity<List<String>> getDoctors() {
-        List<String> doctors = visitRepository.findAll().stream()
-                .filter(visit -> !visit.isAuction())
-                .map(Visit::getDoctorName)
-                .distinct()
-                .collect(Collectors.toList());
-        return ResponseEntity.ok(doctors);
+        return ResponseEntity.ok(visitDirectoryService.getDoctors());
+    }
+
+    /**
+     * 获取科室和医生目录的出诊数量及缓存命中统计
+     */
+    @GetMapping("/directory")
+    public ResponseEntity<Map<String, Object>> getDirectory() {
+        Map<String, Object> directory = new HashMap<>();
+        directory.put("departments", visitDirectoryService.getDepartmentCounts());
+        directory.put("doctors", visitDirectoryService.getDoctorCounts());
+        directory.put("hits", visitDirectoryService.getHitCount());
+        directory.put("misses", visitDirectoryService.getMissCount());
+        return ResponseEntity.ok(directory);
     }
 
     /**
      * 获取患者已预约的出诊信息
      */
     @GetMapping("/booked")
-    public ResponseEntity<List<Visit>> getBookedVisits() {
+    public ResponseEntity<StreamingResponseBody> getBookedVisits() {
         String currentUsername = getCurrentPatientUsername();
         List<Visit> visits = visitRepository.findByBookedByContaining(currentUsername).stream()
                 .filter(visit -> !visit.isAuction())
                 .collect(Collectors.toList());
-        return ResponseEntity.ok(visits);
+        return JsonStreaming.array(visits, VisitView::of, objectMapper);
     }
 
     /**
@@ -379,29 +538,50 @@ public class VisitController {
     }
 
     /**
-     * 获取患者历史挂号信息
+     * 分页获取患者历史挂号信息，按出诊时间排序
+     * cursor 为上一页响应头中的游标，fields 为逗号分隔的返回字段
      */
     @GetMapping("/history")
-    public ResponseEntity<List<Visit>> getPatientHistoryVisits(
+    public ResponseEntity<?> getPatientHistoryVisits(
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
-            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate) {
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String fields) {
         String currentPatientUsername = getCurrentPatientUsername();
-        List<Visit> visits = visitRepository.findByBookedByContainingAndVisitTimeBetween(currentPatientUsername, startDate, endDate).stream()
-                .filter(visit -> !visit.isAuction())
-                .collect(Collectors.toList());
-        return ResponseEntity.ok(visits);
+        int pageSize = KeysetPagination.limit(limit);
+        LocalDateTime afterTime = startDate;
+        long afterId = 0L;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                Object[] key = KeysetPagination.decodeTimeAndId(cursor);
+                afterTime = (LocalDateTime) key[0];
+                afterId = (Long) key[1];
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(e.getMessage());
+            }
+        }
+        List<Visit> visits = visitRepository.findBookedNormalVisitsAfter(currentPatientUsername, startDate, endDate,
+                afterTime, afterId, KeysetPagination.pageable(pageSize));
+        return KeysetPagination.respond(visits, pageSize,
+                visit -> KeysetPagination.encodeTimeAndId(visit.getVisitTime(), visit.getId()), fields, objectMapper);
     }
 
     /**
-     * 取消预约
+     * 取消预约。带 Idempotency-Key 请求头重复提交时返回第一次的结果，不再重复执行
      */
     @PutMapping("/cancel/{id}")
-    public ResponseEntity<?> cancelVisit(@PathVariable Long id) {
+    public ResponseEntity<?> cancelVisit(@PathVariable Long id,
+                                         @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        return idempotencyService.execute(idempotencyKey, getCurrentPatientUsername(), "cancel:" + id, () -> cancel(id));
+    }
+
+    private ResponseEntity<?> cancel(Long id) {
         Visit visit = visitRepository.findById(id).orElseThrow();
         String currentPatientUsername = getCurrentPatientUsername();
 
         // 检查是否已挂号
-        if (!visit.getBookedBy().contains(currentPatientUsername)) {
+        if (!bookingService.isBooked(id, currentPatientUsername)) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("您尚未挂号，无法取消");
         }
 
@@ -411,10 +591,19 @@ public class VisitController {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("只能在出诊前一天或更早取消预约");
         }
 
-        // 取消预约
-        visit.setAvailableSlots(visit.getAvailableSlots() + 1);
-        visit.getBookedBy().remove(currentPatientUsername);
-        visitRepository.save(visit);
+        // 取消预约并归还号源，与同一出诊的支付在同一个信箱中串行执行
+        BookingMailboxService.Outcome outcome;
+        try {
+            outcome = bookingMailboxService.cancel(id, currentPatientUsername);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+        }
+        if (outcome == BookingMailboxService.Outcome.NOT_BOOKED) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("您尚未挂号，无法取消");
+        }
+        availabilityService.onSlotsChanged(id);
+        liveUpdateService.onSlotsChanged(id);
+        recommendationService.onCancelled(currentPatientUsername, id);
         PatientBookingLogger.logBooking("CANCEL", currentPatientUsername, id);
         return ResponseEntity.ok().build();
     }
@@ -423,59 +612,10 @@ public class VisitController {
      * 获取推荐的挂号信息
      */
     @GetMapping("/recommendations")
-    public ResponseEntity<List<Map<String, Object>>> getRecommendations() {
+    public ResponseEntity<List<VisitDetails>> getRecommendations() {
         String currentPatientUsername = getCurrentPatientUsername();
-
-        // 获取患者之前挂号记录
-        List<Visit> previousVisits = visitRepository.findByBookedByContaining(currentPatientUsername);
-
-        // 获取患者挂号的医生的科室
-        Set<String> previousDepartments = previousVisits.stream()
-                .filter(visit -> !visit.isAuction())
-                .map(Visit::getDepartment)
-                .collect(Collectors.toSet());
-
-        // 获取同科室的挂号信息
-        List<Visit> sameDepartmentVisits = visitRepository.findByDepartmentInAndVisitTimeAfter(previousDepartments, LocalDateTime.now()).stream()
-                .filter(visit -> !visit.isAuction())
-                .collect(Collectors.toList());
-
-        // 获取所有挂号信息，按出诊时间排序
-        List<Visit> allVisits = visitRepository.findByVisitTimeAfterOrderByVisitTimeAsc(LocalDateTime.now()).stream()
-                .filter(visit -> !visit.isAuction())
-                .collect(Collectors.toList());
-
-        // 获取患者之前挂号的医生
-        Set<String> previousDoctors = previousVisits.stream()
-                .map(Visit::getDoctorName)
-                .collect(Collectors.toSet());
-
-        // 先推荐同科室的医生，再推荐历史挂过号的医生，最后按时间推荐
-        List<Visit> recommendations = sameDepartmentVisits.stream()
-                .filter(v -> !v.getBookedBy().contains(currentPatientUsername))
-                .collect(Collectors.toList());
-
-        recommendations.addAll(allVisits.stream()
-                .filter(v -> previousDoctors.contains(v.getDoctorName()) && !v.getBookedBy().contains(currentPatientUsername))
-                .collect(Collectors.toList()));
-
-        recommendations.addAll(allVisits.stream()
-                .filter(v -> !previousDoctors.contains(v.getDoctorName()) && !v.getBookedBy().contains(currentPatientUsername))
-                .collect(Collectors.toList()));
-
-        // 为每个推荐的Visit添加医生的医院信息
-        List<Map<String, Object>> recommendationDetails = new ArrayList<>();
-        for (Visit visit : recommendations.stream().limit(10).collect(Collectors.toList())) {
-            Map<String, Object> recommendationDetail = new HashMap<>();
-            recommendationDetail.put("visit", visit);
-            Doctor doctor = doctorRepository.findByUsername(visit.getDoctorName());
-            if (doctor != null) {
-                recommendationDetail.put("hospital", doctor.getHospital());
-            }
-            recommendationDetails.add(recommendationDetail);
-        }
-
-        return ResponseEntity.ok(recommendationDetails);
+        // 先推荐同科室的出诊，再推荐挂过号的医生的出诊，最后按时间推荐
+        return ResponseEntity.ok(recommendationService.recommend(currentPatientUsername, 10));
     }
 }
 
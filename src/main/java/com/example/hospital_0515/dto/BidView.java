@@ -0,0 +1,39 @@
+package com.example.hospital_0515.dto;
+
+import com.example.hospital_0515.model.Bid;
+
+import java.time.LocalDateTime;
+
+/**
+ * 竞价记录的接口视图，字段名与 Bid 的JSON属性一致
+ */
+public final class BidView {
+
+    private final Long id;
+    private final Long visitId;
+    private final String patientUsername;
+    private final double bidAmount;
+    private final LocalDateTime bidTime;
+
+    public BidView(Long id, Long visitId, String patientUsername, double bidAmount, LocalDateTime bidTime) {
+        this.id = id;
+        this.visitId = visitId;
+        this.patientUsername = patientUsername;
+        this.bidAmount = bidAmount;
+        this.bidTime = bidTime;
+    }
+
+    public static BidView of(Bid bid) {
+        return new BidView(bid.getId(), bid.getVisitId(), bid.getPatientUsername(), bid.getBidAmount(), bid.getBidTime());
+    }
+
+    public Long getId() { return id; }
+
+    public Long getVisitId() { return visitId; }
+
+    public String getPatientUsername() { return patientUsername; }
+
+    public double getBidAmount() { return bidAmount; }
+
+    public LocalDateTime getBidTime() { return bidTime; }
+}
@@ -0,0 +1,46 @@
+package com.example.hospital_0515.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * 医生患者名册中的一项：患者的基本资料和该患者在此医生处的有效预约统计，不包含密码等敏感字段
+ */
+public class RosterPatient {
+
+    private String username;
+    private String name;
+    private String gender;
+    private Integer age;
+    private String contact;
+    private Integer creditScore;
+    private int bookings;
+    private LocalDateTime firstVisitTime;
+    private LocalDateTime lastVisitTime;
+
+    public String getUsername() { return username; }
+    public void setUsername(String username) { this.username = username; }
+
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+
+    public String getGender() { return gender; }
+    public void setGender(String gender) { this.gender = gender; }
+
+    public Integer getAge() { return age; }
+    public void setAge(Integer age) { this.age = age; }
+
+    public String getContact() { return contact; }
+    public void setContact(String contact) { this.contact = contact; }
+
+    public Integer getCreditScore() { return creditScore; }
+    public void setCreditScore(Integer creditScore) { this.creditScore = creditScore; }
+
+    public int getBookings() { return bookings; }
+    public void setBookings(int bookings) { this.bookings = bookings; }
+
+    public LocalDateTime getFirstVisitTime() { return firstVisitTime; }
+    public void setFirstVisitTime(LocalDateTime firstVisitTime) { this.firstVisitTime = firstVisitTime; }
+
+    public LocalDateTime getLastVisitTime() { return lastVisitTime; }
+    public void setLastVisitTime(LocalDateTime lastVisitTime) { this.lastVisitTime = lastVisitTime; }
+}
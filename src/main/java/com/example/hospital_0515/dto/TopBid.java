@@ -0,0 +1,35 @@
+package com.example.hospital_0515.dto;
+
+import com.example.hospital_0515.service.BidRankingService;
+
+import java.time.LocalDateTime;
+
+/**
+ * 竞价榜中的一项，只包含前端显示需要的字段
+ */
+public final class TopBid {
+
+    private final String patientUsername;
+    private final double bidAmount;
+    private final LocalDateTime bidTime;
+    private final int creditScore;
+
+    public TopBid(String patientUsername, double bidAmount, LocalDateTime bidTime, int creditScore) {
+        this.patientUsername = patientUsername;
+        this.bidAmount = bidAmount;
+        this.bidTime = bidTime;
+        this.creditScore = creditScore;
+    }
+
+    public static TopBid of(BidRankingService.RankedBid bid) {
+        return new TopBid(bid.getPatientUsername(), bid.getBidAmount(), bid.getBidTime(), bid.getCreditScore());
+    }
+
+    public String getPatientUsername() { return patientUsername; }
+
+    public double getBidAmount() { return bidAmount; }
+
+    public LocalDateTime getBidTime() { return bidTime; }
+
+    public int getCreditScore() { return creditScore; }
+}
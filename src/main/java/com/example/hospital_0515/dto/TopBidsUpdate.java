@@ -0,0 +1,21 @@
+package com.example.hospital_0515.dto;
+
+import java.util.List;
+
+/**
+ * 竞价榜推送事件：某个竞拍出诊当前的前几名竞价
+ */
+public final class TopBidsUpdate {
+
+    private final Long visitId;
+    private final List<TopBid> bids;
+
+    public TopBidsUpdate(Long visitId, List<TopBid> bids) {
+        this.visitId = visitId;
+        this.bids = bids;
+    }
+
+    public Long getVisitId() { return visitId; }
+
+    public List<TopBid> getBids() { return bids; }
+}
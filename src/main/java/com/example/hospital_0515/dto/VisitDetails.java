@@ -0,0 +1,19 @@
+package com.example.hospital_0515.dto;
+
+/**
+ * 出诊详情和推荐项：出诊信息及其医生所在医院
+ */
+public final class VisitDetails {
+
+    private final VisitView visit;
+    private final String hospital;
+
+    public VisitDetails(VisitView visit, String hospital) {
+        this.visit = visit;
+        this.hospital = hospital;
+    }
+
+    public VisitView getVisit() { return visit; }
+
+    public String getHospital() { return hospital; }
+}
@@ -0,0 +1,71 @@
+package com.example.hospital_0515.dto;
+
+import com.example.hospital_0515.model.Visit;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+
+/**
+ * 出诊信息的接口视图，字段名与 Visit 的JSON属性一致，不包含周期生成用的幂等键等内部字段。
+ * 只读，序列化时不经过实体代理和 @Transient 字段的反射处理。
+ */
+public final class VisitView {
+
+    private final Long id;
+    private final String department;
+    private final LocalDateTime visitTime;
+    private final int availableSlots;
+    private final String status;
+    private final String doctorName;
+    private final boolean auction;
+    private final boolean recurring;
+    private final DayOfWeek recurringDayOfWeek;
+    private final LocalTime recurringVisitTime;
+    private final List<String> bookedBy;
+
+    public VisitView(Long id, String department, LocalDateTime visitTime, int availableSlots, String status,
+                     String doctorName, boolean auction, boolean recurring, DayOfWeek recurringDayOfWeek,
+                     LocalTime recurringVisitTime, List<String> bookedBy) {
+        this.id = id;
+        this.department = department;
+        this.visitTime = visitTime;
+        this.availableSlots = availableSlots;
+        this.status = status;
+        this.doctorName = doctorName;
+        this.auction = auction;
+        this.recurring = recurring;
+        this.recurringDayOfWeek = recurringDayOfWeek;
+        this.recurringVisitTime = recurringVisitTime;
+        this.bookedBy = bookedBy;
+    }
+
+    public static VisitView of(Visit visit) {
+        return new VisitView(visit.getId(), visit.getDepartment(), visit.getVisitTime(), visit.getAvailableSlots(),
+                visit.getStatus(), visit.getDoctorName(), visit.isAuction(), visit.isRecurring(),
+                visit.getRecurringDayOfWeek(), visit.getRecurringVisitTime(), visit.getBookedBy());
+    }
+
+    public Long getId() { return id; }
+
+    public String getDepartment() { return department; }
+
+    public LocalDateTime getVisitTime() { return visitTime; }
+
+    public int getAvailableSlots() { return availableSlots; }
+
+    public String getStatus() { return status; }
+
+    public String getDoctorName() { return doctorName; }
+
+    public boolean isAuction() { return auction; }
+
+    public boolean isRecurring() { return recurring; }
+
+    public DayOfWeek getRecurringDayOfWeek() { return recurringDayOfWeek; }
+
+    public LocalTime getRecurringVisitTime() { return recurringVisitTime; }
+
+    public List<String> getBookedBy() { return bookedBy; }
+}
@@ -0,0 +1,96 @@
+package com.example.hospital_0515.metrics;
+
+import com.example.hospital_0515.service.AuctionSettlementService;
+import com.example.hospital_0515.service.IdentityCacheService;
+import com.example.hospital_0515.service.VisitDirectoryService;
+import com.example.hospital_0515.util.AuditLogPipeline;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import java.util.function.ToIntFunction;
+
+/**
+ * ApplicationMetrics 把已有的统计数据注册为仪表：
+ * Hibernate 会话统计、SQL总条数、身份缓存、出诊目录缓存、审计日志管道和最近一次竞拍结算。
+ * 这些数据在抓取时读取，不增加业务路径上的开销。连接池指标由 actuator 自动注册（hikaricp_connections_*）。
+ */
+@Component
+public class ApplicationMetrics {
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private IdentityCacheService identityCacheService;
+
+    @Autowired
+    private VisitDirectoryService visitDirectoryService;
+
+    @Autowired
+    private AuctionSettlementService auctionSettlementService;
+
+    @PostConstruct
+    public void register() {
+        registerHibernate();
+
+        metricsRegistry.counter("identity_cache_hits_total", "登录身份缓存命中次数", identityCacheService::getHitCount);
+        metricsRegistry.counter("identity_cache_misses_total", "登录身份缓存未命中次数", identityCacheService::getMissCount);
+        metricsRegistry.counter("identity_cache_evictions_total", "登录身份缓存淘汰次数", identityCacheService::getEvictionCount);
+        metricsRegistry.gauge("identity_cache_size", "登录身份缓存条目数", identityCacheService::getSize);
+
+        metricsRegistry.counter("visit_directory_hits_total", "科室/医生目录缓存命中次数", visitDirectoryService::getHitCount);
+        metricsRegistry.counter("visit_directory_misses_total", "科室/医生目录缓存未命中次数", visitDirectoryService::getMissCount);
+
+        AuditLogPipeline audit = AuditLogPipeline.getInstance();
+        metricsRegistry.gauge("audit_log_queue_depth", "审计日志缓冲区中待写入的记录数", audit::getQueueDepth);
+        metricsRegistry.counter("audit_log_written_total", "已写入的审计日志记录数", audit::getWrittenCount);
+        metricsRegistry.counter("audit_log_dropped_total", "缓冲区满时丢弃的审计日志记录数", audit::getDroppedCount);
+        metricsRegistry.counter("audit_log_flushes_total", "审计日志批量刷盘次数", audit::getFlushCount);
+        metricsRegistry.gauge("audit_log_last_flush_seconds", "最近一次审计日志刷盘耗时", () -> audit.getLastFlushMicros() / 1e6);
+        metricsRegistry.gauge("audit_log_max_flush_seconds", "审计日志刷盘最大耗时", () -> audit.getMaxFlushMicros() / 1e6);
+
+        settlementGauge("visits", AuctionSettlementService.SettlementReport::getVisits);
+        settlementGauge("settled_visits", AuctionSettlementService.SettlementReport::getSettledVisits);
+        settlementGauge("bids", AuctionSettlementService.SettlementReport::getBids);
+        settlementGauge("winners", AuctionSettlementService.SettlementReport::getWinners);
+        settlementGauge("conflicts", AuctionSettlementService.SettlementReport::getConflicts);
+        metricsRegistry.gauge("auction_settlement_last_duration_seconds", "最近一次竞拍结算耗时", () -> {
+            AuctionSettlementService.SettlementReport report = auctionSettlementService.getLastReport();
+            return report == null ? Double.NaN : report.getTotalMillis() / 1e3;
+        });
+
+        metricsRegistry.counter("sql_statements_total", "应用启动以来 Hibernate 执行的SQL条数", SqlStatementCounter::total);
+    }
+
+    private void registerHibernate() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        if (!statistics.isStatisticsEnabled()) {
+            return;
+        }
+        metricsRegistry.counter("hibernate_sessions_opened_total", "打开的会话数", statistics::getSessionOpenCount);
+        metricsRegistry.counter("hibernate_statements_prepared_total", "预编译的SQL语句数", statistics::getPrepareStatementCount);
+        metricsRegistry.counter("hibernate_queries_executed_total", "执行的查询数", statistics::getQueryExecutionCount);
+        metricsRegistry.gauge("hibernate_query_max_seconds", "最慢查询耗时", () -> statistics.getQueryExecutionMaxTime() / 1e3);
+        metricsRegistry.counter("hibernate_entities_loaded_total", "加载的实体数", statistics::getEntityLoadCount);
+        metricsRegistry.counter("hibernate_entities_fetched_total", "单独抓取的实体数", statistics::getEntityFetchCount);
+        metricsRegistry.counter("hibernate_entities_inserted_total", "插入的实体数", statistics::getEntityInsertCount);
+        metricsRegistry.counter("hibernate_entities_updated_total", "更新的实体数", statistics::getEntityUpdateCount);
+        metricsRegistry.counter("hibernate_flushes_total", "会话刷新次数", statistics::getFlushCount);
+        metricsRegistry.counter("hibernate_optimistic_failures_total", "版本号冲突导致的更新失败次数", statistics::getOptimisticFailureCount);
+        metricsRegistry.counter("hibernate_transactions_total", "完成的事务数", statistics::getTransactionCount);
+    }
+
+    private void settlementGauge(String field, ToIntFunction<AuctionSettlementService.SettlementReport> value) {
+        metricsRegistry.gauge("auction_settlement_last_" + field, "最近一次竞拍结算的" + field, () -> {
+            AuctionSettlementService.SettlementReport report = auctionSettlementService.getLastReport();
+            return report == null ? Double.NaN : value.applyAsInt(report);
+        });
+    }
+}
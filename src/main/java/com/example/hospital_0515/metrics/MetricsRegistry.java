@@ -0,0 +1,100 @@
+package com.example.hospital_0515.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntSupplier;
+
+/**
+ * MetricsRegistry 是业务代码记录指标的入口，指标注册到 Micrometer 的 MeterRegistry，
+ * 由 actuator 的 /actuator/prometheus 端点按 Prometheus 格式输出。
+ * 指标按 名称+标签 区分，标签值应是有限集合（如接口路径模板、任务名），不能放用户名或ID。
+ */
+@Component
+public class MetricsRegistry {
+
+    // 数量直方图的桶上界（如每次请求的SQL条数），Micrometer 要求上界大于0，0.5 的桶即数量为0的观测
+    public static final double[] COUNT_BUCKETS = {0.5, 1, 2, 3, 5, 10, 20, 50, 100, 200, 500};
+
+    // 定时任务耗时直方图的桶上界
+    private static final Duration[] JOB_BUCKETS = {
+            Duration.ofMillis(1), Duration.ofMillis(5), Duration.ofMillis(10), Duration.ofMillis(50),
+            Duration.ofMillis(100), Duration.ofMillis(500), Duration.ofSeconds(1), Duration.ofSeconds(5),
+            Duration.ofSeconds(10), Duration.ofSeconds(60)
+    };
+
+    private final MeterRegistry meterRegistry;
+    // FunctionCounter 只弱引用取值对象，这里持有 supplier 防止被回收
+    private final List<DoubleSupplier> counterSuppliers = new CopyOnWriteArrayList<>();
+
+    public MetricsRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 计数器加上指定值
+     * @param labels 标签名和值交替排列
+     */
+    public void increment(String name, String help, long amount, String... labels) {
+        Counter.builder(name).description(help).tags(labels).register(meterRegistry).increment(amount);
+    }
+
+    /**
+     * 在直方图中记录一个观测值
+     * @param buckets 桶上界，同一指标名必须一致
+     * @param labels 标签名和值交替排列
+     */
+    public void observe(String name, String help, double[] buckets, double value, String... labels) {
+        DistributionSummary.builder(name).description(help).serviceLevelObjectives(buckets).tags(labels)
+                .register(meterRegistry).record(value);
+    }
+
+    /**
+     * 注册仪表，抓取时调用 supplier 读取当前值，读取失败时输出 NaN
+     * @param labels 标签名和值交替排列
+     */
+    public void gauge(String name, String help, DoubleSupplier supplier, String... labels) {
+        Gauge.builder(name, supplier, DoubleSupplier::getAsDouble).description(help).tags(labels)
+                .strongReference(true).register(meterRegistry);
+    }
+
+    /**
+     * 注册由已有累计值提供的计数器，抓取时调用 supplier 读取
+     * @param labels 标签名和值交替排列
+     */
+    public void counter(String name, String help, DoubleSupplier supplier, String... labels) {
+        counterSuppliers.add(supplier);
+        FunctionCounter.builder(name, supplier, DoubleSupplier::getAsDouble).description(help).tags(labels)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 执行定时任务并记录耗时、处理条数和失败次数
+     * @param job 任务名
+     * @param body 任务体，返回处理的条数
+     */
+    public void timeJob(String job, IntSupplier body) {
+        long start = System.nanoTime();
+        try {
+            int items = body.getAsInt();
+            increment("scheduled_job_items_total", "定时任务处理的条数", items, "job", job);
+        } catch (RuntimeException e) {
+            increment("scheduled_job_failures_total", "定时任务失败次数", 1, "job", job);
+            throw e;
+        } finally {
+            Timer.builder("scheduled_job_duration").description("定时任务执行耗时").tags("job", job)
+                    .serviceLevelObjectives(JOB_BUCKETS)
+                    .register(meterRegistry).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
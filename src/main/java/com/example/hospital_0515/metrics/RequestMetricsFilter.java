@@ -0,0 +1,38 @@
+package com.example.hospital_0515.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * RequestMetricsFilter 记录每次请求执行的SQL条数，请求耗时由 actuator 自带的 http_server_requests_seconds 记录。
+ * 接口按 Spring MVC 匹配到的路径模板（如 /api/visits/pay/{id}）区分，未匹配到控制器的请求归为 UNMAPPED。
+ */
+@Component
+public class RequestMetricsFilter extends OncePerRequestFilter {
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        SqlStatementCounter.reset();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            String uri = pattern == null ? "UNMAPPED" : pattern.toString();
+            metricsRegistry.observe("http_server_requests_sql_statements", "每次请求执行的SQL条数", MetricsRegistry.COUNT_BUCKETS,
+                    SqlStatementCounter.current(),
+                    "method", request.getMethod(), "uri", uri);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.hospital_0515.metrics;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SqlStatementCounter 统计 Hibernate 发出的SQL条数，由 hibernate.session_factory.statement_inspector 配置启用。
+ * 每个线程单独计数，{@link RequestMetricsFilter} 在请求开始时清零、结束时读取，得到每次请求的SQL条数。
+ * 直接经 JdbcTemplate 执行的批量SQL不经过 Hibernate，不在统计之内。
+ * 调用 {@link #record()} 后还会记下当前线程发出的SQL原文（带 ? 占位符），供执行计划检查使用。
+ */
+public class SqlStatementCounter implements StatementInspector {
+
+    private static final ThreadLocal<int[]> CURRENT = ThreadLocal.withInitial(() -> new int[1]);
+    private static final LongAdder TOTAL = new LongAdder();
+    private static final ThreadLocal<List<String>> RECORDED = new ThreadLocal<>();
+
+    @Override
+    public String inspect(String sql) {
+        CURRENT.get()[0]++;
+        TOTAL.increment();
+        List<String> recorded = RECORDED.get();
+        if (recorded != null) {
+            recorded.add(sql);
+        }
+        return sql;
+    }
+
+    /**
+     * 开始记录当前线程发出的SQL
+     */
+    public static void record() {
+        RECORDED.set(new ArrayList<>());
+    }
+
+    /**
+     * 停止记录
+     * @return 自上次 {@link #record()} 以来当前线程发出的SQL；未开始记录时为空列表
+     */
+    public static List<String> stopRecording() {
+        List<String> recorded = RECORDED.get();
+        RECORDED.remove();
+        return recorded == null ? new ArrayList<>() : recorded;
+    }
+
+    /**
+     * 清零当前线程的计数
+     */
+    public static void reset() {
+        CURRENT.get()[0] = 0;
+    }
+
+    /**
+     * 当前线程自上次清零以来的SQL条数
+     */
+    public static int current() {
+        return CURRENT.get()[0];
+    }
+
+    /**
+     * 应用启动以来的SQL总条数
+     */
+    public static long total() {
+        return TOTAL.sum();
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.hospital_0515.migration;
+
+import com.example.hospital_0515.audit.AuditLogStore;
+import com.example.hospital_0515.audit.TextLogImporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * LegacyAuditLogMigration 在启动时将旧版文本格式的 patient.log 和 admin.log 导入二进制审计日志。
+ * 导入结果和导入标记在同一批次中提交，之后的启动看到标记即跳过；文本日志保持原样。
+ * 由 hospital.audit.import-legacy 控制，测试环境关闭。
+ */
+@Component
+@ConditionalOnProperty(name = "hospital.audit.import-legacy", havingValue = "true", matchIfMissing = true)
+public class LegacyAuditLogMigration implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(LegacyAuditLogMigration.class);
+
+    private static final String LOG_DIRECTORY = "./UserLogger";
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException {
+        TextLogImporter importer = new TextLogImporter(AuditLogStore.getInstance());
+        File bookingLog = new File(LOG_DIRECTORY, "patient.log");
+        if (bookingLog.exists()) {
+            report(bookingLog, importer.importBookingLog(bookingLog));
+        }
+        File adminLog = new File(LOG_DIRECTORY, "admin.log");
+        if (adminLog.exists()) {
+            report(adminLog, importer.importAdminLog(adminLog));
+        }
+    }
+
+    private void report(File file, int imported) {
+        if (imported < 0) {
+            log.debug("{} was already imported, skipped", file);
+        } else {
+            log.info("Imported {} records from {}", imported, file);
+        }
+    }
+}
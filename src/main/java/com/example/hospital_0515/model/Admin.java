@@ -1,6 +1,9 @@
 //Admin.java
 package com.example.hospital_0515.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
@@ -14,7 +17,9 @@ public class Admin {
     private Long id;
     private String idCard;
     private String name;
+    @Column(unique = true)
     private String username;
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY) // 密码哈希只接收不输出
     private String password;
     private String address;
     private String contact;
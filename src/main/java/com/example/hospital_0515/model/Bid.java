@@ -3,7 +3,15 @@ package com.example.hospital_0515.model;
 import javax.persistence.*;
 import java.time.LocalDateTime;
 
+/**
+ * Bid 表示患者在竞拍出诊上当前有效的出价。
+ * 每个 (出诊ID, 患者用户名) 只保留一条记录，加价时原地更新，每次出价另记入 {@link BidHistory}。
+ */
 @Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_bid_visit_patient", columnNames = {"visitId", "patientUsername"}),
+        indexes = {
+                @Index(name = "idx_bid_patient_id", columnList = "patientUsername, id")
+        })
 public class Bid {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -14,6 +22,10 @@ public class Bid {
     private double bidAmount;
     private LocalDateTime bidTime;
 
+    // 乐观锁版本号，同一患者并发加价时后提交的一方重试
+    @Version
+    private Long version;
+
     // Getters and setters
     public Long getId() { return id; }
     public void setId(Long id) { this.id = id; }
@@ -29,4 +41,7 @@ public class Bid {
 
     public LocalDateTime getBidTime() { return bidTime; }
     public void setBidTime(LocalDateTime bidTime) { this.bidTime = bidTime; }
+
+    public Long getVersion() { return version; }
+    public void setVersion(Long version) { this.version = version; }
 }
@@ -0,0 +1,46 @@
+package com.example.hospital_0515.model;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * BidHistory 记录患者的每一次出价，只追加不修改。
+ * 排名和结算只读取 {@link Bid} 中每个患者当前有效的出价，历史仅用于查询。
+ */
+@Entity
+@Table(name = "bid_history",
+        indexes = {
+                @Index(name = "idx_bid_history_patient_id", columnList = "patientUsername, id"),
+                @Index(name = "idx_bid_history_visit_id", columnList = "visitId, id")
+        })
+public class BidHistory {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long visitId;
+
+    @Column(nullable = false)
+    private String patientUsername;
+
+    private double bidAmount;
+    private LocalDateTime bidTime;
+
+    // Getters and setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Long getVisitId() { return visitId; }
+    public void setVisitId(Long visitId) { this.visitId = visitId; }
+
+    public String getPatientUsername() { return patientUsername; }
+    public void setPatientUsername(String patientUsername) { this.patientUsername = patientUsername; }
+
+    public double getBidAmount() { return bidAmount; }
+    public void setBidAmount(double bidAmount) { this.bidAmount = bidAmount; }
+
+    public LocalDateTime getBidTime() { return bidTime; }
+    public void setBidTime(LocalDateTime bidTime) { this.bidTime = bidTime; }
+}
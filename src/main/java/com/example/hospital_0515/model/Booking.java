@@ -0,0 +1,56 @@
+package com.example.hospital_0515.model;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Booking 表示患者对某个出诊的一次预约，取代原 Visit.bookedBy 集合表。
+ * 每个 (出诊ID, 患者用户名) 只保留一条记录，取消后再次预约时复用该记录。
+ */
+@Entity
+@Table(name = "booking",
+        uniqueConstraints = @UniqueConstraint(name = "uk_booking_visit_patient", columnNames = {"visitId", "patientUsername"}),
+        indexes = {
+                @Index(name = "idx_booking_patient_status", columnList = "patientUsername, status"),
+                @Index(name = "idx_booking_visit_status", columnList = "visitId, status")
+        })
+public class Booking {
+
+    public static final String BOOKED = "BOOKED";
+    public static final String CANCELLED = "CANCELLED";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long visitId;
+
+    @Column(nullable = false)
+    private String patientUsername;
+
+    @Column(nullable = false)
+    private String status = BOOKED;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+
+    // Getters and setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Long getVisitId() { return visitId; }
+    public void setVisitId(Long visitId) { this.visitId = visitId; }
+
+    public String getPatientUsername() { return patientUsername; }
+    public void setPatientUsername(String patientUsername) { this.patientUsername = patientUsername; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
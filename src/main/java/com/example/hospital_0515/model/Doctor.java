@@ -1,12 +1,20 @@
 //Doctor.java
 package com.example.hospital_0515.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_doctor_status_id", columnList = "status, id")
+})
 public class Doctor {
 
     @Id
@@ -16,7 +24,9 @@ public class Doctor {
     private String name;
     private String department;
     private String title;
+    @Column(unique = true)
     private String username;
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY) // 密码哈希只接收不输出
     private String password;
     private Integer age;
     private String gender; // 新增性别字段
@@ -1,12 +1,21 @@
 //Patient.java
 package com.example.hospital_0515.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Version;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_patient_status_id", columnList = "status, id")
+})
 public class Patient {
 
     @Id
@@ -15,7 +24,9 @@ public class Patient {
     private String idCard;
     private String name;
     private String medicalRecord;
+    @Column(unique = true)
     private String username;
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY) // 密码哈希只接收不输出
     private String password;
     private Integer age;
     private String gender; // 新增性别字段
@@ -24,6 +35,11 @@ public class Patient {
     private String status = "PENDING";
     private Integer creditScore = 100;  // 新增字段，信用积分
 
+    // 乐观锁版本号，并发修改时后提交的一方失败并重试；只输出不接收
+    @Version
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long version;
+
     // Getters and Setters
     public Long getId() {
         return id;
@@ -119,6 +135,12 @@ public class Patient {
     public void setCreditScore(Integer creditScore) {
         this.creditScore = creditScore;
     }
-}
 
-// Compare this snippet from src/main/java/com/example/hospital_0515/model/Admin.java:
\ No newline at end of file
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+}
@@ -1,5 +1,7 @@
 package com.example.hospital_0515.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 import javax.persistence.*;
 import java.time.DayOfWeek;
 import java.time.LocalDateTime;
@@ -8,6 +10,10 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_visit_recurring_day", columnList = "recurring, recurringDayOfWeek"),
+        @Index(name = "idx_visit_status_auction_id", columnList = "status, auction, id")
+})
 public class Visit {
 
     @Id
@@ -21,7 +27,8 @@ public class Visit {
     private String doctorName;
     private boolean auction; // 新增字段
 
-    @ElementCollection(fetch = FetchType.EAGER)
+    // 预约患者保存在 Booking 表中，只在需要显示患者的接口中按需填充
+    @Transient
     private List<String> bookedBy = new ArrayList<>();
 
     private boolean recurring;
@@ -29,6 +36,15 @@ public class Visit {
     private DayOfWeek recurringDayOfWeek;
     private LocalTime recurringVisitTime;
 
+    // 由周期性出诊生成时的幂等键：模板ID:出诊日期
+    @Column(unique = true)
+    private String generationKey;
+
+    // 乐观锁版本号，批量 UPDATE 语句同样递增；不接收客户端传入的值
+    @Version
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long version;
+
     // Getters and Setters
 
     public Long getId() {
@@ -118,4 +134,20 @@ public class Visit {
     public void setAuction(boolean auction) {
         this.auction = auction;
     }
+
+    public String getGenerationKey() {
+        return generationKey;
+    }
+
+    public void setGenerationKey(String generationKey) {
+        this.generationKey = generationKey;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
 }
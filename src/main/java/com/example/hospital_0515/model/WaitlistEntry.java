@@ -0,0 +1,48 @@
+package com.example.hospital_0515.model;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * WaitlistEntry 表示患者在号源已挂完的出诊上排队候补。
+ * 同一出诊的候补按加入时的信用分从高到低、同分按加入顺序（ID）排列，取消释放的号源依次转给队首。
+ */
+@Entity
+@Table(name = "waitlist_entry",
+        uniqueConstraints = @UniqueConstraint(name = "uk_waitlist_visit_patient", columnNames = {"visitId", "patientUsername"}),
+        indexes = {
+                @Index(name = "idx_waitlist_visit_score", columnList = "visitId, creditScore, id")
+        })
+public class WaitlistEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long visitId;
+
+    @Column(nullable = false)
+    private String patientUsername;
+
+    @Column(nullable = false)
+    private Integer creditScore;
+
+    private LocalDateTime createdAt;
+
+    // Getters and setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Long getVisitId() { return visitId; }
+    public void setVisitId(Long visitId) { this.visitId = visitId; }
+
+    public String getPatientUsername() { return patientUsername; }
+    public void setPatientUsername(String patientUsername) { this.patientUsername = patientUsername; }
+
+    public Integer getCreditScore() { return creditScore; }
+    public void setCreditScore(Integer creditScore) { this.creditScore = creditScore; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
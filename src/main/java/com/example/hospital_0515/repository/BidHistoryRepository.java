@@ -0,0 +1,27 @@
+package com.example.hospital_0515.repository;
+
+import com.example.hospital_0515.model.BidHistory;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+/**
+ * BidHistoryRepository接口继承了JpaRepository，用于管理BidHistory实体的CRUD操作。
+ */
+public interface BidHistoryRepository extends JpaRepository<BidHistory, Long> {
+
+    /**
+     * 按ID键集分页查询患者的出价历史
+     * @param patientUsername 患者用户名
+     * @param afterId 上一页最后一条记录的ID，第一页传0
+     * @param pageable 每页数量
+     * @return 按ID升序排列的出价历史
+     */
+    @Query("SELECT h FROM BidHistory h WHERE h.patientUsername = :patientUsername AND h.id > :afterId ORDER BY h.id")
+    List<BidHistory> findByPatientUsernameAfterId(@Param("patientUsername") String patientUsername,
+                                                  @Param("afterId") long afterId,
+                                                  Pageable pageable);
+}
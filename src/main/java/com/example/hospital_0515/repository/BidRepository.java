@@ -1,14 +1,17 @@
 package com.example.hospital_0515.repository;
 
 import com.example.hospital_0515.model.Bid;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
  * BidRepository接口继承了JpaRepository，用于管理Bid实体的CRUD操作。
+ * 每个患者在每个出诊上只有一条当前出价，按出诊查询的结果数与竞价人数相同。
  */
 public interface BidRepository extends JpaRepository<Bid, Long> {
 
@@ -19,6 +22,15 @@ public interface BidRepository extends JpaRepository<Bid, Long> {
      */
     List<Bid> findByVisitId(Long visitId);
 
+    /**
+     * 查找患者在出诊上的当前出价
+     * @param visitId 出诊ID
+     * @param patientUsername 患者用户名
+     * @return 当前出价，未出价时返回null
+     */
+    @Query("SELECT b FROM Bid b WHERE b.visitId = :visitId AND b.patientUsername = :patientUsername")
+    Bid findByVisitIdAndPatientUsername(@Param("visitId") Long visitId, @Param("patientUsername") String patientUsername);
+
     /**
      * 根据患者用户名查找竞拍记录
      * @param patientUsername 患者用户名
@@ -33,5 +45,24 @@ public interface BidRepository extends JpaRepository<Bid, Long> {
      */
     @Query("SELECT b FROM Bid b WHERE b.visitId = :visitId ORDER BY b.bidAmount DESC")
     List<Bid> findByVisitIdOrderByBidAmountDesc(@Param("visitId") Long visitId);
-}
 
+    /**
+     * 根据一组出诊ID查找竞拍记录
+     * @param visitIds 出诊ID集合
+     * @return 返回对应出诊的竞拍记录列表
+     */
+    @Query("SELECT b FROM Bid b WHERE b.visitId IN :visitIds")
+    List<Bid> findByVisitIdIn(@Param("visitIds") Collection<Long> visitIds);
+
+    /**
+     * 按ID键集分页查询患者的竞拍记录
+     * @param patientUsername 患者用户名
+     * @param afterId 上一页最后一条记录的ID，第一页传0
+     * @param pageable 每页数量
+     * @return 按ID升序排列的竞拍记录列表
+     */
+    @Query("SELECT b FROM Bid b WHERE b.patientUsername = :patientUsername AND b.id > :afterId ORDER BY b.id")
+    List<Bid> findByPatientUsernameAfterId(@Param("patientUsername") String patientUsername,
+                                           @Param("afterId") long afterId,
+                                           Pageable pageable);
+}
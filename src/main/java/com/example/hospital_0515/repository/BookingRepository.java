@@ -0,0 +1,73 @@
+package com.example.hospital_0515.repository;
+
+import com.example.hospital_0515.model.Booking;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * BookingRepository接口继承了JpaRepository，用于管理Booking实体的CRUD操作。
+ */
+public interface BookingRepository extends JpaRepository<Booking, Long> {
+
+    /**
+     * 判断患者是否已预约指定出诊
+     * @param visitId 出诊ID
+     * @param patientUsername 患者用户名
+     * @return 存在有效预约返回true，否则返回false
+     */
+    @Query("SELECT CASE WHEN COUNT(b) > 0 THEN true ELSE false END FROM Booking b " +
+            "WHERE b.visitId = :visitId AND b.patientUsername = :patientUsername AND b.status = 'BOOKED'")
+    boolean existsActive(@Param("visitId") Long visitId, @Param("patientUsername") String patientUsername);
+
+    /**
+     * 查找一组出诊的有效预约患者
+     * @param visitIds 出诊ID集合
+     * @return 每行为 [出诊ID, 患者用户名]
+     */
+    @Query("SELECT b.visitId, b.patientUsername FROM Booking b WHERE b.visitId IN :visitIds AND b.status = 'BOOKED'")
+    List<Object[]> findActivePatientsByVisitIdIn(@Param("visitIds") Collection<Long> visitIds);
+
+    /**
+     * 查找患者有效预约的出诊ID
+     * @param patientUsername 患者用户名
+     * @return 出诊ID列表
+     */
+    @Query("SELECT b.visitId FROM Booking b WHERE b.patientUsername = :patientUsername AND b.status = 'BOOKED'")
+    List<Long> findActiveVisitIdsByPatientUsername(@Param("patientUsername") String patientUsername);
+
+    /**
+     * 查找指定医生所有出诊的有效预约，用于构建医生的患者名册
+     * @param doctorName 医生用户名
+     * @return 每行为 [患者用户名, 出诊ID, 出诊时间]
+     */
+    @Query("SELECT b.patientUsername, v.id, v.visitTime FROM Booking b, Visit v " +
+            "WHERE b.visitId = v.id AND v.doctorName = :doctorName AND b.status = 'BOOKED'")
+    List<Object[]> findActiveRosterByDoctorName(@Param("doctorName") String doctorName);
+
+    /**
+     * 查找一组出诊和一组患者之间的预约状态（含已取消），用于预约信箱批量判断
+     * @param visitIds 出诊ID集合
+     * @param patientUsernames 患者用户名集合
+     * @return 每行为 [出诊ID, 患者用户名, 状态]
+     */
+    @Query("SELECT b.visitId, b.patientUsername, b.status FROM Booking b " +
+            "WHERE b.visitId IN :visitIds AND b.patientUsername IN :patientUsernames")
+    List<Object[]> findStatusesByVisitIdInAndPatientUsernameIn(@Param("visitIds") Collection<Long> visitIds,
+                                                              @Param("patientUsernames") Collection<String> patientUsernames);
+
+    /**
+     * 删除出诊的所有预约记录
+     * @param visitId 出诊ID
+     * @return 删除的记录数
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM Booking b WHERE b.visitId = :visitId")
+    int deleteByVisitId(@Param("visitId") Long visitId);
+}
@@ -2,6 +2,7 @@
 package com.example.hospital_0515.repository;
 
 import com.example.hospital_0515.model.Doctor;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -34,6 +35,23 @@ public interface DoctorRepository extends JpaRepository<Doctor, Long> {
      */
     @Query("SELECT CASE WHEN COUNT(d) > 0 THEN true ELSE false END FROM Doctor d WHERE d.username = :username")
     boolean existsByUsername(@Param("username") String username);
+
+    /**
+     * 按ID键集分页查询指定状态的医生
+     * @param status 医生状态
+     * @param afterId 上一页最后一条记录的ID，第一页传0
+     * @param pageable 每页数量
+     * @return 按ID升序排列的医生列表
+     */
+    @Query("SELECT d FROM Doctor d WHERE d.status = :status AND d.id > :afterId ORDER BY d.id")
+    List<Doctor> findByStatusAfterId(@Param("status") String status, @Param("afterId") long afterId, Pageable pageable);
+
+    /**
+     * 查询所有医生的所在医院
+     * @return 每行为 [医生用户名, 所在医院]
+     */
+    @Query("SELECT d.username, d.hospital FROM Doctor d")
+    List<Object[]> findAllHospitals();
 }
 
 
@@ -2,10 +2,12 @@
 package com.example.hospital_0515.repository;
 
 import com.example.hospital_0515.model.Patient;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -43,4 +45,30 @@ public interface PatientRepository extends JpaRepository<Patient, Long> {
      */
     @Query("SELECT p FROM Patient p WHERE p.username IN :usernames")
     List<Patient> findByUsernameIn(@Param("usernames") Set<String> usernames);
+
+    /**
+     * 根据一组用户名查询患者信用分
+     * @param usernames 患者用户名集合
+     * @return 每行为 [用户名, 信用分]
+     */
+    @Query("SELECT p.username, p.creditScore FROM Patient p WHERE p.username IN :usernames")
+    List<Object[]> findCreditScoresByUsernameIn(@Param("usernames") Collection<String> usernames);
+
+    /**
+     * 根据用户名集合查询患者名册需要的资料，不包含密码等敏感字段
+     * @param usernames 用户名集合
+     * @return 每行为 [用户名, 姓名, 性别, 年龄, 联系方式, 信用分]
+     */
+    @Query("SELECT p.username, p.name, p.gender, p.age, p.contact, p.creditScore FROM Patient p WHERE p.username IN :usernames")
+    List<Object[]> findRosterProfilesByUsernameIn(@Param("usernames") Collection<String> usernames);
+
+    /**
+     * 按ID键集分页查询指定状态的患者
+     * @param status 患者状态
+     * @param afterId 上一页最后一条记录的ID，第一页传0
+     * @param pageable 每页数量
+     * @return 按ID升序排列的患者列表
+     */
+    @Query("SELECT p FROM Patient p WHERE p.status = :status AND p.id > :afterId ORDER BY p.id")
+    List<Patient> findByStatusAfterId(@Param("status") String status, @Param("afterId") long afterId, Pageable pageable);
 }
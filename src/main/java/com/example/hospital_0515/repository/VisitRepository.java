@@ -1,10 +1,14 @@
 package com.example.hospital_0515.repository;
 
 import com.example.hospital_0515.model.Visit;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.DayOfWeek;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Set;
@@ -68,7 +72,7 @@ public interface VisitRepository extends JpaRepository<Visit, Long> {
      * @param bookedBy 预约患者用户名
      * @return 返回包含预约患者的出诊记录列表
      */
-    @Query("SELECT v FROM Visit v WHERE :bookedBy MEMBER OF v.bookedBy")
+    @Query("SELECT v FROM Visit v, Booking b WHERE b.visitId = v.id AND b.patientUsername = :bookedBy AND b.status = 'BOOKED'")
     List<Visit> findByBookedByContaining(@Param("bookedBy") String bookedBy);
 
     /**
@@ -78,7 +82,8 @@ public interface VisitRepository extends JpaRepository<Visit, Long> {
      * @param endDate 结束时间
      * @return 返回包含预约患者且在指定时间范围内的出诊记录列表
      */
-    @Query("SELECT v FROM Visit v WHERE :bookedBy MEMBER OF v.bookedBy AND v.visitTime BETWEEN :startDate AND :endDate")
+    @Query("SELECT v FROM Visit v, Booking b WHERE b.visitId = v.id AND b.patientUsername = :bookedBy AND b.status = 'BOOKED' " +
+            "AND v.visitTime BETWEEN :startDate AND :endDate")
     List<Visit> findByBookedByContainingAndVisitTimeBetween(@Param("bookedBy") String bookedBy,
                                                             @Param("startDate") LocalDateTime startDate,
                                                             @Param("endDate") LocalDateTime endDate);
@@ -129,29 +134,11 @@ public interface VisitRepository extends JpaRepository<Visit, Long> {
      * @param bookedBy 预约患者用户名
      * @return 返回对应医生和预约患者的出诊记录列表
      */
-    @Query("SELECT v FROM Visit v WHERE v.doctorName = :doctorName AND :bookedBy MEMBER OF v.bookedBy")
+    @Query("SELECT v FROM Visit v, Booking b WHERE b.visitId = v.id AND v.doctorName = :doctorName " +
+            "AND b.patientUsername = :bookedBy AND b.status = 'BOOKED'")
     List<Visit> findByDoctorNameAndBookedByContaining(@Param("doctorName") String doctorName,
                                                       @Param("bookedBy") String bookedBy);
 
-    /**
-     * 查找可用的出诊记录，根据多个条件过滤，包括状态、科室、医生和时间范围
-     * @param department 科室
-     * @param doctorName 医生用户名
-     * @param start 开始时间
-     * @param end 结束时间
-     * @param auction 是否为竞拍号源
-     * @return 返回符合条件的可用出诊记录列表
-     */
-    @Query("SELECT v FROM Visit v WHERE v.status = 'APPROVED' AND v.availableSlots > 0 AND v.auction = :auction AND " +
-            "(v.department = :department OR :department IS NULL OR :department = '') AND " +
-            "(v.doctorName = :doctorName OR :doctorName IS NULL OR :doctorName = '') AND " +
-            "v.visitTime BETWEEN :start AND :end")
-    List<Visit> findAvailableVisits(@Param("department") String department,
-                                    @Param("doctorName") String doctorName,
-                                    @Param("start") LocalDateTime start,
-                                    @Param("end") LocalDateTime end,
-                                    @Param("auction") boolean auction);
-
     /**
      * 根据科室和时间查找出诊记录
      * @param department 科室
@@ -179,5 +166,129 @@ public interface VisitRepository extends JpaRepository<Visit, Long> {
      */
     @Query("SELECT v FROM Visit v WHERE v.visitTime > :visitTime AND v.auction = false ORDER BY v.visitTime ASC")
     List<Visit> findByVisitTimeAfterOrderByVisitTimeAsc(@Param("visitTime") LocalDateTime visitTime);
-}
 
+    /**
+     * 查询出诊的剩余号源数量和版本号，不加载整个实体
+     * @param id 出诊ID
+     * @return 每行为 [剩余号源数量, 版本号]，出诊不存在时为空
+     */
+    @Query("SELECT v.availableSlots, v.version FROM Visit v WHERE v.id = :id")
+    List<Object[]> findSlotsAndVersionById(@Param("id") Long id);
+
+    /**
+     * 查询指定时间之后所有已审批出诊的ID和剩余号源数量
+     * @param visitTime 出诊时间
+     * @return 每行为 [出诊ID, 剩余号源数量, 版本号]
+     */
+    @Query("SELECT v.id, v.availableSlots, v.version FROM Visit v WHERE v.status = 'APPROVED' AND v.visitTime > :visitTime")
+    List<Object[]> findApprovedSlotsAfter(@Param("visitTime") LocalDateTime visitTime);
+
+    /**
+     * 版本号未变化时更新出诊的剩余号源数量，并递增版本号
+     * @param id 出诊ID
+     * @param availableSlots 剩余号源数量
+     * @param version 读取时的版本号
+     * @return 更新的记录数，版本号已被其他操作修改时返回0
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Visit v SET v.availableSlots = :availableSlots, v.version = v.version + 1 WHERE v.id = :id AND v.version = :version")
+    int updateAvailableSlots(@Param("id") Long id, @Param("availableSlots") int availableSlots, @Param("version") long version);
+
+    /**
+     * 更新出诊状态，不覆盖其他字段
+     * @param id 出诊ID
+     * @param status 出诊状态
+     * @return 更新的记录数
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Visit v SET v.status = :status, v.version = v.version + 1 WHERE v.id = :id")
+    int updateStatus(@Param("id") Long id, @Param("status") String status);
+
+    /**
+     * 按科室统计普通出诊数量
+     * @return 每行为 [科室, 出诊数量]
+     */
+    @Query("SELECT v.department, COUNT(v) FROM Visit v WHERE v.auction = false GROUP BY v.department")
+    List<Object[]> countNormalVisitsByDepartment();
+
+    /**
+     * 按医生统计普通出诊数量
+     * @return 每行为 [医生用户名, 出诊数量]
+     */
+    @Query("SELECT v.doctorName, COUNT(v) FROM Visit v WHERE v.auction = false GROUP BY v.doctorName")
+    List<Object[]> countNormalVisitsByDoctorName();
+
+    /**
+     * 查找指定时间范围内已审批、尚未结算的竞拍出诊
+     * @param start 开始时间（包含）
+     * @param end 结束时间（不包含）
+     * @return 按ID排序的竞拍出诊列表
+     */
+    @Query("SELECT v FROM Visit v WHERE v.status = 'APPROVED' AND v.auction = true " +
+            "AND v.visitTime >= :start AND v.visitTime < :end ORDER BY v.id")
+    List<Visit> findDueAuctionVisits(@Param("start") LocalDateTime start, @Param("end") LocalDateTime end);
+
+    /**
+     * 查找在指定星期出诊的周期性出诊模板
+     * @param dayOfWeek 星期
+     * @return 每行为 [模板ID, 出诊时间, 科室, 医生用户名]
+     */
+    @Query("SELECT v.id, v.recurringVisitTime, v.department, v.doctorName FROM Visit v " +
+            "WHERE v.recurring = true AND v.recurringDayOfWeek = :dayOfWeek ORDER BY v.id")
+    List<Object[]> findRecurringTemplatesByDayOfWeek(@Param("dayOfWeek") DayOfWeek dayOfWeek);
+
+    /**
+     * 按ID键集分页查询指定状态的非周期性出诊
+     * @param status 出诊状态
+     * @param auction 是否为竞拍出诊
+     * @param afterId 上一页最后一条记录的ID，第一页传0
+     * @param pageable 每页数量
+     * @return 按ID升序排列的出诊记录列表
+     */
+    @Query("SELECT v FROM Visit v WHERE v.status = :status AND v.auction = :auction AND v.recurring = false " +
+            "AND v.id > :afterId ORDER BY v.id")
+    List<Visit> findByStatusAndAuctionAfterId(@Param("status") String status,
+                                              @Param("auction") boolean auction,
+                                              @Param("afterId") long afterId,
+                                              Pageable pageable);
+
+    /**
+     * 按 (出诊时间, ID) 键集分页查询患者在指定时间范围内预约的普通出诊
+     * @param bookedBy 预约患者用户名
+     * @param startDate 开始时间
+     * @param endDate 结束时间
+     * @param afterTime 上一页最后一条记录的出诊时间，第一页传开始时间
+     * @param afterId 上一页最后一条记录的ID，第一页传0
+     * @param pageable 每页数量
+     * @return 按出诊时间和ID升序排列的出诊记录列表
+     */
+    @Query("SELECT v FROM Visit v, Booking b WHERE b.visitId = v.id AND b.patientUsername = :bookedBy AND b.status = 'BOOKED' " +
+            "AND v.auction = false AND v.visitTime BETWEEN :startDate AND :endDate " +
+            "AND (v.visitTime > :afterTime OR (v.visitTime = :afterTime AND v.id > :afterId)) " +
+            "ORDER BY v.visitTime, v.id")
+    List<Visit> findBookedNormalVisitsAfter(@Param("bookedBy") String bookedBy,
+                                            @Param("startDate") LocalDateTime startDate,
+                                            @Param("endDate") LocalDateTime endDate,
+                                            @Param("afterTime") LocalDateTime afterTime,
+                                            @Param("afterId") long afterId,
+                                            Pageable pageable);
+
+    /**
+     * 查询指定时间之后已审批的普通出诊，用于构建推荐索引和可预约索引
+     * @param visitTime 起始时间
+     * @return 每行为 [出诊ID, 出诊时间, 科室, 医生用户名, 剩余号源]
+     */
+    @Query("SELECT v.id, v.visitTime, v.department, v.doctorName, v.availableSlots FROM Visit v " +
+            "WHERE v.status = 'APPROVED' AND v.auction = false AND v.recurring = false AND v.visitTime > :visitTime")
+    List<Object[]> findOpenNormalVisitsAfter(@Param("visitTime") LocalDateTime visitTime);
+
+    /**
+     * 查询出诊的医生和出诊时间
+     * @param id 出诊ID
+     * @return 出诊存在时为一行 [医生用户名, 出诊时间]
+     */
+    @Query("SELECT v.doctorName, v.visitTime FROM Visit v WHERE v.id = :id")
+    List<Object[]> findDoctorNameAndVisitTimeById(@Param("id") Long id);
+}
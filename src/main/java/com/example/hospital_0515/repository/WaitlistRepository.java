@@ -0,0 +1,36 @@
+package com.example.hospital_0515.repository;
+
+import com.example.hospital_0515.model.WaitlistEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * WaitlistRepository接口继承了JpaRepository，用于管理WaitlistEntry实体的CRUD操作。
+ * 加入、离开和转正由预约信箱用 JDBC 批量写入。
+ */
+public interface WaitlistRepository extends JpaRepository<WaitlistEntry, Long> {
+
+    /**
+     * 按出队顺序查找出诊的候补患者
+     * @param visitId 出诊ID
+     * @return 每行为 [患者用户名, 信用分]，按信用分降序、加入顺序升序
+     */
+    @Query("SELECT w.patientUsername, w.creditScore FROM WaitlistEntry w WHERE w.visitId = :visitId " +
+            "ORDER BY w.creditScore DESC, w.id ASC")
+    List<Object[]> findQueueByVisitId(@Param("visitId") Long visitId);
+
+    /**
+     * 删除出诊的所有候补
+     * @param visitId 出诊ID
+     * @return 删除的记录数
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM WaitlistEntry w WHERE w.visitId = :visitId")
+    int deleteByVisitId(@Param("visitId") Long visitId);
+}
@@ -0,0 +1,372 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.model.Bid;
+import com.example.hospital_0515.model.Visit;
+import com.example.hospital_0515.repository.BidRepository;
+import com.example.hospital_0515.repository.PatientRepository;
+import com.example.hospital_0515.repository.VisitRepository;
+import com.example.hospital_0515.util.PatientBookingLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * AuctionSettlementService 负责竞拍号源的批量结算。
+ * 到期的竞拍出诊按批处理：每批用少量查询加载竞价和信用分，在 fork-join 线程池中并行排名，
+ * 再在一个事务中用 JDBC 批量写入预约并关闭竞拍。
+ * 已结算的出诊不再是竞拍号源，因此任务中断后重新执行只会处理剩余的出诊。
+ * 一个日期的竞拍全部结算完（没有留到下一次的冲突）后写入 settlement_run 表，启动时只恢复没有完成记录的结算。
+ * 关闭竞拍的更新带版本号条件：加载之后被其他操作修改过的出诊（如医生调整号源）不会按旧数据结算，
+ * 而是重新加载后再次排名，冲突重试次数用完的出诊留到下一次结算。
+ */
+@Service
+public class AuctionSettlementService {
+
+    private static final Logger log = LoggerFactory.getLogger(AuctionSettlementService.class);
+
+    private static final Comparator<Bid> RANKING = Comparator
+            .comparing(Bid::getBidTime, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(Bid::getId);
+
+    @Autowired
+    private VisitRepository visitRepository;
+
+    @Autowired
+    private BidRepository bidRepository;
+
+    @Autowired
+    private PatientRepository patientRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private SlotInventoryService slotInventoryService;
+
+    @Autowired
+    private BidRankingService bidRankingService;
+
+    @Autowired
+    private VisitDirectoryService visitDirectoryService;
+
+    @Autowired
+    private RecommendationService recommendationService;
+
+    @Autowired
+    private AvailabilityService availabilityService;
+
+    @Autowired
+    private DoctorRosterService doctorRosterService;
+
+    @Autowired
+    private ConflictRetryExecutor conflictRetryExecutor;
+
+    @Value("${hospital.settlement.batch-size:500}")
+    private int batchSize;
+
+    private volatile SettlementReport lastReport;
+
+    // 同一时间只执行一个结算；结算期间持锁访问数据库，用 ReentrantLock 而不是 synchronized，虚拟线程等待时不占用载体线程
+    private final ReentrantLock settleLock = new ReentrantLock();
+
+    /**
+     * 结算指定日期出诊的竞拍
+     * @param date 出诊日期
+     * @return 本次结算的统计信息
+     */
+    public SettlementReport settle(LocalDate date) {
+        settleLock.lock();
+        try {
+            return doSettle(date);
+        } finally {
+            settleLock.unlock();
+        }
+    }
+
+    private SettlementReport doSettle(LocalDate date) {
+        SettlementReport report = new SettlementReport(date);
+        long start = System.nanoTime();
+
+        List<Visit> dueVisits = visitRepository.findDueAuctionVisits(date.atStartOfDay(), date.plusDays(1).atStartOfDay());
+        report.visits = dueVisits.size();
+        Map<String, Integer> creditScores = new HashMap<>();
+
+        for (int from = 0; from < dueVisits.size(); from += batchSize) {
+            AtomicReference<List<Visit>> pending =
+                    new AtomicReference<>(dueVisits.subList(from, Math.min(from + batchSize, dueVisits.size())));
+            try {
+                conflictRetryExecutor.run("auctionSettlement", () -> {
+                    // 每次执行单独计数，提交后才计入总数；版本冲突的出诊留到重试时统计，避免重复计数
+                    SettlementReport attempt = new SettlementReport(date);
+                    List<Long> conflicted = settleBatch(pending.get(), creditScores, attempt);
+                    report.merge(attempt);
+                    if (conflicted.isEmpty()) {
+                        return;
+                    }
+                    // 重新加载版本冲突的出诊，只重试仍是竞拍号源的
+                    List<Visit> reloaded = new ArrayList<>();
+                    visitRepository.findAllById(conflicted).forEach(visit -> {
+                        if (visit.isAuction()) {
+                            reloaded.add(visit);
+                        }
+                    });
+                    pending.set(reloaded);
+                    if (!reloaded.isEmpty()) {
+                        throw new ObjectOptimisticLockingFailureException(Visit.class, conflicted.get(0));
+                    }
+                });
+            } catch (OptimisticLockingFailureException e) {
+                report.conflicts += pending.get().size();
+            }
+        }
+
+        if (report.conflicts == 0) {
+            jdbcTemplate.update("MERGE INTO settlement_run (settlement_date, completed_at) KEY (settlement_date) VALUES (?, ?)",
+                    Date.valueOf(date), Timestamp.valueOf(LocalDateTime.now()));
+        }
+        report.totalMillis = (System.nanoTime() - start) / 1_000_000;
+        lastReport = report;
+        log.info("{}", report);
+        return report;
+    }
+
+    /**
+     * 指定日期的结算是否已经完成
+     * @param date 出诊日期
+     */
+    public boolean isCompleted(LocalDate date) {
+        Integer runs = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM settlement_run WHERE settlement_date = ?", Integer.class, Date.valueOf(date));
+        return runs != null && runs > 0;
+    }
+
+    /**
+     * 获取最近一次结算的统计信息
+     * @return 统计信息，尚未结算时返回null
+     */
+    public SettlementReport getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * 结算一批出诊
+     * @param report 本次执行的统计，版本冲突的出诊不计入
+     * @return 版本号已变化、本次未结算的出诊ID
+     */
+    private List<Long> settleBatch(List<Visit> batch, Map<String, Integer> creditScores, SettlementReport report) {
+        long loadStart = System.nanoTime();
+        Map<Long, Visit> visitsById = new LinkedHashMap<>();
+        for (Visit visit : batch) {
+            visitsById.put(visit.getId(), visit);
+        }
+
+        // 一次查询加载整批出诊的竞价
+        Map<Long, List<Bid>> bidsByVisit = bidRepository.findByVisitIdIn(visitsById.keySet()).stream()
+                .collect(Collectors.groupingBy(Bid::getVisitId));
+
+        // 只加载本次运行尚未缓存的信用分
+        Set<String> missing = new HashSet<>();
+        for (List<Bid> bids : bidsByVisit.values()) {
+            for (Bid bid : bids) {
+                if (!creditScores.containsKey(bid.getPatientUsername())) {
+                    missing.add(bid.getPatientUsername());
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (Object[] row : patientRepository.findCreditScoresByUsernameIn(missing)) {
+                creditScores.put((String) row[0], (Integer) row[1]);
+            }
+        }
+        long rankStart = System.nanoTime();
+        report.loadMillis += (rankStart - loadStart) / 1_000_000;
+
+        // 在 fork-join 线程池中并行计算每个出诊的中标患者
+        Map<Long, List<String>> winners = bidsByVisit.entrySet().parallelStream()
+                .collect(Collectors.toConcurrentMap(Map.Entry::getKey,
+                        entry -> rank(entry.getValue(), visitsById.get(entry.getKey()).getAvailableSlots(), creditScores)));
+        winners.values().removeIf(List::isEmpty);
+        long commitStart = System.nanoTime();
+        report.rankMillis += (commitStart - rankStart) / 1_000_000;
+
+        List<Long> conflicted = new ArrayList<>();
+        if (!winners.isEmpty()) {
+            List<Long> settled = commit(winners, visitsById);
+            for (Long visitId : winners.keySet()) {
+                if (!settled.contains(visitId)) {
+                    conflicted.add(visitId);
+                }
+            }
+            for (Long visitId : settled) {
+                Visit visit = visitsById.get(visitId);
+                visit.setAuction(false);
+                visit.setAvailableSlots(visit.getAvailableSlots() - winners.get(visitId).size());
+                visit.setVersion(visit.getVersion() + 1);
+                slotInventoryService.refresh(visitId);
+                bidRankingService.evict(visitId);
+                visitDirectoryService.onVisitAdded(visit);
+                recommendationService.onVisitOpened(visit);
+                availabilityService.onVisitChanged(visit);
+                for (String patientUsername : winners.get(visitId)) {
+                    recommendationService.onBooked(patientUsername, visitId);
+                    doctorRosterService.onBooked(visit, patientUsername);
+                    // 记录预定日志
+                    PatientBookingLogger.logBooking("AUCTION_BOOK", patientUsername, visitId);
+                }
+                report.settledVisits++;
+                report.winners += winners.get(visitId).size();
+            }
+        }
+        report.commitMillis += (System.nanoTime() - commitStart) / 1_000_000;
+        for (Map.Entry<Long, List<Bid>> entry : bidsByVisit.entrySet()) {
+            if (!conflicted.contains(entry.getKey())) {
+                report.bids += entry.getValue().size();
+            }
+        }
+        return conflicted;
+    }
+
+    /**
+     * 按 出价*信用分 降序排名，每个患者只有一条当前出价（即其最高出价），返回前availableSlots名
+     */
+    private List<String> rank(List<Bid> bids, int availableSlots, Map<String, Integer> creditScores) {
+        if (availableSlots <= 0) {
+            return new ArrayList<>();
+        }
+        Comparator<Bid> byScore = Comparator.comparingDouble(
+                (Bid b) -> b.getBidAmount() * creditScores.getOrDefault(b.getPatientUsername(), 0)).reversed();
+        return bids.stream()
+                .sorted(byScore.thenComparing(RANKING))
+                .map(Bid::getPatientUsername)
+                .distinct()
+                .limit(availableSlots)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 在一个事务中关闭竞拍并写入中标预约
+     * @return 本次实际结算的出诊ID，已被其他执行结算或加载后被修改过的出诊不包含在内
+     */
+    private List<Long> commit(Map<Long, List<String>> winners, Map<Long, Visit> visitsById) {
+        return transactionTemplate.execute(status -> {
+            List<Long> visitIds = new ArrayList<>(winners.keySet());
+            // 条件更新保证同一出诊只会被结算一次，且只按加载时的数据结算
+            int[] updated = jdbcTemplate.batchUpdate(
+                    "UPDATE visit SET auction = FALSE, available_slots = available_slots - ?, version = version + 1 " +
+                    "WHERE id = ? AND auction = TRUE AND version = ?",
+                    visitIds.stream()
+                            .map(id -> new Object[]{winners.get(id).size(), id, visitsById.get(id).getVersion()})
+                            .collect(Collectors.toList()));
+
+            List<Long> settled = new ArrayList<>();
+            List<Object[]> bookings = new ArrayList<>();
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            for (int i = 0; i < visitIds.size(); i++) {
+                if (updated[i] == 0) {
+                    continue;
+                }
+                Long visitId = visitIds.get(i);
+                settled.add(visitId);
+                for (String patientUsername : winners.get(visitId)) {
+                    bookings.add(new Object[]{visitId, patientUsername, now, now, visitId, patientUsername});
+                }
+            }
+            // 中标患者此前取消过的预约直接恢复，其余插入新预约
+            jdbcTemplate.batchUpdate(
+                    "UPDATE booking SET status = 'BOOKED', updated_at = ? " +
+                    "WHERE visit_id = ? AND patient_username = ? AND status = 'CANCELLED'",
+                    bookings.stream()
+                            .map(row -> new Object[]{row[2], row[0], row[1]})
+                            .collect(Collectors.toList()));
+            jdbcTemplate.batchUpdate(
+                    "INSERT INTO booking (visit_id, patient_username, status, created_at, updated_at) " +
+                    "SELECT ?, ?, 'BOOKED', ?, ? WHERE NOT EXISTS " +
+                    "(SELECT 1 FROM booking WHERE visit_id = ? AND patient_username = ?)",
+                    bookings);
+            return settled;
+        });
+    }
+
+    /**
+     * 一次结算的统计信息
+     */
+    public static class SettlementReport {
+        private final LocalDate date;
+        private int visits;
+        private int settledVisits;
+        private int bids;
+        private int winners;
+        private int conflicts;
+        private long loadMillis;
+        private long rankMillis;
+        private long commitMillis;
+        private long totalMillis;
+
+        SettlementReport(LocalDate date) {
+            this.date = date;
+        }
+
+        /**
+         * 计入一次已提交执行的统计，出诊总数和冲突数由结算主流程统计
+         */
+        void merge(SettlementReport attempt) {
+            settledVisits += attempt.settledVisits;
+            bids += attempt.bids;
+            winners += attempt.winners;
+            loadMillis += attempt.loadMillis;
+            rankMillis += attempt.rankMillis;
+            commitMillis += attempt.commitMillis;
+        }
+
+        public LocalDate getDate() { return date; }
+
+        public int getVisits() { return visits; }
+
+        public int getSettledVisits() { return settledVisits; }
+
+        public int getBids() { return bids; }
+
+        public int getWinners() { return winners; }
+
+        public int getConflicts() { return conflicts; }
+
+        public long getLoadMillis() { return loadMillis; }
+
+        public long getRankMillis() { return rankMillis; }
+
+        public long getCommitMillis() { return commitMillis; }
+
+        public long getTotalMillis() { return totalMillis; }
+
+        @Override
+        public String toString() {
+            return String.format("Auction settlement %s: visits=%d, settled=%d, bids=%d, winners=%d, conflicts=%d, load=%dms, rank=%dms, commit=%dms, total=%dms",
+                    date, visits, settledVisits, bids, winners, conflicts, loadMillis, rankMillis, commitMillis, totalMillis);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.hospital_0515.service;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongPredicate;
+
+/**
+ * AvailabilityIndex 是可预约出诊的内存索引，不依赖 Spring。
+ * 出诊按 日期+上午/下午 分桶，每个桶内再按科室和医生建索引；
+ * 只有仍有号源的出诊放入桶中，号源用完的出诊保留在 {@link #known} 中，号源归还后重新放入。
+ */
+public class AvailabilityIndex {
+
+    private static final Comparator<Slot> ORDER = Comparator
+            .comparing((Slot s) -> s.visitTime)
+            .thenComparingLong(s -> s.id);
+
+    // 已审批的普通出诊，包括号源已用完的
+    private final ConcurrentHashMap<Long, Slot> known = new ConcurrentHashMap<>();
+
+    // 半天桶编号 -> 桶
+    private final ConcurrentSkipListMap<Long, Bucket> buckets = new ConcurrentSkipListMap<>();
+
+    /**
+     * 加入或替换一个已审批的普通出诊
+     * @param hasSlots 是否仍有号源
+     */
+    public void put(Slot slot, boolean hasSlots) {
+        if (slot.visitTime == null) {
+            return;
+        }
+        Slot previous = known.put(slot.id, slot);
+        if (previous != null) {
+            unlist(previous);
+        }
+        if (hasSlots) {
+            list(slot);
+        }
+    }
+
+    /**
+     * 号源数量变化后调用。在出诊上加锁后再读取号源，并发的支付和取消按最后一次读取的结果生效
+     * @param id 出诊ID
+     * @param hasSlots 判断出诊是否仍有号源
+     */
+    public void updateSlots(long id, LongPredicate hasSlots) {
+        Slot slot = known.get(id);
+        if (slot == null) {
+            return;
+        }
+        synchronized (slot) {
+            if (hasSlots.test(id)) {
+                list(slot);
+            } else {
+                unlist(slot);
+            }
+        }
+    }
+
+    /**
+     * 移除出诊，不存在时忽略
+     */
+    public void remove(long id) {
+        Slot slot = known.remove(id);
+        if (slot != null) {
+            unlist(slot);
+        }
+    }
+
+    public int size() {
+        return known.size();
+    }
+
+    /**
+     * 移除指定时间所在半天之前的所有出诊
+     * @return 移除的出诊数量
+     */
+    public int purgeBefore(LocalDateTime time) {
+        long first = bucketOf(time);
+        int before = known.size();
+        known.values().removeIf(slot -> bucketOf(slot.visitTime) < first);
+        buckets.headMap(first).clear();
+        return before - known.size();
+    }
+
+    /**
+     * 按预约时段规则查询当前可预约的出诊：
+     * 7点到9点可预约当天剩余时间的号，其余14点前的时间可预约当天下午的号，14点后不能再预约当天的号；
+     * 任何时间都可预约明天起三天内的号（含第四天0点）。
+     * 当天的范围与明天起的范围首尾相接，合并为一次范围查询，恰好在明天0点的出诊只返回一次
+     * @param department 科室，为空时不限
+     * @param doctorName 医生用户名，为空时不限
+     * @param now 当前时间
+     * @return 按出诊时间排序的出诊
+     */
+    public List<Slot> findBookable(String department, String doctorName, LocalDateTime now) {
+        LocalDateTime startOfToday = now.truncatedTo(ChronoUnit.DAYS);
+        LocalDateTime start;
+        if (now.getHour() < 9 && now.getHour() >= 7) {
+            // 上午9点前，可以预约当天上午和下午的号
+            start = now;
+        } else if (now.getHour() < 14) {
+            // 上午9点后到下午14点前（以及7点前），可以预约当天下午的号
+            start = startOfToday.plusHours(12);
+        } else {
+            // 14点后只能预约明天起的号
+            start = startOfToday.plusDays(1);
+        }
+        return find(department, doctorName, start, startOfToday.plusDays(4));
+    }
+
+    /**
+     * 查询时间范围内仍有号源的出诊
+     * @param department 科室，为空时不限
+     * @param doctorName 医生用户名，为空时不限
+     * @param start 开始时间（含）
+     * @param end 结束时间（含）
+     * @return 按出诊时间排序的出诊
+     */
+    public List<Slot> find(String department, String doctorName, LocalDateTime start, LocalDateTime end) {
+        boolean byDepartment = department != null && !department.isEmpty();
+        boolean byDoctor = doctorName != null && !doctorName.isEmpty();
+        List<Slot> result = new ArrayList<>();
+        for (Bucket bucket : buckets.subMap(bucketOf(start), true, bucketOf(end), true).values()) {
+            // 先用选择性最高的条件取候选集合
+            Collection<Slot> candidates = byDoctor ? bucket.byDoctor.get(doctorName)
+                    : byDepartment ? bucket.byDepartment.get(department)
+                    : bucket.all;
+            if (candidates == null) {
+                continue;
+            }
+            for (Slot slot : candidates) {
+                if (slot.visitTime.isBefore(start) || slot.visitTime.isAfter(end)) {
+                    continue;
+                }
+                if (byDepartment && !department.equals(slot.department)) {
+                    continue;
+                }
+                result.add(slot);
+            }
+        }
+        result.sort(ORDER);
+        return result;
+    }
+
+    private void list(Slot slot) {
+        buckets.computeIfAbsent(bucketOf(slot.visitTime), key -> new Bucket()).add(slot);
+    }
+
+    private void unlist(Slot slot) {
+        Bucket bucket = buckets.get(bucketOf(slot.visitTime));
+        if (bucket != null) {
+            bucket.remove(slot);
+        }
+    }
+
+    /**
+     * 半天桶编号：纪元日*2，下午再加1
+     */
+    static long bucketOf(LocalDateTime time) {
+        return time.toLocalDate().toEpochDay() * 2 + (time.getHour() >= 12 ? 1 : 0);
+    }
+
+    /**
+     * 一个半天内仍有号源的出诊
+     */
+    private static class Bucket {
+        private final Set<Slot> all = ConcurrentHashMap.newKeySet();
+        private final ConcurrentHashMap<String, Set<Slot>> byDepartment = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, Set<Slot>> byDoctor = new ConcurrentHashMap<>();
+
+        void add(Slot slot) {
+            all.add(slot);
+            if (slot.department != null) {
+                byDepartment.computeIfAbsent(slot.department, key -> ConcurrentHashMap.newKeySet()).add(slot);
+            }
+            if (slot.doctorName != null) {
+                byDoctor.computeIfAbsent(slot.doctorName, key -> ConcurrentHashMap.newKeySet()).add(slot);
+            }
+        }
+
+        void remove(Slot slot) {
+            all.remove(slot);
+            if (slot.department != null) {
+                Set<Slot> slots = byDepartment.get(slot.department);
+                if (slots != null) {
+                    slots.remove(slot);
+                }
+            }
+            if (slot.doctorName != null) {
+                Set<Slot> slots = byDoctor.get(slot.doctorName);
+                if (slots != null) {
+                    slots.remove(slot);
+                }
+            }
+        }
+    }
+
+    /**
+     * 索引中的一个出诊
+     */
+    public static final class Slot {
+        private final long id;
+        private final LocalDateTime visitTime;
+        private final String department;
+        private final String doctorName;
+
+        public Slot(long id, LocalDateTime visitTime, String department, String doctorName) {
+            this.id = id;
+            this.visitTime = visitTime;
+            this.department = department;
+            this.doctorName = doctorName;
+        }
+
+        public long getId() { return id; }
+
+        public LocalDateTime getVisitTime() { return visitTime; }
+
+        public String getDepartment() { return department; }
+
+        public String getDoctorName() { return doctorName; }
+    }
+}
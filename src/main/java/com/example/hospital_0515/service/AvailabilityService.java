@@ -0,0 +1,126 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.metrics.MetricsRegistry;
+import com.example.hospital_0515.model.Visit;
+import com.example.hospital_0515.repository.VisitRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * AvailabilityService 负责患者可预约普通出诊的查询。
+ * 已审批的普通出诊保存在 {@link AvailabilityIndex} 中，启动时从数据库加载一次，
+ * 之后随出诊创建、审批、删除、支付、取消和竞拍结算增量更新，查询时不访问数据库。
+ * 号源数量以 {@link SlotInventoryService} 为准。
+ */
+@Service
+public class AvailabilityService {
+
+    private static final Logger log = LoggerFactory.getLogger(AvailabilityService.class);
+
+    @Autowired
+    private VisitRepository visitRepository;
+
+    @Autowired
+    private SlotInventoryService slotInventoryService;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    private final AvailabilityIndex index = new AvailabilityIndex();
+
+    /**
+     * 从数据库加载今天及以后已审批的普通出诊
+     */
+    @PostConstruct
+    public void reload() {
+        long start = System.nanoTime();
+        for (Object[] row : visitRepository.findOpenNormalVisitsAfter(LocalDateTime.now().truncatedTo(ChronoUnit.DAYS))) {
+            AvailabilityIndex.Slot slot = new AvailabilityIndex.Slot((Long) row[0], (LocalDateTime) row[1], (String) row[2], (String) row[3]);
+            index.put(slot, (Integer) row[4] > 0);
+        }
+        log.info("Loaded {} approved visits for availability in {}ms", index.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * 按预约时段规则查询当前可预约的出诊，规则见 {@link AvailabilityIndex#findBookable}
+     * @param department 科室，为空时不限
+     * @param doctorName 医生用户名，为空时不限
+     * @param now 当前时间
+     * @return 按出诊时间排序的可预约出诊
+     */
+    public List<Visit> findBookable(String department, String doctorName, LocalDateTime now) {
+        List<AvailabilityIndex.Slot> slots = index.findBookable(department, doctorName, now);
+
+        List<Visit> visits = new ArrayList<>(slots.size());
+        for (AvailabilityIndex.Slot slot : slots) {
+            int available = available(slot.getId());
+            if (available <= 0) {
+                continue;
+            }
+            Visit visit = new Visit();
+            visit.setId(slot.getId());
+            visit.setVisitTime(slot.getVisitTime());
+            visit.setDepartment(slot.getDepartment());
+            visit.setDoctorName(slot.getDoctorName());
+            visit.setStatus("APPROVED");
+            visit.setAvailableSlots(available);
+            visits.add(visit);
+        }
+        return visits;
+    }
+
+    /**
+     * 出诊创建、审批通过或竞拍结算转为普通号源后调用，只有已审批的普通出诊会被索引
+     * @param visit 出诊信息
+     */
+    public void onVisitChanged(Visit visit) {
+        if (!"APPROVED".equals(visit.getStatus()) || visit.isAuction() || visit.isRecurring()) {
+            index.remove(visit.getId());
+            return;
+        }
+        AvailabilityIndex.Slot slot = new AvailabilityIndex.Slot(visit.getId(), visit.getVisitTime(), visit.getDepartment(), visit.getDoctorName());
+        index.put(slot, available(visit.getId()) > 0);
+    }
+
+    /**
+     * 支付或取消预约使号源变化后调用
+     * @param visitId 出诊ID
+     */
+    public void onSlotsChanged(Long visitId) {
+        index.updateSlots(visitId, id -> available(id) > 0);
+    }
+
+    /**
+     * 出诊删除后调用
+     * @param visitId 出诊ID
+     */
+    public void onVisitRemoved(Long visitId) {
+        index.remove(visitId);
+    }
+
+    /**
+     * 定期移除当前半天之前的出诊
+     */
+    @Scheduled(fixedDelayString = "${hospital.availability.purge-interval-ms:600000}")
+    public void purgeExpired() {
+        metricsRegistry.timeJob("availabilityPurge", () -> index.purgeBefore(LocalDateTime.now()));
+    }
+
+    private int available(long visitId) {
+        try {
+            return slotInventoryService.available(visitId);
+        } catch (NoSuchElementException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.model.Bid;
+import com.example.hospital_0515.model.Patient;
+import com.example.hospital_0515.repository.BidRepository;
+import com.example.hospital_0515.repository.PatientRepository;
+import com.example.hospital_0515.repository.VisitRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BidRankingService 为每个竞拍出诊在内存中维护按 出价*信用分 降序排列的竞价榜。
+ * 每个患者在榜中只有一条当前出价，竞价榜在首次访问时用两次查询加载，之后随出价、加价和信用分变化增量更新，
+ * 读取前K名只需遍历有序集合的前K个元素，不访问数据库。
+ */
+@Service
+public class BidRankingService {
+
+    @Autowired
+    private BidRepository bidRepository;
+
+    @Autowired
+    private PatientRepository patientRepository;
+
+    @Autowired
+    private VisitRepository visitRepository;
+
+    // 出诊ID -> 竞价榜
+    private final ConcurrentHashMap<Long, AuctionBook> books = new ConcurrentHashMap<>();
+
+    // 患者用户名 -> 该患者参与竞价且已加载竞价榜的出诊ID
+    private final ConcurrentHashMap<String, Set<Long>> visitsByPatient = new ConcurrentHashMap<>();
+
+    /**
+     * 获取竞价榜前K名
+     * @param visitId 出诊ID
+     * @param limit 返回数量
+     * @return 按 出价*信用分 降序排列的竞价记录
+     */
+    public List<RankedBid> getTopBids(Long visitId, int limit) {
+        return book(visitId).top(limit);
+    }
+
+    /**
+     * 出价或加价保存后调用，替换该患者在榜中的原出价
+     * @param bid 已保存的当前出价
+     * @param creditScore 竞价患者当前信用分
+     */
+    public void onBidPlaced(Bid bid, int creditScore) {
+        // compute 与正在进行的加载互斥，避免加载查询与新竞价交错时丢失记录
+        books.computeIfPresent(bid.getVisitId(), (visitId, book) -> {
+            book.put(new RankedBid(bid.getId(), bid.getPatientUsername(), bid.getBidAmount(), bid.getBidTime(), creditScore));
+            index(bid.getPatientUsername(), visitId);
+            return book;
+        });
+    }
+
+    /**
+     * 患者信用分变化后调用，重新计算该患者在所有竞价榜中的排名
+     * @param patientUsername 患者用户名
+     * @param creditScore 新信用分
+     */
+    public void onCreditScoreChanged(String patientUsername, int creditScore) {
+        Set<Long> visitIds = visitsByPatient.get(patientUsername);
+        if (visitIds == null) {
+            return;
+        }
+        for (Long visitId : visitIds) {
+            AuctionBook book = books.get(visitId);
+            if (book != null) {
+                book.rescore(patientUsername, creditScore);
+            }
+        }
+    }
+
+    /**
+     * 竞拍结束或出诊删除后丢弃竞价榜
+     * @param visitId 出诊ID
+     */
+    public void evict(Long visitId) {
+        AuctionBook book = books.remove(visitId);
+        if (book == null) {
+            return;
+        }
+        for (String patientUsername : book.patients()) {
+            visitsByPatient.computeIfPresent(patientUsername, (username, visitIds) -> {
+                visitIds.remove(visitId);
+                return visitIds.isEmpty() ? null : visitIds;
+            });
+        }
+    }
+
+    /**
+     * 只缓存已审批的竞拍出诊的竞价榜；不存在、未审批或已结算的出诊每次临时加载，不占用缓存。
+     * 判断在 computeIfAbsent 内进行，与结算后的 evict 互斥，已结算的出诊不会重新进入缓存
+     */
+    private AuctionBook book(Long visitId) {
+        AuctionBook book = books.computeIfAbsent(visitId, id -> isOpenAuction(id) ? load(id, true) : null);
+        return book != null ? book : load(visitId, false);
+    }
+
+    private boolean isOpenAuction(Long visitId) {
+        return visitRepository.findById(visitId)
+                .map(visit -> "APPROVED".equals(visit.getStatus()) && visit.isAuction())
+                .orElse(false);
+    }
+
+    /**
+     * @param cached 是否放入缓存，放入缓存的竞价榜需要登记患者以便信用分变化时更新
+     */
+    private AuctionBook load(Long visitId, boolean cached) {
+        List<Bid> bids = bidRepository.findByVisitId(visitId);
+        Set<String> usernames = new HashSet<>();
+        for (Bid bid : bids) {
+            usernames.add(bid.getPatientUsername());
+        }
+        Map<String, Integer> creditScores = new HashMap<>();
+        if (!usernames.isEmpty()) {
+            for (Patient patient : patientRepository.findByUsernameIn(usernames)) {
+                creditScores.put(patient.getUsername(), patient.getCreditScore());
+            }
+        }
+        AuctionBook book = new AuctionBook();
+        for (Bid bid : bids) {
+            int creditScore = creditScores.getOrDefault(bid.getPatientUsername(), 0);
+            book.put(new RankedBid(bid.getId(), bid.getPatientUsername(), bid.getBidAmount(), bid.getBidTime(), creditScore));
+            if (cached) {
+                index(bid.getPatientUsername(), visitId);
+            }
+        }
+        return book;
+    }
+
+    private void index(String patientUsername, Long visitId) {
+        // compute 与 evict 中的移除对同一患者互斥，避免向刚被移除的集合中添加
+        visitsByPatient.compute(patientUsername, (username, visitIds) -> {
+            Set<Long> result = visitIds != null ? visitIds : ConcurrentHashMap.newKeySet();
+            result.add(visitId);
+            return result;
+        });
+    }
+
+    /**
+     * 单个出诊的竞价榜
+     */
+    private static class AuctionBook {
+
+        private static final Comparator<RankedBid> ORDER = Comparator
+                .comparingDouble(RankedBid::getScore).reversed()
+                .thenComparing(RankedBid::getBidId);
+
+        private final TreeSet<RankedBid> ranking = new TreeSet<>(ORDER);
+        // 患者用户名 -> 当前出价
+        private final Map<String, RankedBid> byPatient = new HashMap<>();
+
+        synchronized void put(RankedBid bid) {
+            RankedBid previous = byPatient.get(bid.getPatientUsername());
+            if (previous != null) {
+                // 加载与新出价交错时可能收到较早的出价，只保留金额更高的
+                if (previous.getBidAmount() >= bid.getBidAmount()) {
+                    return;
+                }
+                ranking.remove(previous);
+            }
+            byPatient.put(bid.getPatientUsername(), bid);
+            ranking.add(bid);
+        }
+
+        synchronized void rescore(String patientUsername, int creditScore) {
+            RankedBid bid = byPatient.get(patientUsername);
+            if (bid == null) {
+                return;
+            }
+            // 排序键变化前先移出有序集合
+            ranking.remove(bid);
+            bid.setCreditScore(creditScore);
+            ranking.add(bid);
+        }
+
+        synchronized List<String> patients() {
+            return new ArrayList<>(byPatient.keySet());
+        }
+
+        synchronized List<RankedBid> top(int limit) {
+            List<RankedBid> result = new ArrayList<>(Math.min(limit, ranking.size()));
+            Iterator<RankedBid> iterator = ranking.iterator();
+            while (iterator.hasNext() && result.size() < limit) {
+                result.add(iterator.next().copy());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 竞价榜中的一条竞价记录
+     */
+    public static class RankedBid {
+        private final Long bidId;
+        private final String patientUsername;
+        private final double bidAmount;
+        private final LocalDateTime bidTime;
+        private int creditScore;
+        private double score;
+
+        RankedBid(Long bidId, String patientUsername, double bidAmount, LocalDateTime bidTime, int creditScore) {
+            this.bidId = bidId;
+            this.patientUsername = patientUsername;
+            this.bidAmount = bidAmount;
+            this.bidTime = bidTime;
+            setCreditScore(creditScore);
+        }
+
+        RankedBid copy() {
+            return new RankedBid(bidId, patientUsername, bidAmount, bidTime, creditScore);
+        }
+
+        public Long getBidId() { return bidId; }
+
+        public String getPatientUsername() { return patientUsername; }
+
+        public double getBidAmount() { return bidAmount; }
+
+        public LocalDateTime getBidTime() { return bidTime; }
+
+        public int getCreditScore() { return creditScore; }
+
+        public double getScore() { return score; }
+
+        private void setCreditScore(int creditScore) {
+            this.creditScore = creditScore;
+            this.score = bidAmount * creditScore;
+        }
+    }
+}
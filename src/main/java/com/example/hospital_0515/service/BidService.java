@@ -0,0 +1,64 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.model.Bid;
+import com.example.hospital_0515.model.BidHistory;
+import com.example.hospital_0515.repository.BidHistoryRepository;
+import com.example.hospital_0515.repository.BidRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+/**
+ * BidService 负责写入出价：每个患者在每个出诊上只保留一条当前出价，加价时原地更新，
+ * 每次有效出价同时追加到出价历史。排名和结算的数据量因此与竞价人数相同，与出价次数无关。
+ */
+@Service
+public class BidService {
+
+    @Autowired
+    private BidRepository bidRepository;
+
+    @Autowired
+    private BidHistoryRepository bidHistoryRepository;
+
+    /**
+     * 出价或加价。同一患者并发出价时抛出 {@link OptimisticLockingFailureException}，由调用方重试
+     * @param visitId 出诊ID
+     * @param patientUsername 患者用户名
+     * @param amount 出价金额
+     * @param bidTime 出价时间
+     * @return 更新后的当前出价；不高于当前出价时不修改，返回null
+     */
+    @Transactional
+    public Bid place(Long visitId, String patientUsername, double amount, LocalDateTime bidTime) {
+        Bid bid = bidRepository.findByVisitIdAndPatientUsername(visitId, patientUsername);
+        if (bid != null && amount <= bid.getBidAmount()) {
+            return null;
+        }
+        if (bid == null) {
+            bid = new Bid();
+            bid.setVisitId(visitId);
+            bid.setPatientUsername(patientUsername);
+        }
+        bid.setBidAmount(amount);
+        bid.setBidTime(bidTime);
+        try {
+            bid = bidRepository.saveAndFlush(bid);
+        } catch (DataIntegrityViolationException e) {
+            // 另一个请求刚为同一患者插入了出价，重试时走更新分支
+            throw new OptimisticLockingFailureException("同一患者的出价被并发写入", e);
+        }
+
+        BidHistory history = new BidHistory();
+        history.setVisitId(visitId);
+        history.setPatientUsername(patientUsername);
+        history.setBidAmount(amount);
+        history.setBidTime(bidTime);
+        bidHistoryRepository.save(history);
+        return bid;
+    }
+}
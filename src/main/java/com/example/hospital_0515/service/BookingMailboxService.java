@@ -0,0 +1,566 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.metrics.MetricsRegistry;
+import com.example.hospital_0515.model.Booking;
+import com.example.hospital_0515.repository.BookingRepository;
+import com.example.hospital_0515.util.PatientBookingLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * BookingMailboxService 串行执行支付、取消预约和候补排队。
+ * 出诊ID按哈希分配到固定数量的信箱，每个信箱由一个线程依次处理：从队列中一次取出最多一批命令，
+ * 用一次查询加载这批命令涉及的预约状态，在内存中按到达顺序判断重复预约、占用号源，
+ * 再在一个事务中批量写入预约、候补和出诊剩余号源的变化，预约记录与号源数量总是一起提交。
+ * 同一出诊的命令只会在一个线程中执行，热门出诊的并发支付不再争抢同一行数据，写入次数随批量增大而减少。
+ * 取消释放的号源在同一批内直接转给候补队列的队首，不经过号源计数，其他患者无法抢到，也就不需要轮询重试。
+ * 请求线程提交命令后等待 CompletableFuture 返回结果。
+ */
+@Service
+public class BookingMailboxService {
+
+    private static final Logger log = LoggerFactory.getLogger(BookingMailboxService.class);
+
+    /**
+     * 命令的执行结果
+     */
+    public enum Outcome {
+        BOOKED, ALREADY_BOOKED, SOLD_OUT, CANCELLED, NOT_BOOKED,
+        WAITLISTED, ALREADY_WAITLISTED, LEFT_WAITLIST, NOT_WAITLISTED
+    }
+
+    private enum Type {
+        PAY, CANCEL, JOIN_WAITLIST, LEAVE_WAITLIST
+    }
+
+    @Autowired
+    private BookingRepository bookingRepository;
+
+    @Autowired
+    private SlotInventoryService slotInventoryService;
+
+    @Autowired
+    private DoctorRosterService doctorRosterService;
+
+    @Autowired
+    private WaitlistService waitlistService;
+
+    @Autowired
+    private RecommendationService recommendationService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Value("${hospital.booking.mailboxes:0}")
+    private int mailboxCount;
+
+    @Value("${hospital.booking.batch-size:200}")
+    private int batchSize;
+
+    @Value("${hospital.booking.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${hospital.booking.timeout-ms:10000}")
+    private long timeoutMs;
+
+    private Mailbox[] mailboxes;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        int count = mailboxCount > 0 ? mailboxCount : Runtime.getRuntime().availableProcessors();
+        mailboxes = new Mailbox[count];
+        running = true;
+        for (int i = 0; i < count; i++) {
+            Mailbox mailbox = new Mailbox(queueCapacity);
+            mailbox.thread = new Thread(() -> drain(mailbox), "booking-mailbox-" + i);
+            mailbox.thread.setDaemon(true);
+            mailbox.thread.start();
+            mailboxes[i] = mailbox;
+        }
+        metricsRegistry.gauge("booking_mailbox_queue_depth", "预约信箱中等待处理的命令数", () -> {
+            int depth = 0;
+            for (Mailbox mailbox : mailboxes) {
+                depth += mailbox.queue.size();
+            }
+            return depth;
+        });
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Mailbox mailbox : mailboxes) {
+            mailbox.thread.interrupt();
+        }
+        for (Mailbox mailbox : mailboxes) {
+            mailbox.thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    /**
+     * 支付预约：占用一个号源并写入有效预约
+     * @param visitId 出诊ID
+     * @param patientUsername 患者用户名
+     * @return BOOKED、ALREADY_BOOKED 或 SOLD_OUT
+     * @throws java.util.NoSuchElementException 出诊不存在
+     * @throws IllegalStateException 信箱已满或等待超时，命令未执行
+     */
+    public Outcome pay(Long visitId, String patientUsername) {
+        return await(submit(Type.PAY, visitId, patientUsername, 0));
+    }
+
+    /**
+     * 取消预约，号源转给候补队列的队首，没有候补时归还号源
+     * @param visitId 出诊ID
+     * @param patientUsername 患者用户名
+     * @return CANCELLED 或 NOT_BOOKED
+     * @throws IllegalStateException 信箱已满或等待超时，命令未执行
+     */
+    public Outcome cancel(Long visitId, String patientUsername) {
+        return await(submit(Type.CANCEL, visitId, patientUsername, 0));
+    }
+
+    /**
+     * 加入候补队列，此时仍有号源则直接挂号
+     * @param visitId 出诊ID
+     * @param patientUsername 患者用户名
+     * @param creditScore 患者当前信用分，决定在队列中的优先级
+     * @return WAITLISTED、BOOKED、ALREADY_BOOKED 或 ALREADY_WAITLISTED
+     * @throws java.util.NoSuchElementException 出诊不存在
+     * @throws IllegalStateException 信箱已满或等待超时，命令未执行
+     */
+    public Outcome joinWaitlist(Long visitId, String patientUsername, int creditScore) {
+        return await(submit(Type.JOIN_WAITLIST, visitId, patientUsername, creditScore));
+    }
+
+    /**
+     * 离开候补队列
+     * @param visitId 出诊ID
+     * @param patientUsername 患者用户名
+     * @return LEFT_WAITLIST 或 NOT_WAITLISTED
+     * @throws IllegalStateException 信箱已满或等待超时，命令未执行
+     */
+    public Outcome leaveWaitlist(Long visitId, String patientUsername) {
+        return await(submit(Type.LEAVE_WAITLIST, visitId, patientUsername, 0));
+    }
+
+    private Command submit(Type type, Long visitId, String patientUsername, int creditScore) {
+        Command command = new Command(type, visitId, patientUsername, creditScore);
+        Mailbox mailbox = mailboxes[Math.floorMod(visitId.hashCode(), mailboxes.length)];
+        if (!running || !mailbox.queue.offer(command)) {
+            metricsRegistry.increment("booking_rejected_total", "信箱已满被拒绝的预约命令数", 1);
+            throw new IllegalStateException("预约繁忙，请稍后重试");
+        }
+        return command;
+    }
+
+    private Outcome await(Command command) {
+        try {
+            try {
+                return command.future.get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (command.started.compareAndSet(false, true)) {
+                    // 命令还在排队，放弃后信箱不会再执行它
+                    metricsRegistry.increment("booking_abandoned_total", "等待超时被放弃的预约命令数", 1);
+                    throw new IllegalStateException("预约繁忙，请稍后重试");
+                }
+                // 已经开始执行，结果必须返回给请求方
+                return command.future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待预约结果被中断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 信箱线程：阻塞等待第一条命令，再取出已在排队的命令凑成一批
+     */
+    private void drain(Mailbox mailbox) {
+        List<Command> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                batch.add(mailbox.queue.take());
+                mailbox.queue.drainTo(batch, batchSize - 1);
+                process(batch);
+            } catch (InterruptedException e) {
+                break;
+            } catch (RuntimeException e) {
+                log.error("Booking mailbox failed", e);
+                fail(batch, e);
+            } finally {
+                batch.clear();
+            }
+        }
+        List<Command> remaining = new ArrayList<>();
+        mailbox.queue.drainTo(remaining);
+        fail(remaining, new IllegalStateException("服务正在停止"));
+    }
+
+    private void process(List<Command> batch) {
+        List<Command> commands = new ArrayList<>(batch.size());
+        for (Command command : batch) {
+            // 等待超时被请求方放弃的命令不再执行
+            if (command.started.compareAndSet(false, true)) {
+                commands.add(command);
+            }
+        }
+        if (commands.isEmpty()) {
+            return;
+        }
+        metricsRegistry.observe("booking_batch_size", "预约信箱每批处理的命令数", MetricsRegistry.COUNT_BUCKETS, commands.size());
+        try {
+            apply(commands);
+        } catch (RuntimeException e) {
+            if (commands.size() == 1) {
+                commands.get(0).future.completeExceptionally(e);
+                return;
+            }
+            // 批内某条命令失败（出诊已删除、与结算并发写入同一预约等），逐条重新执行，只让出错的命令失败
+            metricsRegistry.increment("booking_batch_fallbacks_total", "整批写入失败后逐条重试的次数", 1);
+            for (Command command : commands) {
+                try {
+                    apply(Collections.singletonList(command));
+                } catch (RuntimeException single) {
+                    command.future.completeExceptionally(single);
+                }
+            }
+        }
+    }
+
+    /**
+     * 按到达顺序在内存中执行一批命令，再在一个事务中写入预约和候补的变化，提交后才返回结果
+     */
+    private void apply(List<Command> commands) {
+        Set<Long> visitIds = new HashSet<>();
+        Set<String> usernames = new HashSet<>();
+        for (Command command : commands) {
+            visitIds.add(command.visitId);
+            usernames.add(command.patientUsername);
+        }
+        Batch batch = new Batch(visitIds, usernames);
+        Outcome[] outcomes = new Outcome[commands.size()];
+        // 取消释放的号源转给的候补患者，为null时号源归还给号源计数
+        String[] promotedTo = new String[commands.size()];
+        try {
+            for (int i = 0; i < commands.size(); i++) {
+                Command command = commands.get(i);
+                Key key = new Key(command.visitId, command.patientUsername);
+                boolean booked = batch.isBooked(key);
+                switch (command.type) {
+                    case PAY:
+                        if (booked) {
+                            outcomes[i] = Outcome.ALREADY_BOOKED;
+                        } else {
+                            outcomes[i] = batch.book(key) ? Outcome.BOOKED : Outcome.SOLD_OUT;
+                        }
+                        break;
+                    case JOIN_WAITLIST:
+                        if (booked) {
+                            outcomes[i] = Outcome.ALREADY_BOOKED;
+                        } else if (waitlistService.contains(command.visitId, command.patientUsername)) {
+                            outcomes[i] = Outcome.ALREADY_WAITLISTED;
+                        } else if (batch.book(key)) {
+                            // 排队期间有号源时直接挂号
+                            outcomes[i] = Outcome.BOOKED;
+                        } else {
+                            waitlistService.add(command.visitId, command.patientUsername, command.creditScore);
+                            batch.waitlistJoins.put(key, command.creditScore);
+                            outcomes[i] = Outcome.WAITLISTED;
+                        }
+                        break;
+                    case LEAVE_WAITLIST:
+                        outcomes[i] = batch.leaveWaitlist(key) ? Outcome.LEFT_WAITLIST : Outcome.NOT_WAITLISTED;
+                        break;
+                    default:
+                        if (booked) {
+                            batch.current.put(key, Booking.CANCELLED);
+                            promotedTo[i] = batch.promote(command.visitId);
+                            outcomes[i] = Outcome.CANCELLED;
+                        } else {
+                            outcomes[i] = Outcome.NOT_BOOKED;
+                        }
+                }
+            }
+            batch.write();
+        } catch (RuntimeException e) {
+            // 写入失败时归还本批暂扣的号源，内存中的候补队列丢弃后从数据库重新加载
+            for (Long visitId : batch.reserved) {
+                slotInventoryService.unhold(visitId);
+            }
+            waitlistService.reload(visitIds);
+            throw e;
+        }
+
+        for (int i = 0; i < commands.size(); i++) {
+            Command command = commands.get(i);
+            if (outcomes[i] == Outcome.BOOKED) {
+                doctorRosterService.onBooked(command.visitId, command.patientUsername);
+            } else if (outcomes[i] == Outcome.CANCELLED) {
+                // 没有候补转正时释放的号源已在提交时加回计数
+                doctorRosterService.onCancelled(command.visitId, command.patientUsername);
+                if (promotedTo[i] != null) {
+                    doctorRosterService.onBooked(command.visitId, promotedTo[i]);
+                    recommendationService.onBooked(promotedTo[i], command.visitId);
+                    // 记录候补转正日志
+                    PatientBookingLogger.logBooking("WAITLIST_PROMOTE", promotedTo[i], command.visitId);
+                }
+            }
+            command.future.complete(outcomes[i]);
+        }
+    }
+
+    /**
+     * 一批命令在内存中的执行状态，提交前不写数据库
+     */
+    private final class Batch {
+        private final Set<Long> visitIds;
+        // 预约状态已加载的患者：查询按 出诊 x 患者 加载，这些患者在本批出诊上没有记录即表示从未预约
+        private final Set<String> loadedUsernames;
+        private final Map<Key, String> initial = new HashMap<>();
+        private final Map<Key, String> current = new HashMap<>();
+        private final List<Long> reserved = new ArrayList<>();
+        // 本批加入候补的患者及其信用分、本批离开候补的患者（含转正）
+        private final Map<Key, Integer> waitlistJoins = new LinkedHashMap<>();
+        private final Set<Key> waitlistLeaves = new HashSet<>();
+
+        Batch(Set<Long> visitIds, Set<String> usernames) {
+            this.visitIds = visitIds;
+            this.loadedUsernames = usernames;
+            // 一次查询加载整批涉及的预约状态，查询结果是出诊和患者的笛卡尔积，多出的记录不影响判断
+            load(usernames);
+        }
+
+        private void load(Collection<String> usernames) {
+            for (Object[] row : bookingRepository.findStatusesByVisitIdInAndPatientUsernameIn(visitIds, usernames)) {
+                Key key = new Key((Long) row[0], (String) row[1]);
+                initial.put(key, (String) row[2]);
+                current.put(key, (String) row[2]);
+            }
+        }
+
+        boolean isBooked(Key key) {
+            return Booking.BOOKED.equals(current.get(key));
+        }
+
+        /**
+         * 暂扣号源并置为有效预约，原来在候补中的患者同时离开候补
+         * @return 号源已挂完时返回false
+         */
+        boolean book(Key key) {
+            if (!slotInventoryService.hold(key.visitId)) {
+                return false;
+            }
+            reserved.add(key.visitId);
+            current.put(key, Booking.BOOKED);
+            leaveWaitlist(key);
+            return true;
+        }
+
+        boolean leaveWaitlist(Key key) {
+            if (!waitlistService.remove(key.visitId, key.patientUsername)) {
+                return false;
+            }
+            if (waitlistJoins.remove(key) == null) {
+                waitlistLeaves.add(key);
+            }
+            return true;
+        }
+
+        /**
+         * 把取消释放的号源转给候补队列的队首
+         * @return 转正的患者，没有候补时返回null
+         */
+        String promote(Long visitId) {
+            String next;
+            while ((next = waitlistService.poll(visitId)) != null) {
+                Key key = new Key(visitId, next);
+                if (waitlistJoins.remove(key) == null) {
+                    waitlistLeaves.add(key);
+                }
+                if (loadedUsernames.add(next)) {
+                    // 不在本批命令中的患者，补充加载其预约状态，用于判断插入还是更新
+                    load(Collections.singleton(next));
+                }
+                if (!isBooked(key)) {
+                    current.put(key, Booking.BOOKED);
+                    return next;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 在一个事务中写入状态有变化的预约（没有记录的插入，已有记录的更新状态）、候补的增删和出诊剩余号源的变化
+         */
+        void write() {
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            List<Object[]> inserts = new ArrayList<>();
+            List<Object[]> updates = new ArrayList<>();
+            // 出诊ID -> 有效预约数变化的相反数，即剩余号源的变化
+            Map<Long, Integer> deltas = new HashMap<>();
+            for (Map.Entry<Key, String> entry : current.entrySet()) {
+                Key key = entry.getKey();
+                String before = initial.get(key);
+                if (Objects.equals(before, entry.getValue())) {
+                    continue;
+                }
+                int delta = (Booking.BOOKED.equals(before) ? 1 : 0) - (Booking.BOOKED.equals(entry.getValue()) ? 1 : 0);
+                deltas.merge(key.visitId, delta, Integer::sum);
+                if (before == null) {
+                    inserts.add(new Object[]{key.visitId, key.patientUsername, entry.getValue(), now, now});
+                } else {
+                    updates.add(new Object[]{entry.getValue(), now, key.visitId, key.patientUsername});
+                }
+            }
+            List<Object[]> leaves = new ArrayList<>();
+            for (Key key : waitlistLeaves) {
+                leaves.add(new Object[]{key.visitId, key.patientUsername});
+            }
+            List<Object[]> joins = new ArrayList<>();
+            waitlistJoins.forEach((key, creditScore) ->
+                    joins.add(new Object[]{key.visitId, key.patientUsername, creditScore, now}));
+            // 本批挂号后又取消、状态回到原样时没有要写的内容，但暂扣的号源仍要结算
+            if (inserts.isEmpty() && updates.isEmpty() && leaves.isEmpty() && joins.isEmpty() && reserved.isEmpty()) {
+                return;
+            }
+            // 同一出诊的取消和转正相互抵消
+            deltas.values().removeIf(delta -> delta == 0);
+            List<Object[]> slotUpdates = new ArrayList<>();
+            deltas.forEach((visitId, delta) -> slotUpdates.add(new Object[]{delta, visitId}));
+            // 出诊ID -> 本批暂扣的号源数量，提交时与数据库的变化一起结算
+            Map<Long, Integer> held = new HashMap<>();
+            for (Long visitId : reserved) {
+                held.merge(visitId, 1, Integer::sum);
+            }
+            slotInventoryService.commit(deltas, held, () -> transactionTemplate.executeWithoutResult(status -> {
+                if (!slotUpdates.isEmpty()) {
+                    jdbcTemplate.batchUpdate(
+                            "UPDATE visit SET available_slots = available_slots + ?, version = version + 1 WHERE id = ?",
+                            slotUpdates);
+                }
+                if (!updates.isEmpty()) {
+                    jdbcTemplate.batchUpdate(
+                            "UPDATE booking SET status = ?, updated_at = ? WHERE visit_id = ? AND patient_username = ?", updates);
+                }
+                if (!inserts.isEmpty()) {
+                    jdbcTemplate.batchUpdate(
+                            "INSERT INTO booking (visit_id, patient_username, status, created_at, updated_at) VALUES (?, ?, ?, ?, ?)",
+                            inserts);
+                }
+                // 先删除再插入，同一批内先离开又重新加入候补的患者排到队尾
+                if (!leaves.isEmpty()) {
+                    jdbcTemplate.batchUpdate("DELETE FROM waitlist_entry WHERE visit_id = ? AND patient_username = ?", leaves);
+                }
+                if (!joins.isEmpty()) {
+                    jdbcTemplate.batchUpdate(
+                            "INSERT INTO waitlist_entry (visit_id, patient_username, credit_score, created_at) VALUES (?, ?, ?, ?)",
+                            joins);
+                }
+            }));
+        }
+    }
+
+    private static void fail(List<Command> commands, RuntimeException e) {
+        for (Command command : commands) {
+            command.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 一个信箱：命令队列和处理它的线程
+     */
+    private static final class Mailbox {
+        private final BlockingQueue<Command> queue;
+        private Thread thread;
+
+        Mailbox(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+    }
+
+    /**
+     * 一条预约命令，started 保证命令要么被执行、要么被等待超时的请求方放弃
+     */
+    private static final class Command {
+        private final Type type;
+        private final Long visitId;
+        private final String patientUsername;
+        private final int creditScore;
+        private final CompletableFuture<Outcome> future = new CompletableFuture<>();
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        Command(Type type, Long visitId, String patientUsername, int creditScore) {
+            this.type = type;
+            this.visitId = visitId;
+            this.patientUsername = patientUsername;
+            this.creditScore = creditScore;
+        }
+    }
+
+    /**
+     * 出诊ID + 患者用户名
+     */
+    private static final class Key {
+        private final Long visitId;
+        private final String patientUsername;
+
+        Key(Long visitId, String patientUsername) {
+            this.visitId = visitId;
+            this.patientUsername = patientUsername;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return visitId.equals(other.visitId) && patientUsername.equals(other.patientUsername);
+        }
+
+        @Override
+        public int hashCode() {
+            return visitId.hashCode() * 31 + patientUsername.hashCode();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.model.Visit;
+import com.example.hospital_0515.repository.BookingRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * BookingService 负责预约记录的查询和删除，支付和取消由 {@link BookingMailboxService} 批量写入。
+ */
+@Service
+public class BookingService {
+
+    @Autowired
+    private BookingRepository bookingRepository;
+
+    @Autowired
+    private DoctorRosterService doctorRosterService;
+
+    @Autowired
+    private WaitlistService waitlistService;
+
+    /**
+     * 判断患者是否已预约指定出诊
+     * @param visitId 出诊ID
+     * @param patientUsername 患者用户名
+     * @return 已预约返回true，否则返回false
+     */
+    public boolean isBooked(Long visitId, String patientUsername) {
+        return bookingRepository.existsActive(visitId, patientUsername);
+    }
+
+    /**
+     * 删除出诊的所有预约记录和候补
+     * @param visitId 出诊ID
+     */
+    public void deleteByVisit(Long visitId) {
+        bookingRepository.deleteByVisitId(visitId);
+        waitlistService.onVisitRemoved(visitId);
+        doctorRosterService.onVisitRemoved(visitId);
+    }
+
+    /**
+     * 用一次查询为出诊列表填充预约患者，仅供需要显示患者的页面使用
+     * @param visits 出诊列表
+     * @return 填充后的出诊列表
+     */
+    public List<Visit> fillBookedBy(List<Visit> visits) {
+        if (visits.isEmpty()) {
+            return visits;
+        }
+        List<Long> visitIds = visits.stream().map(Visit::getId).collect(Collectors.toList());
+        Map<Long, List<String>> patientsByVisit = new HashMap<>();
+        for (Object[] row : bookingRepository.findActivePatientsByVisitIdIn(visitIds)) {
+            patientsByVisit.computeIfAbsent((Long) row[0], id -> new ArrayList<>()).add((String) row[1]);
+        }
+        for (Visit visit : visits) {
+            visit.setBookedBy(patientsByVisit.getOrDefault(visit.getId(), new ArrayList<>()));
+        }
+        return visits;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.metrics.MetricsRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * ConflictRetryExecutor 执行 读取-修改-写入 操作，版本号冲突时按带随机抖动的指数退避重新执行，超过次数后把冲突抛给调用方。
+ * 执行器本身不开启事务：每次尝试内的保存各自提交，冲突回滚后持久化上下文被清空，下一次尝试重新读取到最新的数据。
+ * 因此操作体必须从读取开始，不能复用上一次尝试读到的实体。
+ */
+@Service
+public class ConflictRetryExecutor {
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Value("${hospital.retry.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${hospital.retry.base-delay-ms:5}")
+    private long baseDelayMs;
+
+    @Value("${hospital.retry.max-delay-ms:200}")
+    private long maxDelayMs;
+
+    /**
+     * 执行操作，冲突时重试
+     * @param operation 操作名，作为指标标签
+     * @param body 操作体
+     * @return 操作体的返回值
+     * @throws OptimisticLockingFailureException 重试次数用完仍然冲突
+     */
+    public <T> T execute(String operation, Supplier<T> body) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                T result = body.get();
+                observeAttempts(operation, attempt);
+                return result;
+            } catch (OptimisticLockingFailureException e) {
+                metricsRegistry.increment("optimistic_conflicts_total", "版本号冲突次数", 1, "operation", operation);
+                if (attempt >= maxAttempts) {
+                    observeAttempts(operation, attempt);
+                    metricsRegistry.increment("optimistic_retries_exhausted_total", "重试次数用完仍然冲突的操作数",
+                            1, "operation", operation);
+                    throw e;
+                }
+                backoff(attempt);
+            }
+        }
+    }
+
+    /**
+     * 执行没有返回值的操作，冲突时重试
+     * @param operation 操作名，作为指标标签
+     * @param body 操作体
+     * @throws OptimisticLockingFailureException 重试次数用完仍然冲突
+     */
+    public void run(String operation, Runnable body) {
+        execute(operation, () -> {
+            body.run();
+            return null;
+        });
+    }
+
+    private void observeAttempts(String operation, int attempts) {
+        metricsRegistry.observe("optimistic_attempts", "每个操作的执行次数", MetricsRegistry.COUNT_BUCKETS,
+                attempts, "operation", operation);
+    }
+
+    /**
+     * 在 [0, min(上限, 基准*2^(attempt-1))] 内随机等待，避免冲突双方同时重试再次冲突
+     */
+    private void backoff(int attempt) {
+        long ceiling = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt - 1, 20));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        try {
+            TimeUnit.MILLISECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("重试等待被中断", e);
+        }
+    }
+}
@@ -1,11 +1,5 @@
 package com.example.hospital_0515.service;
 
-import com.example.hospital_0515.model.Admin;
-import com.example.hospital_0515.model.Doctor;
-import com.example.hospital_0515.model.Patient;
-import com.example.hospital_0515.repository.AdminRepository;
-import com.example.hospital_0515.repository.DoctorRepository;
-import com.example.hospital_0515.repository.PatientRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
@@ -26,50 +20,37 @@ import java.util.List;
 public class CustomUserDetailsService implements UserDetailsService {
 
     @Autowired
-    private PatientRepository patientRepository;
-
-    @Autowired
-    private DoctorRepository doctorRepository;
-
-    @Autowired
-    private AdminRepository adminRepository;
+    private IdentityCacheService identityCacheService;
 
     /**
-     * 根据用户名加载用户信息
+     * 根据用户名加载用户信息，身份从内存索引读取，未命中时只查询一次数据库
      * @param username 用户名
      * @return UserDetails 用户详细信息
      * @throws UsernameNotFoundException 用户名未找到异常
      */
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        // 查找管理员账户
-        Admin admin = adminRepository.findByUsername(username);
-        if (admin != null && "APPROVED".equals(admin.getStatus())) {
-            if ("admin".equals(username) && admin.isFirstLogin()) {
-                // 如果是第一次登录，分配 ROLE_ADMIN_FIRST_LOGIN 权限
-                List<GrantedAuthority> authorities = getAuthorities("ROLE_ADMIN_FIRST_LOGIN");
-                return new User(admin.getUsername(), admin.getPassword(), authorities);
-            }
-            // 分配 ROLE_ADMIN 权限
-            return new User(admin.getUsername(), admin.getPassword(), getAuthorities("ROLE_ADMIN"));
+        IdentityCacheService.Identity identity = identityCacheService.find(username);
+        if (identity == null) {
+            // 用户名未找到，抛出异常
+            throw new UsernameNotFoundException("用户名或密码错误");
         }
-
-        // 查找医生账户
-        Doctor doctor = doctorRepository.findByUsername(username);
-        if (doctor != null && "APPROVED".equals(doctor.getStatus())) {
-            // 分配 ROLE_DOCTOR 权限
-            return new User(doctor.getUsername(), doctor.getPassword(), getAuthorities("ROLE_DOCTOR"));
-        }
-
-        // 查找患者账户
-        Patient patient = patientRepository.findByUsername(username);
-        if (patient != null && "APPROVED".equals(patient.getStatus())) {
-            // 分配 ROLE_PATIENT 权限
-            return new User(patient.getUsername(), patient.getPassword(), getAuthorities("ROLE_PATIENT"));
+        // 每次返回新的 User 对象，认证完成后 Spring Security 会擦除其中的密码
+        switch (identity.getRole()) {
+            case IdentityCacheService.ROLE_ADMIN:
+                if ("admin".equals(username) && identity.isFirstLogin()) {
+                    // 如果是第一次登录，分配 ROLE_ADMIN_FIRST_LOGIN 权限
+                    return new User(username, identity.getPasswordHash(), getAuthorities("ROLE_ADMIN_FIRST_LOGIN"));
+                }
+                // 分配 ROLE_ADMIN 权限
+                return new User(username, identity.getPasswordHash(), getAuthorities("ROLE_ADMIN"));
+            case IdentityCacheService.ROLE_DOCTOR:
+                // 分配 ROLE_DOCTOR 权限
+                return new User(username, identity.getPasswordHash(), getAuthorities("ROLE_DOCTOR"));
+            default:
+                // 分配 ROLE_PATIENT 权限
+                return new User(username, identity.getPasswordHash(), getAuthorities("ROLE_PATIENT"));
         }
-
-        // 用户名未找到，抛出异常
-        throw new UsernameNotFoundException("用户名或密码错误");
     }
 
     /**
@@ -0,0 +1,81 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.model.Doctor;
+import com.example.hospital_0515.repository.DoctorRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * DoctorCacheService 在内存中缓存 医生用户名 -> 所在医院，供推荐等接口按用户名补充医院信息。
+ * 启动时用一次投影查询加载，医生注册、修改和删除后由调用方更新；未命中时按用户名查询，
+ * 只缓存存在的医生，不存在的用户名不进入缓存，缓存大小不超过医生数量。
+ */
+@Service
+public class DoctorCacheService {
+
+    @Autowired
+    private DoctorRepository doctorRepository;
+
+    // 医生用户名 -> 所在医院，未填写医院时为空
+    private final ConcurrentHashMap<String, Optional<String>> hospitals = new ConcurrentHashMap<>();
+
+    /**
+     * 从数据库重新加载
+     */
+    @PostConstruct
+    public void reload() {
+        hospitals.clear();
+        for (Object[] row : doctorRepository.findAllHospitals()) {
+            if (row[0] != null) {
+                hospitals.put((String) row[0], Optional.ofNullable((String) row[1]));
+            }
+        }
+    }
+
+    /**
+     * 获取医生所在医院
+     * @param doctorUsername 医生用户名
+     * @return 医院名称，医生不存在或未填写时返回null
+     */
+    public String getHospital(String doctorUsername) {
+        if (doctorUsername == null) {
+            return null;
+        }
+        Optional<String> hospital = hospitals.get(doctorUsername);
+        if (hospital != null) {
+            return hospital.orElse(null);
+        }
+        Doctor doctor = doctorRepository.findByUsername(doctorUsername);
+        if (doctor == null) {
+            return null;
+        }
+        hospital = Optional.ofNullable(doctor.getHospital());
+        // 查询期间医生信息被修改时，以调用方写入的为准
+        hospitals.putIfAbsent(doctorUsername, hospital);
+        return hospital.orElse(null);
+    }
+
+    /**
+     * 医生注册或信息修改后调用
+     * @param doctor 医生信息
+     */
+    public void onDoctorChanged(Doctor doctor) {
+        if (doctor.getUsername() != null) {
+            hospitals.put(doctor.getUsername(), Optional.ofNullable(doctor.getHospital()));
+        }
+    }
+
+    /**
+     * 医生删除后调用
+     * @param doctorUsername 医生用户名
+     */
+    public void onDoctorRemoved(String doctorUsername) {
+        if (doctorUsername != null) {
+            hospitals.remove(doctorUsername);
+        }
+    }
+}
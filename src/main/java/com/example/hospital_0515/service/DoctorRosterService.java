@@ -0,0 +1,190 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.dto.RosterPatient;
+import com.example.hospital_0515.model.Visit;
+import com.example.hospital_0515.repository.BookingRepository;
+import com.example.hospital_0515.repository.PatientRepository;
+import com.example.hospital_0515.repository.VisitRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * DoctorRosterService 为医生提供预约过其出诊的患者名册。
+ * 每个医生的名册（患者 -> 有效预约的出诊时间）在首次访问时用一次连接查询加载，之后随预约、取消、竞拍中标和出诊删除增量更新。
+ * 患者资料（姓名、信用分等）会被随时修改，每次只为当前页的患者用一次投影查询读取，不缓存。
+ */
+@Service
+public class DoctorRosterService {
+
+    @Autowired
+    private BookingRepository bookingRepository;
+
+    @Autowired
+    private PatientRepository patientRepository;
+
+    @Autowired
+    private VisitRepository visitRepository;
+
+    // 医生用户名 -> 名册，未加载的医生在首次访问时加载
+    private final ConcurrentHashMap<String, Roster> rosters = new ConcurrentHashMap<>();
+
+    /**
+     * 按患者用户名顺序分页查询医生的患者名册
+     * @param doctorName 医生用户名
+     * @param from 出诊时间下限（含），为空时不限
+     * @param to 出诊时间上限（含），为空时不限
+     * @param afterUsername 上一页最后一个患者的用户名，第一页为空字符串
+     * @param limit 最多返回的数量
+     * @return 按用户名排序的名册项，只包含在时间范围内有有效预约的患者
+     */
+    public List<RosterPatient> getRoster(String doctorName, LocalDateTime from, LocalDateTime to, String afterUsername, int limit) {
+        Roster roster = rosters.computeIfAbsent(doctorName, this::load);
+        Map<String, RosterPatient> page = new HashMap<>();
+        List<RosterPatient> result = new ArrayList<>(limit);
+        for (Map.Entry<String, ConcurrentHashMap<Long, LocalDateTime>> entry : roster.patients.tailMap(afterUsername, false).entrySet()) {
+            RosterPatient patient = summarize(entry.getKey(), entry.getValue(), from, to);
+            if (patient == null) {
+                continue;
+            }
+            result.add(patient);
+            page.put(patient.getUsername(), patient);
+            if (result.size() >= limit) {
+                break;
+            }
+        }
+        if (page.isEmpty()) {
+            return result;
+        }
+        for (Object[] row : patientRepository.findRosterProfilesByUsernameIn(page.keySet())) {
+            RosterPatient patient = page.get((String) row[0]);
+            patient.setName((String) row[1]);
+            patient.setGender((String) row[2]);
+            patient.setAge((Integer) row[3]);
+            patient.setContact((String) row[4]);
+            patient.setCreditScore((Integer) row[5]);
+        }
+        return result;
+    }
+
+    /**
+     * 患者预约成功后调用
+     * @param visitId 出诊ID
+     * @param patientUsername 患者用户名
+     */
+    public void onBooked(Long visitId, String patientUsername) {
+        for (Object[] row : visitRepository.findDoctorNameAndVisitTimeById(visitId)) {
+            add((String) row[0], visitId, (LocalDateTime) row[1], patientUsername);
+        }
+    }
+
+    /**
+     * 竞拍中标写入预约后调用，出诊信息已知，不需要再查询
+     * @param visit 出诊信息
+     * @param patientUsername 患者用户名
+     */
+    public void onBooked(Visit visit, String patientUsername) {
+        add(visit.getDoctorName(), visit.getId(), visit.getVisitTime(), patientUsername);
+    }
+
+    /**
+     * 患者取消预约后调用
+     * @param visitId 出诊ID
+     * @param patientUsername 患者用户名
+     */
+    public void onCancelled(Long visitId, String patientUsername) {
+        for (Roster roster : rosters.values()) {
+            roster.remove(patientUsername, visitId);
+        }
+    }
+
+    /**
+     * 出诊及其预约删除后调用
+     * @param visitId 出诊ID
+     */
+    public void onVisitRemoved(Long visitId) {
+        for (Roster roster : rosters.values()) {
+            roster.removeVisit(visitId);
+        }
+    }
+
+    private void add(String doctorName, Long visitId, LocalDateTime visitTime, String patientUsername) {
+        if (doctorName == null) {
+            return;
+        }
+        // computeIfPresent 与正在进行的加载互斥，加载查询已包含的预约重复加入不影响结果
+        rosters.computeIfPresent(doctorName, (name, roster) -> {
+            roster.add(patientUsername, visitId, visitTime);
+            return roster;
+        });
+    }
+
+    private Roster load(String doctorName) {
+        Roster roster = new Roster();
+        for (Object[] row : bookingRepository.findActiveRosterByDoctorName(doctorName)) {
+            roster.add((String) row[0], (Long) row[1], (LocalDateTime) row[2]);
+        }
+        return roster;
+    }
+
+    /**
+     * 统计患者在时间范围内的有效预约，范围内没有预约时返回null
+     */
+    private static RosterPatient summarize(String username, Map<Long, LocalDateTime> visits,
+                                           LocalDateTime from, LocalDateTime to) {
+        int bookings = 0;
+        LocalDateTime first = null;
+        LocalDateTime last = null;
+        for (LocalDateTime visitTime : visits.values()) {
+            if ((from != null && visitTime.isBefore(from)) || (to != null && visitTime.isAfter(to))) {
+                continue;
+            }
+            bookings++;
+            first = first == null || visitTime.isBefore(first) ? visitTime : first;
+            last = last == null || visitTime.isAfter(last) ? visitTime : last;
+        }
+        if (bookings == 0) {
+            return null;
+        }
+        RosterPatient patient = new RosterPatient();
+        patient.setUsername(username);
+        patient.setBookings(bookings);
+        patient.setFirstVisitTime(first);
+        patient.setLastVisitTime(last);
+        return patient;
+    }
+
+    /**
+     * 一个医生的名册：患者用户名（有序） -> 出诊ID -> 出诊时间。修改互斥，读取不加锁
+     */
+    private static class Roster {
+        private final ConcurrentSkipListMap<String, ConcurrentHashMap<Long, LocalDateTime>> patients = new ConcurrentSkipListMap<>();
+
+        synchronized void add(String patientUsername, Long visitId, LocalDateTime visitTime) {
+            if (visitTime == null) {
+                return;
+            }
+            patients.computeIfAbsent(patientUsername, username -> new ConcurrentHashMap<>()).put(visitId, visitTime);
+        }
+
+        synchronized void remove(String patientUsername, Long visitId) {
+            Map<Long, LocalDateTime> visits = patients.get(patientUsername);
+            if (visits != null && visits.remove(visitId) != null && visits.isEmpty()) {
+                patients.remove(patientUsername);
+            }
+        }
+
+        synchronized void removeVisit(Long visitId) {
+            for (String patientUsername : patients.keySet()) {
+                remove(patientUsername, visitId);
+            }
+        }
+    }
+}
@@ -20,6 +20,12 @@ public class DoctorService {
     @Autowired
     private PasswordEncoder passwordEncoder;
 
+    @Autowired
+    private DoctorCacheService doctorCacheService;
+
+    @Autowired
+    private IdentityCacheService identityCacheService;
+
     public void generateRandomDoctors(int count) {
         List<Doctor> doctors = new ArrayList<>();
         for (int i = 0; i < count; i++) {
@@ -40,5 +46,8 @@ public class DoctorService {
             doctors.add(doctor);
         }
         doctorRepository.saveAll(doctors);
+        doctors.forEach(doctorCacheService::onDoctorChanged);
+        // 此前查询过的用户名可能缓存为不存在，保存后失效才能立即登录
+        doctors.forEach(doctor -> identityCacheService.invalidate(doctor.getUsername()));
     }
 }
@@ -0,0 +1,306 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.metrics.MetricsRegistry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * IdempotencyService 按 用户名 + Idempotency-Key 记录支付、取消和竞价请求的处理结果。
+ * 同一个键再次提交时直接返回第一次的响应（带 Idempotent-Replayed 响应头），不再执行业务逻辑；
+ * 第一次请求尚在处理时，重复请求等待其结果。
+ * 结果保存在有容量上限、超过有效期淘汰的内存表中，开启持久化后同时写入 idempotency_record 表，重启后仍能识别重放。
+ * 5xx 响应（如信箱繁忙）和异常不记录，客户端可以用同一个键重试。
+ * 开启持久化后读取记录失败时无法确认请求是否已处理过，返回 503 而不执行，避免重复支付。
+ */
+@Service
+public class IdempotencyService {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyService.class);
+
+    public static final String HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private static final int MAX_KEY_LENGTH = 128;
+
+    private static final String FIND_SQL =
+            "SELECT fingerprint, status, body, json_body, expires_at FROM idempotency_record WHERE username = ? AND idempotency_key = ?";
+    private static final String SAVE_SQL =
+            "MERGE INTO idempotency_record (username, idempotency_key, fingerprint, status, body, json_body, expires_at) " +
+            "KEY (username, idempotency_key) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String PURGE_SQL = "DELETE FROM idempotency_record WHERE expires_at < ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    // 结果有效期（秒），超过后同一个键视为新请求
+    @Value("${hospital.idempotency.ttl-seconds:86400}")
+    private long ttlSeconds;
+
+    // 内存中最多保存的结果数
+    @Value("${hospital.idempotency.max-size:100000}")
+    private int maxSize;
+
+    // 重复请求等待第一次请求结果的超时（毫秒）
+    @Value("${hospital.idempotency.wait-ms:10000}")
+    private long waitMs;
+
+    // 是否同时写入数据库
+    @Value("${hospital.idempotency.persist:false}")
+    private boolean persist;
+
+    // 用户名 + 键 -> 处理结果，处理中的请求结果尚未完成
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void registerMetrics() {
+        metricsRegistry.gauge("idempotency_entries", "内存中保存的幂等结果数", entries::size);
+    }
+
+    /**
+     * 按幂等键执行请求
+     * @param key 请求头中的 Idempotency-Key，为空时直接执行
+     * @param username 当前用户名，不同用户的键互不影响
+     * @param fingerprint 请求的操作和参数，同一个键用于不同请求时返回 422
+     * @param request 业务处理
+     * @return 第一次执行的响应，或重放的响应
+     */
+    public ResponseEntity<?> execute(String key, String username, String fingerprint, Supplier<ResponseEntity<?>> request) {
+        if (key == null || key.isBlank()) {
+            return request.get();
+        }
+        if (key.length() > MAX_KEY_LENGTH) {
+            return ResponseEntity.badRequest().body(HEADER + " 长度不能超过" + MAX_KEY_LENGTH);
+        }
+        String id = username + "\n" + key;
+        while (true) {
+            Entry entry = new Entry(fingerprint, System.nanoTime() + TimeUnit.SECONDS.toNanos(ttlSeconds));
+            Entry existing = entries.putIfAbsent(id, entry);
+            if (existing == null) {
+                return executeFirst(id, username, key, entry, request);
+            }
+            if (existing.isExpired()) {
+                entries.remove(id, existing);
+                continue;
+            }
+            if (!existing.fingerprint.equals(fingerprint)) {
+                metricsRegistry.increment("idempotency_mismatches_total", "幂等键用于不同请求的次数", 1);
+                return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(HEADER + " 已用于其他请求");
+            }
+            Stored stored;
+            try {
+                stored = existing.result.get(waitMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body("相同请求正在处理中，请稍后重试");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("请求被中断");
+            } catch (ExecutionException e) {
+                // 第一次请求失败，未记录结果，重新竞争执行
+                continue;
+            }
+            if (stored == null) {
+                continue;
+            }
+            metricsRegistry.increment("idempotency_replays_total", "重放已记录结果的次数", 1);
+            return stored.toResponse();
+        }
+    }
+
+    /**
+     * 定期清理过期的结果
+     */
+    @Scheduled(fixedDelayString = "${hospital.idempotency.purge-interval-ms:60000}")
+    public void purgeExpired() {
+        metricsRegistry.timeJob("idempotencyPurge", () -> {
+            int before = entries.size();
+            entries.values().removeIf(entry -> entry.result.isDone() && entry.isExpired());
+            int purged = Math.max(0, before - entries.size());
+            if (persist) {
+                purged += jdbcTemplate.update(PURGE_SQL, new Timestamp(System.currentTimeMillis()));
+            }
+            return purged;
+        });
+    }
+
+    private ResponseEntity<?> executeFirst(String id, String username, String key, Entry entry, Supplier<ResponseEntity<?>> request) {
+        Entry loaded;
+        try {
+            loaded = persist ? load(username, key) : null;
+        } catch (DataAccessException e) {
+            log.error("Failed to load idempotency record", e);
+            entries.remove(id, entry);
+            entry.result.complete(null);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("暂时无法确认请求是否已处理，请稍后重试");
+        }
+        if (loaded != null) {
+            // 换成数据库中的结果，等待中的重复请求重新读取并比较指纹
+            entries.replace(id, entry, loaded);
+            entry.result.complete(null);
+            if (!loaded.fingerprint.equals(entry.fingerprint)) {
+                metricsRegistry.increment("idempotency_mismatches_total", "幂等键用于不同请求的次数", 1);
+                return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(HEADER + " 已用于其他请求");
+            }
+            metricsRegistry.increment("idempotency_replays_total", "重放已记录结果的次数", 1);
+            return loaded.result.join().toResponse();
+        }
+        metricsRegistry.increment("idempotency_misses_total", "首次执行的幂等请求数", 1);
+        ResponseEntity<?> response;
+        try {
+            response = request.get();
+        } catch (RuntimeException e) {
+            entries.remove(id, entry);
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+        Stored stored = response.getStatusCodeValue() < 500 ? Stored.of(response, objectMapper) : null;
+        if (stored == null) {
+            entries.remove(id, entry);
+            entry.result.complete(null);
+            return response;
+        }
+        entry.result.complete(stored);
+        if (persist) {
+            save(username, key, entry.fingerprint, stored);
+        }
+        if (entries.size() > maxSize) {
+            evict();
+        }
+        return response;
+    }
+
+    /**
+     * 从数据库读取未过期的结果
+     * @return 已完成的条目，没有记录或已过期时返回null
+     * @throws DataAccessException 读取失败
+     */
+    private Entry load(String username, String key) {
+        List<Entry> rows = jdbcTemplate.query(FIND_SQL, (rs, rowNum) -> {
+            long remainingMillis = rs.getTimestamp(5).getTime() - System.currentTimeMillis();
+            if (remainingMillis <= 0) {
+                return null;
+            }
+            Entry entry = new Entry(rs.getString(1), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(remainingMillis));
+            entry.result.complete(new Stored(rs.getInt(2), rs.getString(3), rs.getBoolean(4)));
+            return entry;
+        }, username, key);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    private void save(String username, String key, String fingerprint, Stored stored) {
+        try {
+            jdbcTemplate.update(SAVE_SQL, username, key, fingerprint, stored.status, stored.body, stored.json,
+                    new Timestamp(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds)));
+        } catch (DataAccessException e) {
+            // 持久化失败不影响本次响应，内存中的结果仍然有效
+            log.warn("Failed to save idempotency record", e);
+        }
+    }
+
+    /**
+     * 先淘汰过期条目，仍超过容量时按过期时间淘汰最早的十分之一，处理中的条目不淘汰
+     */
+    private synchronized void evict() {
+        if (entries.size() <= maxSize) {
+            return;
+        }
+        int before = entries.size();
+        entries.values().removeIf(entry -> entry.result.isDone() && entry.isExpired());
+        if (entries.size() > maxSize) {
+            List<Map.Entry<String, Entry>> done = new ArrayList<>();
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (entry.getValue().result.isDone()) {
+                    done.add(entry);
+                }
+            }
+            done.sort(Comparator.comparingLong(entry -> entry.getValue().expiresAt));
+            int toRemove = entries.size() - maxSize + Math.max(1, maxSize / 10);
+            for (int i = 0; i < toRemove && i < done.size(); i++) {
+                entries.remove(done.get(i).getKey(), done.get(i).getValue());
+            }
+        }
+        metricsRegistry.increment("idempotency_evictions_total", "因容量淘汰的幂等结果数", Math.max(0, before - entries.size()));
+    }
+
+    /**
+     * 一个幂等键的处理状态
+     */
+    private static final class Entry {
+        private final String fingerprint;
+        private final long expiresAt;
+        private final CompletableFuture<Stored> result = new CompletableFuture<>();
+
+        Entry(String fingerprint, long expiresAt) {
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.nanoTime() - expiresAt > 0;
+        }
+    }
+
+    /**
+     * 记录下来的响应：状态码和响应体，非字符串的响应体按 JSON 保存
+     */
+    private static final class Stored {
+        private final int status;
+        private final String body;
+        private final boolean json;
+
+        Stored(int status, String body, boolean json) {
+            this.status = status;
+            this.body = body;
+            this.json = json;
+        }
+
+        static Stored of(ResponseEntity<?> response, ObjectMapper objectMapper) {
+            Object body = response.getBody();
+            if (body == null || body instanceof String) {
+                return new Stored(response.getStatusCodeValue(), (String) body, false);
+            }
+            try {
+                return new Stored(response.getStatusCodeValue(), objectMapper.writeValueAsString(body), true);
+            } catch (JsonProcessingException e) {
+                return null;
+            }
+        }
+
+        ResponseEntity<?> toResponse() {
+            ResponseEntity.BodyBuilder builder = ResponseEntity.status(status).header(REPLAYED_HEADER, "true");
+            if (json) {
+                builder.contentType(MediaType.APPLICATION_JSON);
+            }
+            return body == null ? builder.build() : builder.body(body);
+        }
+    }
+}
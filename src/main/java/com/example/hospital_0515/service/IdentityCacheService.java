@@ -0,0 +1,190 @@
+package com.example.hospital_0515.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IdentityCacheService 在内存中维护 用户名 -> 身份（角色、ID、状态、密码哈希）的统一索引。
+ * 未命中时用一条 UNION 查询同时查管理员、医生、患者三张表，按 管理员、医生、患者 的优先级取第一个已审批的账户，
+ * 不存在的用户名同样缓存，避免重复查询。
+ * 条目超过有效期或缓存超过容量时淘汰，审批、删除、修改密码和注册后由调用方主动失效。
+ */
+@Service
+public class IdentityCacheService {
+
+    public static final String ROLE_ADMIN = "ADMIN";
+    public static final String ROLE_DOCTOR = "DOCTOR";
+    public static final String ROLE_PATIENT = "PATIENT";
+
+    private static final String LOOKUP_SQL =
+            "SELECT 'ADMIN' AS role, id, status, password, first_login FROM admin WHERE username = ? " +
+            "UNION ALL SELECT 'DOCTOR', id, status, password, FALSE FROM doctor WHERE username = ? " +
+            "UNION ALL SELECT 'PATIENT', id, status, password, FALSE FROM patient WHERE username = ?";
+
+    private static final List<String> PRECEDENCE = List.of(ROLE_ADMIN, ROLE_DOCTOR, ROLE_PATIENT);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // 条目有效期（秒）
+    @Value("${hospital.identity-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    // 最多缓存的用户名数量
+    @Value("${hospital.identity-cache.max-size:10000}")
+    private int maxSize;
+
+    private final ConcurrentHashMap<String, Identity> identities = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // 每次失效加一，加载期间发生过失效时不写入缓存，避免旧数据覆盖失效
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * 获取用户名对应的已审批身份
+     * @param username 用户名
+     * @return 已审批的身份，用户不存在或未审批时返回null
+     */
+    public Identity find(String username) {
+        Identity identity = identities.get(username);
+        if (identity != null && !identity.isExpired(ttlSeconds)) {
+            hits.incrementAndGet();
+            return identity.isPresent() ? identity : null;
+        }
+        misses.incrementAndGet();
+        long seen = invalidations.get();
+        identity = load(username);
+        if (invalidations.get() == seen) {
+            identities.put(username, identity);
+            if (identities.size() > maxSize) {
+                evict();
+            }
+        }
+        return identity.isPresent() ? identity : null;
+    }
+
+    /**
+     * 用户审批、删除、修改密码或注册后调用
+     * @param username 用户名
+     */
+    public void invalidate(String username) {
+        if (username != null) {
+            invalidations.incrementAndGet();
+            identities.remove(username);
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public int getSize() {
+        return identities.size();
+    }
+
+    /**
+     * 命中率，尚无访问时返回0
+     */
+    public double getHitRatio() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0.0 : (double) hits.get() / total;
+    }
+
+    private Identity load(String username) {
+        List<Identity> rows = jdbcTemplate.query(LOOKUP_SQL,
+                (rs, rowNum) -> new Identity(username, rs.getString(1), rs.getLong(2), rs.getString(3),
+                        rs.getString(4), rs.getBoolean(5)),
+                username, username, username);
+        return rows.stream()
+                .filter(row -> "APPROVED".equals(row.getStatus()))
+                .min(Comparator.comparingInt(row -> PRECEDENCE.indexOf(row.getRole())))
+                .orElseGet(() -> Identity.absent(username));
+    }
+
+    /**
+     * 先淘汰过期条目，仍超过容量时按加载时间淘汰最早的十分之一
+     */
+    private synchronized void evict() {
+        if (identities.size() <= maxSize) {
+            return;
+        }
+        int before = identities.size();
+        identities.values().removeIf(identity -> identity.isExpired(ttlSeconds));
+        if (identities.size() > maxSize) {
+            List<Map.Entry<String, Identity>> entries = new ArrayList<>(identities.entrySet());
+            entries.sort(Comparator.comparingLong(entry -> entry.getValue().loadedAt));
+            int toRemove = identities.size() - maxSize + Math.max(1, maxSize / 10);
+            for (int i = 0; i < toRemove && i < entries.size(); i++) {
+                identities.remove(entries.get(i).getKey(), entries.get(i).getValue());
+            }
+        }
+        evictions.addAndGet(before - identities.size());
+    }
+
+    /**
+     * 缓存中的一条身份记录
+     */
+    public static class Identity {
+        private final String username;
+        private final String role;
+        private final Long id;
+        private final String status;
+        private final String passwordHash;
+        private final boolean firstLogin;
+        private final long loadedAt = System.nanoTime();
+
+        Identity(String username, String role, Long id, String status, String passwordHash, boolean firstLogin) {
+            this.username = username;
+            this.role = role;
+            this.id = id;
+            this.status = status;
+            this.passwordHash = passwordHash;
+            this.firstLogin = firstLogin;
+        }
+
+        static Identity absent(String username) {
+            return new Identity(username, null, null, null, null, false);
+        }
+
+        boolean isPresent() {
+            return role != null;
+        }
+
+        boolean isExpired(long ttlSeconds) {
+            return System.nanoTime() - loadedAt > TimeUnit.SECONDS.toNanos(ttlSeconds);
+        }
+
+        public String getUsername() { return username; }
+
+        public String getRole() { return role; }
+
+        public Long getId() { return id; }
+
+        public String getStatus() { return status; }
+
+        public String getPasswordHash() { return passwordHash; }
+
+        public boolean isFirstLogin() { return firstLogin; }
+    }
+}
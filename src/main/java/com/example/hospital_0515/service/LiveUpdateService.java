@@ -0,0 +1,317 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.dto.TopBid;
+import com.example.hospital_0515.dto.TopBidsUpdate;
+import com.example.hospital_0515.metrics.MetricsRegistry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * LiveUpdateService 通过 Server-Sent Events 向患者和医生页面推送号源和竞价榜的变化，代替页面轮询。
+ * 客户端按主题订阅：{@value #SLOTS_TOPIC} 为所有出诊的剩余号源，{@value #BIDS_TOPIC_PREFIX}出诊ID 为该竞拍出诊的前5名竞价。
+ * 支付、取消和出价只记录变化的出诊ID，定时任务每个周期为每个主题读取一次最新值、序列化一次，再分批并行发送给订阅者，
+ * 同一出诊在一个周期内的多次变化合并为一次推送。
+ * 发送在线程池中异步进行，不占用定时任务线程；上一轮尚未发送完时本周期跳过，变化留到下一周期合并推送。
+ */
+@Service
+public class LiveUpdateService {
+
+    private static final Logger log = LoggerFactory.getLogger(LiveUpdateService.class);
+
+    public static final String SLOTS_TOPIC = "slots";
+    public static final String BIDS_TOPIC_PREFIX = "bids:";
+
+    private static final Pattern TOPIC = Pattern.compile("slots|bids:\\d{1,18}");
+    // 每个发送任务负责的订阅者数量
+    private static final int FANOUT_BATCH = 500;
+
+    @Autowired
+    private SlotInventoryService slotInventoryService;
+
+    @Autowired
+    private BidRankingService bidRankingService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    private AsyncTaskExecutor fanoutExecutor;
+
+    @Value("${hospital.live.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    @Value("${hospital.live.max-subscribers:50000}")
+    private int maxSubscribers;
+
+    @Value("${hospital.live.max-topics:200}")
+    private int maxTopics;
+
+    // 主题 -> 订阅者
+    private final ConcurrentHashMap<String, Set<Subscriber>> topics = new ConcurrentHashMap<>();
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    // 本周期内号源或竞价榜发生变化、尚未推送的出诊ID
+    private final Set<Long> changedSlots = ConcurrentHashMap.newKeySet();
+    private final Set<Long> changedBids = ConcurrentHashMap.newKeySet();
+
+    // 正在进行的一轮发送，完成前不开始下一轮，保证同一订阅者的事件按周期顺序到达
+    private CompletableFuture<Void> delivering = CompletableFuture.completedFuture(null);
+
+    @PostConstruct
+    public void registerMetrics() {
+        metricsRegistry.gauge("live_subscribers", "推送通道的连接数", subscribers::size);
+        metricsRegistry.gauge("live_topics", "有订阅者的推送主题数", topics::size);
+    }
+
+    /**
+     * 订阅主题
+     * @param topicNames 主题列表
+     * @return 保持连接的事件流
+     * @throws IllegalArgumentException 主题为空、格式不正确或数量超过上限
+     * @throws IllegalStateException 连接数已达上限
+     */
+    public SseEmitter subscribe(Collection<String> topicNames) {
+        Set<String> names = new LinkedHashSet<>();
+        for (String name : topicNames) {
+            String topic = name.trim();
+            if (!TOPIC.matcher(topic).matches()) {
+                throw new IllegalArgumentException("无效的主题: " + topic);
+            }
+            names.add(topic);
+        }
+        if (names.isEmpty() || names.size() > maxTopics) {
+            throw new IllegalArgumentException("主题数量必须在1到" + maxTopics + "之间");
+        }
+        if (subscribers.size() >= maxSubscribers) {
+            throw new IllegalStateException("推送连接数已达上限");
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Subscriber subscriber = new Subscriber(emitter, names);
+        emitter.onCompletion(() -> unsubscribe(subscriber));
+        emitter.onTimeout(() -> unsubscribe(subscriber));
+        emitter.onError(error -> unsubscribe(subscriber));
+        subscribers.add(subscriber);
+        for (String topic : names) {
+            // 在 compute 内加入，与 unsubscribe 删除空主题互斥
+            topics.compute(topic, (key, audience) -> {
+                Set<Subscriber> result = audience == null ? ConcurrentHashMap.newKeySet() : audience;
+                result.add(subscriber);
+                return result;
+            });
+        }
+        return emitter;
+    }
+
+    /**
+     * 出诊剩余号源变化后调用（支付、取消）
+     * @param visitId 出诊ID
+     */
+    public void onSlotsChanged(Long visitId) {
+        if (topics.containsKey(SLOTS_TOPIC)) {
+            changedSlots.add(visitId);
+        }
+    }
+
+    /**
+     * 竞拍出诊的竞价榜变化后调用
+     * @param visitId 出诊ID
+     */
+    public void onBidsChanged(Long visitId) {
+        if (topics.containsKey(BIDS_TOPIC_PREFIX + visitId)) {
+            changedBids.add(visitId);
+        }
+    }
+
+    /**
+     * 推送本周期内的变化
+     */
+    @Scheduled(fixedDelayString = "${hospital.live.interval-ms:250}")
+    public void publish() {
+        if ((changedSlots.isEmpty() && changedBids.isEmpty()) || isDelivering()) {
+            return;
+        }
+        metricsRegistry.timeJob("livePublish", this::publishChanges);
+    }
+
+    /**
+     * 发送心跳注释，保持空闲连接并及时发现已断开的客户端
+     */
+    @Scheduled(fixedDelayString = "${hospital.live.heartbeat-ms:15000}")
+    public void heartbeat() {
+        if (isDelivering()) {
+            // 正在发送的事件同样能发现已断开的连接
+            return;
+        }
+        List<Event> ping = Collections.singletonList(Event.PING);
+        Map<Subscriber, List<Event>> deliveries = new IdentityHashMap<>();
+        for (Subscriber subscriber : subscribers) {
+            deliveries.put(subscriber, ping);
+        }
+        deliver(deliveries);
+    }
+
+    private int publishChanges() {
+        Map<Subscriber, List<Event>> deliveries = new IdentityHashMap<>();
+        int events = 0;
+
+        Map<Long, Integer> slots = new TreeMap<>();
+        for (Long visitId : changedSlots) {
+            // 先移除再读取，读取之后的变化会重新记录并在下一周期推送
+            changedSlots.remove(visitId);
+            try {
+                slots.put(visitId, slotInventoryService.available(visitId));
+            } catch (NoSuchElementException e) {
+                slots.put(visitId, 0);  // 出诊已删除
+            }
+        }
+        if (!slots.isEmpty() && addEvent(deliveries, SLOTS_TOPIC, "slots", slots)) {
+            events++;
+        }
+
+        for (Long visitId : changedBids) {
+            changedBids.remove(visitId);
+            List<TopBid> bids = bidRankingService.getTopBids(visitId, 5).stream()
+                    .map(TopBid::of)
+                    .collect(Collectors.toList());
+            if (addEvent(deliveries, BIDS_TOPIC_PREFIX + visitId, "bids", new TopBidsUpdate(visitId, bids))) {
+                events++;
+            }
+        }
+
+        deliver(deliveries);
+        metricsRegistry.increment("live_events_total", "推送的事件数（按主题计）", events);
+        return deliveries.size();
+    }
+
+    /**
+     * 把一个主题的事件加入各订阅者的待发送列表，事件内容只序列化一次
+     * @return 主题有订阅者时返回true
+     */
+    private boolean addEvent(Map<Subscriber, List<Event>> deliveries, String topic, String name, Object payload) {
+        Set<Subscriber> audience = topics.get(topic);
+        if (audience == null || audience.isEmpty()) {
+            return false;
+        }
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+        Event event = new Event(name, json);
+        for (Subscriber subscriber : audience) {
+            deliveries.computeIfAbsent(subscriber, key -> new ArrayList<>(2)).add(event);
+        }
+        return true;
+    }
+
+    private synchronized boolean isDelivering() {
+        return !delivering.isDone();
+    }
+
+    /**
+     * 订阅者分成每批 {@value #FANOUT_BATCH} 个并行发送，不等待发送完成即返回
+     */
+    private synchronized void deliver(Map<Subscriber, List<Event>> deliveries) {
+        List<Map.Entry<Subscriber, List<Event>>> entries = new ArrayList<>(deliveries.entrySet());
+        List<CompletableFuture<Void>> batches = new ArrayList<>();
+        for (int from = 0; from < entries.size(); from += FANOUT_BATCH) {
+            List<Map.Entry<Subscriber, List<Event>>> batch =
+                    entries.subList(from, Math.min(from + FANOUT_BATCH, entries.size()));
+            batches.add(CompletableFuture.runAsync(
+                    () -> batch.forEach(entry -> send(entry.getKey(), entry.getValue())), fanoutExecutor));
+        }
+        delivering = CompletableFuture.allOf(batches.toArray(new CompletableFuture[0]))
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        log.warn("Live update delivery failed", error);
+                    }
+                });
+    }
+
+    private void send(Subscriber subscriber, List<Event> events) {
+        try {
+            for (Event event : events) {
+                // SseEventBuilder 在 build 时会修改自身，不能在订阅者之间共享，每次发送用已序列化的内容重新构造
+                subscriber.emitter.send(event.name == null
+                        ? SseEmitter.event().comment("ping")
+                        : SseEmitter.event().name(event.name).data(event.json, MediaType.APPLICATION_JSON));
+            }
+        } catch (IOException | IllegalStateException e) {
+            // 客户端已断开或连接已结束
+            unsubscribe(subscriber);
+            subscriber.emitter.complete();
+        }
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        if (!subscribers.remove(subscriber)) {
+            return;
+        }
+        for (String topic : subscriber.topics) {
+            topics.computeIfPresent(topic, (key, audience) -> {
+                audience.remove(subscriber);
+                return audience.isEmpty() ? null : audience;
+            });
+        }
+    }
+
+    /**
+     * 已序列化的事件，name 为 null 时表示心跳
+     */
+    private static final class Event {
+        private static final Event PING = new Event(null, null);
+
+        private final String name;
+        private final String json;
+
+        Event(String name, String json) {
+            this.name = name;
+            this.json = json;
+        }
+    }
+
+    /**
+     * 一个推送连接及其订阅的主题
+     */
+    private static final class Subscriber {
+        private final SseEmitter emitter;
+        private final Set<String> topics;
+
+        Subscriber(SseEmitter emitter, Set<String> topics) {
+            this.emitter = emitter;
+            this.topics = topics;
+        }
+    }
+}
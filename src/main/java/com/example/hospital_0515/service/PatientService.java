@@ -20,6 +20,9 @@ public class PatientService {
     @Autowired
     private PasswordEncoder passwordEncoder;
 
+    @Autowired
+    private IdentityCacheService identityCacheService;
+
     public void generateRandomPatients (int count) {
         List<Patient> patients = new ArrayList<>();
         for (int i = 0; i < count; i++) {
@@ -38,5 +41,7 @@ public class PatientService {
             patients.add(patient);
         }
         patientRepository.saveAll(patients);
+        // 此前查询过的用户名可能缓存为不存在，保存后失效才能立即登录
+        patients.forEach(patient -> identityCacheService.invalidate(patient.getUsername()));
     }
 }
\ No newline at end of file
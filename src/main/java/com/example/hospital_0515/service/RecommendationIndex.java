@@ -0,0 +1,239 @@
+package com.example.hospital_0515.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.LongPredicate;
+
+/**
+ * RecommendationIndex 是推荐服务使用的内存索引，不依赖 Spring，便于单独测试和压测。
+ * 开放的未来普通出诊按 (出诊时间, ID) 排序保存在跳表中，并按科室、医生各建一份同序的分桶，
+ * 推荐时只从 当前时间 之后的位置向后读取所需数量，不扫描全部出诊。
+ * 患者偏好 {@link Affinity} 记录患者预约过的科室、医生及出诊ID，随预约和取消增量更新。
+ */
+public class RecommendationIndex {
+
+    private static final Comparator<OpenVisit> ORDER = Comparator
+            .comparing((OpenVisit v) -> v.visitTime)
+            .thenComparingLong(v -> v.id);
+
+    private final ConcurrentHashMap<Long, OpenVisit> byId = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<OpenVisit> all = new ConcurrentSkipListSet<>(ORDER);
+    private final ConcurrentHashMap<String, ConcurrentSkipListSet<OpenVisit>> byDepartment = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConcurrentSkipListSet<OpenVisit>> byDoctor = new ConcurrentHashMap<>();
+
+    /**
+     * 加入或替换一个开放出诊
+     */
+    public void add(OpenVisit visit) {
+        if (visit.visitTime == null) {
+            return;
+        }
+        remove(visit.id);
+        byId.put(visit.id, visit);
+        all.add(visit);
+        if (visit.department != null) {
+            byDepartment.computeIfAbsent(visit.department, key -> new ConcurrentSkipListSet<>(ORDER)).add(visit);
+        }
+        if (visit.doctorName != null) {
+            byDoctor.computeIfAbsent(visit.doctorName, key -> new ConcurrentSkipListSet<>(ORDER)).add(visit);
+        }
+    }
+
+    /**
+     * 移除一个出诊，不存在时忽略
+     */
+    public void remove(long id) {
+        OpenVisit visit = byId.remove(id);
+        if (visit == null) {
+            return;
+        }
+        all.remove(visit);
+        removeFrom(byDepartment, visit.department, visit);
+        removeFrom(byDoctor, visit.doctorName, visit);
+    }
+
+    /**
+     * 按ID获取开放出诊
+     * @return 出诊，不在索引中时返回null
+     */
+    public OpenVisit get(long id) {
+        return byId.get(id);
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    /**
+     * 移除出诊时间不晚于指定时间的出诊
+     * @return 移除的数量
+     */
+    public int purgeBefore(LocalDateTime time) {
+        int purged = 0;
+        Iterator<OpenVisit> iterator = all.headSet(after(time)).iterator();
+        while (iterator.hasNext()) {
+            remove(iterator.next().id);
+            purged++;
+        }
+        return purged;
+    }
+
+    /**
+     * 为患者推荐出诊：先推荐同科室的出诊，再推荐预约过的医生的出诊，最后按时间推荐其他出诊，
+     * 每一类内按出诊时间排序，已预约和不可预约的出诊跳过
+     * @param affinity 患者偏好
+     * @param now 当前时间，只推荐此后的出诊
+     * @param limit 推荐数量
+     * @param isOpen 判断出诊是否仍有号源
+     * @return 推荐的出诊，最多 limit 条
+     */
+    public List<OpenVisit> recommend(Affinity affinity, LocalDateTime now, int limit, LongPredicate isOpen) {
+        Set<Long> booked;
+        Set<String> departments;
+        Set<String> doctors;
+        synchronized (affinity) {
+            booked = new HashSet<>(affinity.visitIds);
+            departments = new HashSet<>(affinity.departments.keySet());
+            doctors = new HashSet<>(affinity.doctors.keySet());
+        }
+        OpenVisit from = after(now);
+        LinkedHashSet<OpenVisit> result = new LinkedHashSet<>();
+        collect(byDepartment, departments, from, limit, booked, isOpen, result);
+        collect(byDoctor, doctors, from, limit, booked, isOpen, result);
+        take(all.tailSet(from, false), limit, booked, isOpen, result);
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * 从多个分桶中各取最早的若干条，合并后按时间取前 limit 条
+     */
+    private void collect(Map<String, ConcurrentSkipListSet<OpenVisit>> buckets, Set<String> keys, OpenVisit from,
+                         int limit, Set<Long> booked, LongPredicate isOpen, LinkedHashSet<OpenVisit> result) {
+        if (result.size() >= limit || keys.isEmpty()) {
+            return;
+        }
+        List<OpenVisit> candidates = new ArrayList<>();
+        for (String key : keys) {
+            ConcurrentSkipListSet<OpenVisit> bucket = buckets.get(key);
+            if (bucket != null) {
+                LinkedHashSet<OpenVisit> head = new LinkedHashSet<>();
+                take(bucket.tailSet(from, false), limit, booked, isOpen, head);
+                candidates.addAll(head);
+            }
+        }
+        candidates.sort(ORDER);
+        for (OpenVisit candidate : candidates) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(candidate);
+        }
+    }
+
+    private void take(NavigableSet<OpenVisit> visits, int limit, Set<Long> booked, LongPredicate isOpen,
+                      LinkedHashSet<OpenVisit> result) {
+        for (OpenVisit visit : visits) {
+            if (result.size() >= limit) {
+                return;
+            }
+            if (!booked.contains(visit.id) && !result.contains(visit) && isOpen.test(visit.id)) {
+                result.add(visit);
+            }
+        }
+    }
+
+    private static void removeFrom(Map<String, ConcurrentSkipListSet<OpenVisit>> buckets, String key, OpenVisit visit) {
+        if (key == null) {
+            return;
+        }
+        ConcurrentSkipListSet<OpenVisit> bucket = buckets.get(key);
+        if (bucket != null) {
+            bucket.remove(visit);
+        }
+    }
+
+    /**
+     * 排在指定时间所有出诊之后的哨兵，用于从该时间之后开始读取
+     */
+    private static OpenVisit after(LocalDateTime time) {
+        return new OpenVisit(Long.MAX_VALUE, time, null, null);
+    }
+
+    /**
+     * 索引中的一个开放出诊
+     */
+    public static final class OpenVisit {
+        private final long id;
+        private final LocalDateTime visitTime;
+        private final String department;
+        private final String doctorName;
+
+        public OpenVisit(long id, LocalDateTime visitTime, String department, String doctorName) {
+            this.id = id;
+            this.visitTime = visitTime;
+            this.department = department;
+            this.doctorName = doctorName;
+        }
+
+        public long getId() { return id; }
+
+        public LocalDateTime getVisitTime() { return visitTime; }
+
+        public String getDepartment() { return department; }
+
+        public String getDoctorName() { return doctorName; }
+    }
+
+    /**
+     * 一个患者的预约偏好：预约过的科室和医生（含次数）及已预约的出诊ID
+     */
+    public static final class Affinity {
+        private final Map<String, Integer> departments = new HashMap<>();
+        private final Map<String, Integer> doctors = new HashMap<>();
+        private final Set<Long> visitIds = new HashSet<>();
+
+        /**
+         * 记录一次预约
+         * @param visitId 出诊ID
+         * @param department 科室，竞拍出诊传null
+         * @param doctorName 医生用户名
+         */
+        public synchronized void add(long visitId, String department, String doctorName) {
+            if (!visitIds.add(visitId)) {
+                return;
+            }
+            if (department != null) {
+                departments.merge(department, 1, Integer::sum);
+            }
+            if (doctorName != null) {
+                doctors.merge(doctorName, 1, Integer::sum);
+            }
+        }
+
+        /**
+         * 撤销一次预约，参数与 {@link #add} 相同
+         */
+        public synchronized void remove(long visitId, String department, String doctorName) {
+            if (!visitIds.remove(visitId)) {
+                return;
+            }
+            if (department != null) {
+                departments.computeIfPresent(department, (key, count) -> count > 1 ? count - 1 : null);
+            }
+            if (doctorName != null) {
+                doctors.computeIfPresent(doctorName, (key, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.dto.VisitDetails;
+import com.example.hospital_0515.dto.VisitView;
+import com.example.hospital_0515.metrics.MetricsRegistry;
+import com.example.hospital_0515.model.Visit;
+import com.example.hospital_0515.repository.VisitRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RecommendationService 为患者推荐可预约的普通出诊。
+ * 开放的未来出诊保存在 {@link RecommendationIndex} 中，启动时加载一次，之后随出诊审批、删除和竞拍结算增量更新；
+ * 患者偏好在首次推荐时用一次查询加载，之后随预约和取消增量更新。
+ * 推荐时不访问出诊表，医院名称从 {@link DoctorCacheService} 读取。
+ */
+@Service
+public class RecommendationService {
+
+    private static final Logger log = LoggerFactory.getLogger(RecommendationService.class);
+
+    @Autowired
+    private VisitRepository visitRepository;
+
+    @Autowired
+    private SlotInventoryService slotInventoryService;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Autowired
+    private DoctorCacheService doctorCacheService;
+
+    private final RecommendationIndex index = new RecommendationIndex();
+
+    // 患者用户名 -> 预约偏好，未加载的患者在首次推荐时加载
+    private final ConcurrentHashMap<String, RecommendationIndex.Affinity> affinities = new ConcurrentHashMap<>();
+
+    /**
+     * 从数据库加载开放的未来普通出诊
+     */
+    @PostConstruct
+    public void reload() {
+        long start = System.nanoTime();
+        for (Object[] row : visitRepository.findOpenNormalVisitsAfter(LocalDateTime.now())) {
+            index.add(new RecommendationIndex.OpenVisit((Long) row[0], (LocalDateTime) row[1], (String) row[2], (String) row[3]));
+        }
+        log.info("Loaded {} open visits for recommendations in {}ms", index.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * 为患者推荐出诊
+     * @param patientUsername 患者用户名
+     * @param limit 推荐数量
+     * @return 每项包含 visit 和 hospital
+     */
+    public List<VisitDetails> recommend(String patientUsername, int limit) {
+        RecommendationIndex.Affinity affinity = affinities.computeIfAbsent(patientUsername, this::loadAffinity);
+        List<VisitDetails> recommendations = new ArrayList<>(limit);
+        for (RecommendationIndex.OpenVisit candidate : index.recommend(affinity, LocalDateTime.now(), limit, this::hasSlots)) {
+            VisitView visit = new VisitView(candidate.getId(), candidate.getDepartment(), candidate.getVisitTime(),
+                    slotInventoryService.available(candidate.getId()), "APPROVED", candidate.getDoctorName(),
+                    false, false, null, null, Collections.emptyList());
+            recommendations.add(new VisitDetails(visit, doctorCacheService.getHospital(candidate.getDoctorName())));
+        }
+        return recommendations;
+    }
+
+    /**
+     * 普通出诊审批通过，或竞拍出诊结算后转为普通号源时调用
+     * @param visit 出诊信息
+     */
+    public void onVisitOpened(Visit visit) {
+        if (visit.isAuction() || visit.isRecurring() || visit.getVisitTime() == null
+                || !visit.getVisitTime().isAfter(LocalDateTime.now())) {
+            return;
+        }
+        index.add(new RecommendationIndex.OpenVisit(visit.getId(), visit.getVisitTime(), visit.getDepartment(), visit.getDoctorName()));
+    }
+
+    /**
+     * 出诊删除后调用
+     * @param visitId 出诊ID
+     */
+    public void onVisitRemoved(Long visitId) {
+        index.remove(visitId);
+    }
+
+    /**
+     * 患者预约成功后调用
+     * @param patientUsername 患者用户名
+     * @param visitId 出诊ID
+     */
+    public void onBooked(String patientUsername, Long visitId) {
+        RecommendationIndex.OpenVisit visit = index.get(visitId);
+        if (visit == null) {
+            // 出诊不在索引中，丢弃偏好，下次推荐时重新加载
+            affinities.remove(patientUsername);
+            return;
+        }
+        affinities.computeIfPresent(patientUsername, (username, affinity) -> {
+            affinity.add(visitId, visit.getDepartment(), visit.getDoctorName());
+            return affinity;
+        });
+    }
+
+    /**
+     * 患者取消预约后调用
+     * @param patientUsername 患者用户名
+     * @param visitId 出诊ID
+     */
+    public void onCancelled(String patientUsername, Long visitId) {
+        RecommendationIndex.OpenVisit visit = index.get(visitId);
+        if (visit == null) {
+            affinities.remove(patientUsername);
+            return;
+        }
+        affinities.computeIfPresent(patientUsername, (username, affinity) -> {
+            affinity.remove(visitId, visit.getDepartment(), visit.getDoctorName());
+            return affinity;
+        });
+    }
+
+    /**
+     * 定期移除已过出诊时间的出诊
+     */
+    @Scheduled(fixedDelayString = "${hospital.recommendation.purge-interval-ms:60000}")
+    public void purgeExpired() {
+        metricsRegistry.timeJob("recommendationPurge", () -> index.purgeBefore(LocalDateTime.now()));
+    }
+
+    private RecommendationIndex.Affinity loadAffinity(String patientUsername) {
+        RecommendationIndex.Affinity affinity = new RecommendationIndex.Affinity();
+        for (Visit visit : visitRepository.findByBookedByContaining(patientUsername)) {
+            // 与原推荐规则一致：竞拍出诊不计入科室偏好
+            affinity.add(visit.getId(), visit.isAuction() ? null : visit.getDepartment(), visit.getDoctorName());
+        }
+        return affinity;
+    }
+
+    private boolean hasSlots(long visitId) {
+        try {
+            return slotInventoryService.available(visitId) > 0;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.model.Visit;
+import com.example.hospital_0515.repository.VisitRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * RecurringVisitService 根据周期性出诊模板生成具体的出诊记录。
+ * 只查询在目标日期出诊的模板，按批插入，每条生成记录带有 模板ID:日期 的幂等键，
+ * 重启或多节点重复执行时不会生成重复的出诊。
+ */
+@Service
+public class RecurringVisitService {
+
+    private static final Logger log = LoggerFactory.getLogger(RecurringVisitService.class);
+
+    private static final String INSERT_SQL =
+            "INSERT INTO visit (auction, available_slots, department, doctor_name, recurring, status, visit_time, generation_key) " +
+            "SELECT FALSE, t.available_slots, t.department, t.doctor_name, FALSE, 'PENDING', ?, ? FROM visit t " +
+            "WHERE t.id = ? AND NOT EXISTS (SELECT 1 FROM visit g WHERE g.generation_key = ?)";
+
+    @Autowired
+    private VisitRepository visitRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private VisitDirectoryService visitDirectoryService;
+
+    // 提前生成的天数
+    @Value("${hospital.recurring.lead-days:3}")
+    private int leadDays;
+
+    // 除目标日期外，向前补生成的天数，用于补齐任务未执行的日期
+    @Value("${hospital.recurring.backfill-days:0}")
+    private int backfillDays;
+
+    @Value("${hospital.recurring.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * 为 今天+提前天数 及其之前 补生成天数 的日期生成出诊，各日期并行处理
+     * @param today 当前日期
+     * @return 新生成的出诊数量
+     */
+    public int generate(LocalDate today) {
+        return IntStream.rangeClosed(0, backfillDays)
+                .parallel()
+                .filter(offset -> leadDays - offset > 0)
+                .map(offset -> generateFor(today.plusDays(leadDays - offset)))
+                .sum();
+    }
+
+    /**
+     * 为指定日期生成出诊
+     * @param date 出诊日期
+     * @return 新生成的出诊数量
+     */
+    public int generateFor(LocalDate date) {
+        long start = System.nanoTime();
+        List<Object[]> templates = visitRepository.findRecurringTemplatesByDayOfWeek(date.getDayOfWeek());
+        int generated = 0;
+        for (int from = 0; from < templates.size(); from += batchSize) {
+            generated += insertBatch(date, templates.subList(from, Math.min(from + batchSize, templates.size())));
+        }
+        log.info("Generated {} visits from {} recurring templates for {} in {}ms",
+                generated, templates.size(), date, (System.nanoTime() - start) / 1_000_000);
+        return generated;
+    }
+
+    private int insertBatch(LocalDate date, List<Object[]> batch) {
+        List<Object[]> templates = new ArrayList<>(batch.size());
+        List<Object[]> args = new ArrayList<>(batch.size());
+        for (Object[] template : batch) {
+            Long templateId = (Long) template[0];
+            String key = templateId + ":" + date;
+            LocalTime time = (LocalTime) template[1];
+            if (time == null) {
+                continue;  // 未设置出诊时间的模板无法生成
+            }
+            templates.add(template);
+            args.add(new Object[]{Timestamp.valueOf(LocalDateTime.of(date, time)), key, templateId, key});
+        }
+        int[] inserted;
+        try {
+            inserted = jdbcTemplate.batchUpdate(INSERT_SQL, args);
+        } catch (DuplicateKeyException e) {
+            // 其他节点同时生成了部分出诊，重试时 NOT EXISTS 会跳过它们
+            inserted = jdbcTemplate.batchUpdate(INSERT_SQL, args);
+        }
+        int generated = 0;
+        for (int i = 0; i < inserted.length; i++) {
+            if (inserted[i] > 0) {
+                generated++;
+                Object[] template = templates.get(i);
+                Visit visit = new Visit();
+                visit.setDepartment((String) template[2]);
+                visit.setDoctorName((String) template[3]);
+                visitDirectoryService.onVisitAdded(visit);
+            }
+        }
+        return generated;
+    }
+}
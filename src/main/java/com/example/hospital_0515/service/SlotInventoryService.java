@@ -0,0 +1,367 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.metrics.MetricsRegistry;
+import com.example.hospital_0515.model.Visit;
+import com.example.hospital_0515.repository.VisitRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SlotInventoryService 在内存中维护每个出诊的剩余号源数量。
+ * 预约和取消通过 CAS 修改计数器，不再读取整个 Visit 实体；
+ * 预约信箱挂号时先暂扣号源（{@link #hold}），在写入预约的同一事务中修改 Visit 表的号源（见 {@link #commit}），
+ * 预约记录和号源同时提交；暂扣的号源对查询不可见，但不计入回写，提交前回写不会把这次扣减先写进数据库；
+ * 其余变化的计数由定时任务批量回写到 Visit 表，启动时从数据库重建。
+ * 回写按版本号条件更新：数据库中的号源被其他流程修改过时，把数据库相对上次同步的变化合并到内存计数后重试，
+ * 双方的修改都不会丢失。
+ */
+@Service
+public class SlotInventoryService {
+
+    @Autowired
+    private VisitRepository visitRepository;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Autowired
+    private ConflictRetryExecutor conflictRetryExecutor;
+
+    // 出诊ID -> 剩余号源计数器
+    private final ConcurrentHashMap<Long, Counter> slots = new ConcurrentHashMap<>();
+
+    // 内存计数已变化、尚未回写数据库的出诊ID
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+
+    // 回写互斥；回写期间持锁访问数据库，用 ReentrantLock 而不是 synchronized，虚拟线程等待时不占用载体线程
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    /**
+     * 启动时加载所有已审批且未过期的出诊号源
+     */
+    @PostConstruct
+    public void rebuild() {
+        List<Object[]> rows = visitRepository.findApprovedSlotsAfter(LocalDateTime.now());
+        for (Object[] row : rows) {
+            slots.put((Long) row[0], new Counter((Integer) row[1], (Long) row[2]));
+        }
+    }
+
+    /**
+     * 占用一个号源
+     * @param visitId 出诊ID
+     * @return 占用成功返回true，号源已挂完返回false
+     */
+    public boolean reserve(Long visitId) {
+        if (!counter(visitId).reserve()) {
+            return false;
+        }
+        dirty.add(visitId);
+        return true;
+    }
+
+    /**
+     * 释放一个号源
+     * @param visitId 出诊ID
+     */
+    public void release(Long visitId) {
+        counter(visitId).add(1);
+        dirty.add(visitId);
+    }
+
+    /**
+     * 暂扣一个号源，之后由 {@link #commit} 随写入预约的事务一起结算，或由 {@link #unhold} 归还。
+     * 暂扣不标记回写，同一出诊只由它所属的信箱线程暂扣
+     * @param visitId 出诊ID
+     * @return 暂扣成功返回true，号源已挂完返回false
+     */
+    public boolean hold(Long visitId) {
+        return counter(visitId).hold();
+    }
+
+    /**
+     * 写入预约的事务失败后归还暂扣的号源；计数在此期间被重新加载时已不含暂扣，不做处理
+     * @param visitId 出诊ID
+     */
+    public void unhold(Long visitId) {
+        Counter counter = slots.get(visitId);
+        if (counter != null) {
+            counter.unhold();
+        }
+    }
+
+    /**
+     * 获取当前剩余号源数量
+     * @param visitId 出诊ID
+     * @return 剩余号源数量
+     */
+    public int available(Long visitId) {
+        return counter(visitId).available();
+    }
+
+    /**
+     * 号源数量被其他流程直接修改后调用（如竞拍结算），把数据库的变化合并到内存计数，尚未回写的预约和取消保留
+     * @param visitId 出诊ID
+     */
+    public void refresh(Long visitId) {
+        flushLock.lock();
+        try {
+            Counter counter = slots.get(visitId);
+            if (counter != null) {
+                rebase(visitId, counter);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 在回写锁内执行写入预约的事务。事务中已按 deltas 直接修改出诊表的号源并增加版本号，
+     * 提交后把同样的变化记入同步基线，回写时不会重复写入；同时结算本批暂扣的号源，
+     * 取消后没有转给候补的号源也在提交后才加回内存计数。
+     * 同一出诊的预约和取消只在它所属的信箱线程中执行，事务期间其他线程不会修改这些出诊的计数。
+     * @param deltas 出诊ID -> 事务中写入数据库的号源变化量
+     * @param held 出诊ID -> 本批暂扣的号源数量
+     * @param transaction 写入预约和号源的事务，抛出异常时内存计数和暂扣不变
+     */
+    public void commit(Map<Long, Integer> deltas, Map<Long, Integer> held, Runnable transaction) {
+        flushLock.lock();
+        try {
+            Map<Long, Counter> loaded = new HashMap<>();
+            Set<Long> visitIds = new HashSet<>(deltas.keySet());
+            visitIds.addAll(held.keySet());
+            for (Long visitId : visitIds) {
+                Counter counter = slots.get(visitId);
+                if (counter != null) {
+                    loaded.put(visitId, counter);
+                }
+            }
+            transaction.run();
+            for (Long visitId : visitIds) {
+                Counter counter = loaded.get(visitId);
+                int delta = deltas.getOrDefault(visitId, 0);
+                if (counter == null) {
+                    if (delta != 0) {
+                        // 事务期间才加载的计数可能读到提交前的值，丢弃后重新加载
+                        slots.remove(visitId);
+                    }
+                    continue;
+                }
+                if (delta != 0) {
+                    counter.synced += delta;
+                    counter.version++;
+                }
+                counter.settle(delta, held.getOrDefault(visitId, 0));
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 丢弃内存中的计数，下次访问时重新从数据库加载。
+     * 出诊被删除后调用。
+     * @param visitId 出诊ID
+     */
+    public void invalidate(Long visitId) {
+        dirty.remove(visitId);
+        slots.remove(visitId);
+    }
+
+    /**
+     * 将变化的号源数量回写到数据库
+     */
+    @Scheduled(fixedDelayString = "${hospital.slot-inventory.flush-interval-ms:1000}")
+    @PreDestroy
+    public void flush() {
+        flushLock.lock();
+        try {
+            metricsRegistry.timeJob("slotInventoryFlush", this::writeDirty);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private int writeDirty() {
+        int written = 0;
+        for (Long visitId : dirty) {
+            // 先移除标记再读取计数，读取之后的变化会重新标记并在下一轮回写
+            dirty.remove(visitId);
+            Counter counter = slots.get(visitId);
+            if (counter == null) {
+                continue;
+            }
+            try {
+                conflictRetryExecutor.run("slotInventoryFlush", () -> write(visitId, counter));
+                written++;
+            } catch (OptimisticLockingFailureException e) {
+                // 重试次数用完，留到下一轮回写
+                dirty.add(visitId);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * 按同步时的版本号回写一个出诊，版本号已变化时合并数据库的变化后抛出冲突，由执行器重试
+     */
+    private void write(Long visitId, Counter counter) {
+        int value = counter.committed();
+        if (value == counter.synced) {
+            // 变化已随预约事务写入，或预约后又取消
+            return;
+        }
+        if (visitRepository.updateAvailableSlots(visitId, value, counter.version) == 1) {
+            counter.synced = value;
+            counter.version++;
+            return;
+        }
+        if (rebase(visitId, counter)) {
+            throw new ObjectOptimisticLockingFailureException(Visit.class, visitId);
+        }
+    }
+
+    /**
+     * 重新读取数据库中的号源和版本号，把相对上次同步的变化加到内存计数上
+     * @return 出诊仍然存在时返回true
+     */
+    private boolean rebase(Long visitId, Counter counter) {
+        List<Object[]> rows = visitRepository.findSlotsAndVersionById(visitId);
+        if (rows.isEmpty()) {
+            // 出诊已删除
+            slots.remove(visitId, counter);
+            return false;
+        }
+        int fresh = (Integer) rows.get(0)[0];
+        long version = (Long) rows.get(0)[1];
+        if (version != counter.version) {
+            counter.add(fresh - counter.synced);
+            counter.synced = fresh;
+            counter.version = version;
+        }
+        return true;
+    }
+
+    /**
+     * 获取出诊的计数，不在内存中时从数据库加载。
+     * 查询不放在 computeIfAbsent 中执行，避免查询期间占着哈希桶的锁；加载持有回写锁，
+     * 与预约事务和回写互斥，不会在它们修改数据库号源的同时读到旧值并放入内存
+     * @throws NoSuchElementException 出诊不存在
+     */
+    private Counter counter(Long visitId) {
+        Counter counter = slots.get(visitId);
+        if (counter != null) {
+            return counter;
+        }
+        flushLock.lock();
+        try {
+            counter = slots.get(visitId);
+            if (counter != null) {
+                return counter;
+            }
+            List<Object[]> rows = visitRepository.findSlotsAndVersionById(visitId);
+            if (rows.isEmpty()) {
+                throw new NoSuchElementException("出诊不存在: " + visitId);
+            }
+            Counter loaded = new Counter((Integer) rows.get(0)[0], (Long) rows.get(0)[1]);
+            Counter existing = slots.putIfAbsent(visitId, loaded);
+            return existing == null ? loaded : existing;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 一个出诊的号源计数。state 的高32位是可预约数量（已扣除暂扣），低32位是暂扣数量，
+     * 两者在一次 CAS 中同时修改，回写读到的可预约数量和暂扣数量总是一致的；
+     * synced 和 version 是最近一次与数据库同步时的号源数量和版本号，只在回写锁内读写
+     */
+    private static final class Counter {
+        private static final long SLOT = 1L << 32;
+
+        private final AtomicLong state;
+        private int synced;
+        private long version;
+
+        Counter(int availableSlots, long version) {
+            this.state = new AtomicLong(availableSlots * SLOT);
+            this.synced = availableSlots;
+            this.version = version;
+        }
+
+        int available() {
+            return (int) (state.get() >> 32);
+        }
+
+        /**
+         * 应回写数据库的号源数量：暂扣尚未提交，仍计入剩余号源
+         */
+        int committed() {
+            long current = state.get();
+            return (int) (current >> 32) + (int) current;
+        }
+
+        boolean reserve() {
+            return take(-SLOT);
+        }
+
+        boolean hold() {
+            return take(1 - SLOT);
+        }
+
+        private boolean take(long change) {
+            long current;
+            do {
+                current = state.get();
+                if ((int) (current >> 32) <= 0) {
+                    return false;
+                }
+            } while (!state.compareAndSet(current, current + change));
+            return true;
+        }
+
+        void add(int count) {
+            state.addAndGet(count * SLOT);
+        }
+
+        void unhold() {
+            long current;
+            do {
+                current = state.get();
+                if ((int) current <= 0) {
+                    return;
+                }
+            } while (!state.compareAndSet(current, current + SLOT - 1));
+        }
+
+        /**
+         * 提交后结算：可预约数量加上数据库的变化和结算的暂扣，暂扣数量减去结算的暂扣
+         */
+        void settle(int delta, int count) {
+            long current;
+            long next;
+            do {
+                current = state.get();
+                // 暂扣之后计数被重新加载过时，新计数中没有这些暂扣
+                int settled = Math.min(count, (int) current);
+                next = current + (delta + settled) * SLOT - settled;
+            } while (!state.compareAndSet(current, next));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.model.Visit;
+import com.example.hospital_0515.repository.VisitRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * VisitDirectoryService 在内存中维护普通出诊涉及的科室和医生目录及各自的出诊数量。
+ * 启动时通过分组统计查询加载，之后随出诊的新增和删除增量更新，
+ * 查询接口直接返回内存中的快照，响应时间与出诊表大小无关。
+ */
+@Service
+public class VisitDirectoryService {
+
+    @Autowired
+    private VisitRepository visitRepository;
+
+    // 科室 -> 普通出诊数量
+    private final Map<String, Long> departments = new TreeMap<>();
+
+    // 医生用户名 -> 普通出诊数量
+    private final Map<String, Long> doctors = new TreeMap<>();
+
+    // 目录变化后置为null，下次读取时重建
+    private volatile List<String> departmentSnapshot;
+    private volatile List<String> doctorSnapshot;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * 从数据库重新加载目录
+     */
+    @PostConstruct
+    public synchronized void reload() {
+        departments.clear();
+        doctors.clear();
+        for (Object[] row : visitRepository.countNormalVisitsByDepartment()) {
+            if (row[0] != null) {
+                departments.put((String) row[0], (Long) row[1]);
+            }
+        }
+        for (Object[] row : visitRepository.countNormalVisitsByDoctorName()) {
+            if (row[0] != null) {
+                doctors.put((String) row[0], (Long) row[1]);
+            }
+        }
+        departmentSnapshot = null;
+        doctorSnapshot = null;
+    }
+
+    /**
+     * 新增出诊（或竞拍号源转为普通号源）后调用
+     * @param visit 出诊信息
+     */
+    public synchronized void onVisitAdded(Visit visit) {
+        if (visit.isAuction()) {
+            return;
+        }
+        if (increment(departments, visit.getDepartment(), 1)) {
+            departmentSnapshot = null;
+        }
+        if (increment(doctors, visit.getDoctorName(), 1)) {
+            doctorSnapshot = null;
+        }
+    }
+
+    /**
+     * 删除出诊后调用
+     * @param visit 被删除的出诊信息
+     */
+    public synchronized void onVisitRemoved(Visit visit) {
+        if (visit.isAuction()) {
+            return;
+        }
+        if (increment(departments, visit.getDepartment(), -1)) {
+            departmentSnapshot = null;
+        }
+        if (increment(doctors, visit.getDoctorName(), -1)) {
+            doctorSnapshot = null;
+        }
+    }
+
+    /**
+     * 获取所有科室
+     * @return 科室列表
+     */
+    public List<String> getDepartments() {
+        List<String> snapshot = departmentSnapshot;
+        if (snapshot != null) {
+            hits.incrementAndGet();
+            return snapshot;
+        }
+        misses.incrementAndGet();
+        synchronized (this) {
+            if (departmentSnapshot == null) {
+                departmentSnapshot = Collections.unmodifiableList(new ArrayList<>(departments.keySet()));
+            }
+            return departmentSnapshot;
+        }
+    }
+
+    /**
+     * 获取所有医生
+     * @return 医生用户名列表
+     */
+    public List<String> getDoctors() {
+        List<String> snapshot = doctorSnapshot;
+        if (snapshot != null) {
+            hits.incrementAndGet();
+            return snapshot;
+        }
+        misses.incrementAndGet();
+        synchronized (this) {
+            if (doctorSnapshot == null) {
+                doctorSnapshot = Collections.unmodifiableList(new ArrayList<>(doctors.keySet()));
+            }
+            return doctorSnapshot;
+        }
+    }
+
+    /**
+     * 获取各科室的普通出诊数量
+     * @return 科室 -> 出诊数量
+     */
+    public synchronized Map<String, Long> getDepartmentCounts() {
+        return new TreeMap<>(departments);
+    }
+
+    /**
+     * 获取各医生的普通出诊数量
+     * @return 医生用户名 -> 出诊数量
+     */
+    public synchronized Map<String, Long> getDoctorCounts() {
+        return new TreeMap<>(doctors);
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * 修改计数
+     * @return 目录中的键是否发生了增减
+     */
+    private boolean increment(Map<String, Long> counts, String key, long delta) {
+        if (key == null) {
+            return false;
+        }
+        long count = counts.getOrDefault(key, 0L) + delta;
+        if (count > 0) {
+            return counts.put(key, count) == null;
+        }
+        return counts.remove(key) != null;
+    }
+}
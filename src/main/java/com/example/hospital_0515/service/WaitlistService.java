@@ -0,0 +1,180 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.metrics.MetricsRegistry;
+import com.example.hospital_0515.repository.WaitlistRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * WaitlistService 在内存中维护每个出诊的候补队列，数据库中的 waitlist_entry 表为持久化副本。
+ * 队列按信用分分桶，桶内按加入顺序排列，取队首只需取最高分桶的第一个元素。
+ * 修改只由出诊所在的预约信箱线程执行（见 {@link BookingMailboxService}），与同一出诊的取消天然串行；
+ * 每个出诊的队列在首次访问时从数据库加载。
+ */
+@Service
+public class WaitlistService {
+
+    @Autowired
+    private WaitlistRepository waitlistRepository;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    // 出诊ID -> 候补队列，未加载的出诊在首次访问时加载
+    private final ConcurrentHashMap<Long, VisitQueue> queues = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void registerMetrics() {
+        metricsRegistry.gauge("waitlist_loaded_entries", "已加载到内存的候补人数", () -> {
+            int size = 0;
+            for (VisitQueue queue : queues.values()) {
+                size += queue.size();
+            }
+            return size;
+        });
+    }
+
+    /**
+     * 患者是否在候补队列中
+     */
+    public boolean contains(Long visitId, String patientUsername) {
+        return queue(visitId).contains(patientUsername);
+    }
+
+    /**
+     * 加入队尾（同信用分中最后）
+     */
+    public void add(Long visitId, String patientUsername, int creditScore) {
+        queue(visitId).add(patientUsername, creditScore);
+    }
+
+    /**
+     * 离开候补队列
+     * @return 原来在队列中返回true
+     */
+    public boolean remove(Long visitId, String patientUsername) {
+        return queue(visitId).remove(patientUsername);
+    }
+
+    /**
+     * 取出队首
+     * @return 队首患者的用户名，队列为空时返回null
+     */
+    public String poll(Long visitId) {
+        return queue(visitId).poll();
+    }
+
+    /**
+     * 查询患者在候补队列中的位置
+     * @return 从1开始的位置，不在队列中时返回0
+     */
+    public int position(Long visitId, String patientUsername) {
+        return queue(visitId).position(patientUsername);
+    }
+
+    /**
+     * 丢弃内存中的队列，下次访问时重新从数据库加载。写入候补变化的事务失败后调用
+     * @param visitIds 出诊ID
+     */
+    public void reload(Collection<Long> visitIds) {
+        for (Long visitId : visitIds) {
+            queues.remove(visitId);
+        }
+    }
+
+    /**
+     * 出诊删除后调用，删除其所有候补
+     * @param visitId 出诊ID
+     */
+    public void onVisitRemoved(Long visitId) {
+        waitlistRepository.deleteByVisitId(visitId);
+        queues.remove(visitId);
+    }
+
+    private VisitQueue queue(Long visitId) {
+        return queues.computeIfAbsent(visitId, id -> {
+            VisitQueue queue = new VisitQueue();
+            for (Object[] row : waitlistRepository.findQueueByVisitId(id)) {
+                queue.add((String) row[0], (Integer) row[1]);
+            }
+            return queue;
+        });
+    }
+
+    /**
+     * 一个出诊的候补队列：信用分（降序） -> 按加入顺序排列的患者。
+     * 只有信箱线程修改，查询位置的请求线程只读，方法加锁保证读到一致的状态
+     */
+    private static final class VisitQueue {
+        private final TreeMap<Integer, ArrayDeque<String>> buckets = new TreeMap<>(Comparator.reverseOrder());
+        // 患者用户名 -> 加入时的信用分
+        private final Map<String, Integer> scores = new HashMap<>();
+
+        synchronized boolean contains(String patientUsername) {
+            return scores.containsKey(patientUsername);
+        }
+
+        synchronized void add(String patientUsername, int creditScore) {
+            if (scores.putIfAbsent(patientUsername, creditScore) == null) {
+                buckets.computeIfAbsent(creditScore, score -> new ArrayDeque<>()).addLast(patientUsername);
+            }
+        }
+
+        synchronized boolean remove(String patientUsername) {
+            Integer score = scores.remove(patientUsername);
+            if (score == null) {
+                return false;
+            }
+            ArrayDeque<String> bucket = buckets.get(score);
+            bucket.remove(patientUsername);
+            if (bucket.isEmpty()) {
+                buckets.remove(score);
+            }
+            return true;
+        }
+
+        synchronized String poll() {
+            Map.Entry<Integer, ArrayDeque<String>> first = buckets.firstEntry();
+            if (first == null) {
+                return null;
+            }
+            String head = first.getValue().pollFirst();
+            if (first.getValue().isEmpty()) {
+                buckets.remove(first.getKey());
+            }
+            scores.remove(head);
+            return head;
+        }
+
+        synchronized int position(String patientUsername) {
+            Integer score = scores.get(patientUsername);
+            if (score == null) {
+                return 0;
+            }
+            int position = 0;
+            for (ArrayDeque<String> bucket : buckets.headMap(score).values()) {
+                position += bucket.size();
+            }
+            for (String waiting : buckets.get(score)) {
+                position++;
+                if (waiting.equals(patientUsername)) {
+                    break;
+                }
+            }
+            return position;
+        }
+
+        synchronized int size() {
+            return scores.size();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.hospital_0515.util;
+
+import com.example.hospital_0515.audit.AuditLogStore;
+import com.example.hospital_0515.audit.AuditRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AuditLogPipeline 是患者预约日志和管理员操作日志共用的异步写入管道。
+ * 请求线程只把记录放入无锁环形缓冲区，由单个写线程批量追加到二进制审计日志 {@link AuditLogStore}，
+ * 每批只做一次 fsync（组提交），段文件的滚动由存储负责。
+ * 缓冲区满时按配置丢弃记录或短暂等待，磁盘阻塞不会传导到请求线程。
+ */
+public final class AuditLogPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(AuditLogPipeline.class);
+
+    // 缓冲区容量，必须是2的幂
+    private static final int CAPACITY = Integer.getInteger("hospital.audit.capacity", 65536);
+    private static final int BATCH_SIZE = Integer.getInteger("hospital.audit.batch-size", 1024);
+    // 缓冲区满时生产者最多等待的时间（毫秒），0表示直接丢弃
+    private static final long MAX_BLOCK_MILLIS = Long.getLong("hospital.audit.max-block-ms", 0L);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final AuditLogPipeline INSTANCE = new AuditLogPipeline();
+
+    private final RingBuffer buffer = new RingBuffer(CAPACITY);
+    private final AuditLogStore store = AuditLogStore.getInstance();
+    private final Thread writer;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong lastFlushMicros = new AtomicLong();
+    private final AtomicLong maxFlushMicros = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    private AuditLogPipeline() {
+        writer = new Thread(this::drainLoop, "audit-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "audit-log-shutdown"));
+    }
+
+    public static AuditLogPipeline getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 追加一条日志记录
+     * @param event 日志记录
+     * @return 成功放入缓冲区返回true，被丢弃返回false
+     */
+    public boolean append(AuditRecord event) {
+        if (buffer.offer(event)) {
+            return true;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_BLOCK_MILLIS);
+        while (System.nanoTime() < deadline) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+            if (buffer.offer(event)) {
+                return true;
+            }
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    public long getQueueDepth() {
+        return buffer.size();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getFlushCount() {
+        return flushes.get();
+    }
+
+    public long getLastFlushMicros() {
+        return lastFlushMicros.get();
+    }
+
+    public long getMaxFlushMicros() {
+        return maxFlushMicros.get();
+    }
+
+    private void drainLoop() {
+        while (running || buffer.size() > 0) {
+            int drained = drainBatch();
+            if (drained == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        try {
+            store.commit();
+        } catch (IOException e) {
+            log.error("Failed to commit audit log on shutdown", e);
+        }
+    }
+
+    private int drainBatch() {
+        int drained = 0;
+        AuditRecord event;
+        while (drained < BATCH_SIZE && (event = buffer.poll()) != null) {
+            try {
+                store.append(event);
+            } catch (IOException | RuntimeException e) {
+                log.error("Failed to append audit record", e);
+            }
+            drained++;
+        }
+        if (drained > 0) {
+            long start = System.nanoTime();
+            try {
+                store.commit();
+            } catch (IOException e) {
+                log.error("Failed to commit audit log", e);
+            }
+            long micros = (System.nanoTime() - start) / 1000;
+            lastFlushMicros.set(micros);
+            maxFlushMicros.accumulateAndGet(micros, Math::max);
+            flushes.incrementAndGet();
+            written.addAndGet(drained);
+        }
+        return drained;
+    }
+
+    private void shutdown() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 有界的多生产者单消费者无锁环形缓冲区
+     */
+    private static final class RingBuffer {
+        private final AtomicReferenceArray<AuditRecord> slots;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong head = new AtomicLong();
+
+        RingBuffer(int capacity) {
+            if (Integer.bitCount(capacity) != 1) {
+                throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+            }
+            this.slots = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+
+        boolean offer(AuditRecord event) {
+            long sequence;
+            do {
+                sequence = tail.get();
+                if (sequence - head.get() >= slots.length()) {
+                    return false;
+                }
+            } while (!tail.compareAndSet(sequence, sequence + 1));
+            slots.lazySet((int) (sequence & mask), event);
+            return true;
+        }
+
+        AuditRecord poll() {
+            long sequence = head.get();
+            if (sequence >= tail.get()) {
+                return null;
+            }
+            int index = (int) (sequence & mask);
+            AuditRecord event = slots.get(index);
+            if (event == null) {
+                // 生产者已占位但尚未写入，下一轮再读
+                return null;
+            }
+            slots.lazySet(index, null);
+            head.lazySet(sequence + 1);
+            return event;
+        }
+
+        long size() {
+            return Math.max(0, tail.get() - head.get());
+        }
+    }
+}
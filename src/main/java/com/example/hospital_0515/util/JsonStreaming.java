@@ -0,0 +1,48 @@
+package com.example.hospital_0515.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.function.Function;
+
+/**
+ * JsonStreaming 把不分页的列表以JSON数组流式写出。
+ * 每条记录转换成视图对象后立即通过同一个 JsonGenerator 写入响应流，不先拼出完整的JSON字符串或中间集合，
+ * 输出缓冲区写满后才刷新到客户端。整个数组共用一个 SequenceWriter，序列化上下文和序列化器查找结果不按记录重复创建。
+ */
+public final class JsonStreaming {
+
+    private JsonStreaming() {
+    }
+
+    /**
+     * 生成流式JSON数组响应
+     * @param rows 已加载的记录，写出时不再访问数据库
+     * @param view 记录到接口视图的转换
+     * @param objectMapper 应用的 ObjectMapper，保证日期等格式与其他接口一致
+     * @return 响应体为JSON数组的响应
+     */
+    public static <T> ResponseEntity<StreamingResponseBody> array(Iterable<T> rows, Function<? super T, ?> view,
+                                                                 ObjectMapper objectMapper) {
+        // 默认每写一个值刷新一次输出流，逐条写数组元素时关闭
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        StreamingResponseBody body = out -> {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+            // 响应流由容器关闭
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            try (SequenceWriter array = writer.writeValuesAsArray(generator)) {
+                for (T row : rows) {
+                    array.write(view.apply(row));
+                }
+            }
+            generator.close();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.hospital_0515.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.ResponseEntity;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * KeysetPagination 是列表接口共用的键集（seek）分页工具。
+ * 每页按索引顺序从上一页最后一条记录的排序键之后继续读取，不使用 OFFSET，翻到任何一页的代价相同。
+ * 响应体仍是JSON数组，下一页的游标通过响应头 {@value #NEXT_CURSOR_HEADER} 返回，没有下一页时不返回该头。
+ * 游标是排序键经 URL 安全 Base64 编码后的字符串，对客户端不透明。
+ */
+public final class KeysetPagination {
+
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 500;
+
+    private static final String SEPARATOR = "|";
+
+    private KeysetPagination() {
+    }
+
+    /**
+     * 规范化每页数量
+     * @param limit 请求的每页数量，可为null
+     * @return 1到{@link #MAX_LIMIT}之间的每页数量
+     */
+    public static int limit(Integer limit) {
+        if (limit == null || limit <= 0) {
+            return DEFAULT_LIMIT;
+        }
+        return Math.min(limit, MAX_LIMIT);
+    }
+
+    /**
+     * 查询用的分页参数，多取一条用于判断是否还有下一页
+     * @param limit 规范化后的每页数量
+     */
+    public static Pageable pageable(int limit) {
+        return PageRequest.of(0, limit + 1);
+    }
+
+    /**
+     * 编码按ID排序的游标
+     */
+    public static String encodeId(Long id) {
+        return encode(String.valueOf(id));
+    }
+
+    /**
+     * 解码按ID排序的游标
+     * @param cursor 游标，为空时表示第一页
+     * @return 上一页最后一条记录的ID，第一页返回0
+     */
+    public static long decodeId(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0L;
+        }
+        return Long.parseLong(decode(cursor)[0]);
+    }
+
+    /**
+     * 编码按 (时间, ID) 排序的游标
+     */
+    public static String encodeTimeAndId(LocalDateTime time, Long id) {
+        return encode(time + SEPARATOR + id);
+    }
+
+    /**
+     * 解码按 (时间, ID) 排序的游标
+     * @param cursor 游标，不能为空
+     * @return [时间, ID]
+     */
+    public static Object[] decodeTimeAndId(String cursor) {
+        String[] parts = decode(cursor);
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("无效的分页游标");
+        }
+        try {
+            return new Object[]{LocalDateTime.parse(parts[0]), Long.parseLong(parts[1])};
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("无效的分页游标", e);
+        }
+    }
+
+    /**
+     * 编码按字符串键（如用户名）排序的游标
+     */
+    public static String encodeKey(String key) {
+        return encode(key);
+    }
+
+    /**
+     * 解码按字符串键排序的游标
+     * @param cursor 游标，为空时表示第一页
+     * @return 上一页最后一条记录的键，第一页返回空字符串
+     */
+    public static String decodeKey(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return "";
+        }
+        return decodeRaw(cursor);
+    }
+
+    /**
+     * 截取一页结果并生成响应
+     * @param rows 按排序键查询出的最多 limit+1 条记录
+     * @param limit 规范化后的每页数量
+     * @param cursorOf 根据一页的最后一条记录生成下一页游标
+     * @param fields 逗号分隔的返回字段，为空时返回完整记录
+     * @param objectMapper 用于字段投影的 ObjectMapper
+     * @return JSON数组响应，有下一页时带游标响应头
+     */
+    public static <T> ResponseEntity<List<?>> respond(List<T> rows, int limit, Function<T, String> cursorOf,
+                                                      String fields, ObjectMapper objectMapper) {
+        boolean hasNext = rows.size() > limit;
+        List<T> page = hasNext ? rows.subList(0, limit) : rows;
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+        if (hasNext) {
+            builder.header(NEXT_CURSOR_HEADER, cursorOf.apply(page.get(page.size() - 1)));
+        }
+        if (fields == null || fields.trim().isEmpty()) {
+            return builder.body(page);
+        }
+        return builder.body(project(page, fields, objectMapper));
+    }
+
+    /**
+     * 只保留指定字段，字段名与JSON属性名一致，不存在的字段忽略
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> List<Map<String, Object>> project(List<T> page, String fields, ObjectMapper objectMapper) {
+        Set<String> keep = new LinkedHashSet<>();
+        for (String field : fields.split(",")) {
+            if (!field.trim().isEmpty()) {
+                keep.add(field.trim());
+            }
+        }
+        List<Map<String, Object>> projected = new ArrayList<>(page.size());
+        for (T row : page) {
+            Map<String, Object> all = objectMapper.convertValue(row, Map.class);
+            Map<String, Object> selected = new LinkedHashMap<>();
+            for (String field : keep) {
+                if (all.containsKey(field)) {
+                    selected.put(field, all.get(field));
+                }
+            }
+            projected.add(selected);
+        }
+        return projected;
+    }
+
+    private static String encode(String key) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decode(String cursor) {
+        return decodeRaw(cursor).split(Pattern.quote(SEPARATOR));
+    }
+
+    private static String decodeRaw(String cursor) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("无效的分页游标", e);
+        }
+    }
+}
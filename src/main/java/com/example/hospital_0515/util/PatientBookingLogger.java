@@ -1,25 +1,12 @@
 package com.example.hospital_0515.util;
 
-import java.io.*;
+import com.example.hospital_0515.audit.AuditRecord;
 
 public class PatientBookingLogger {
 
-    private static final String LOG_DIR = "./UserLogger";
-
     public static void logBooking(String operation, String patientUsername, Long visitId) {
-        File logDir = new File(LOG_DIR);
-        if (!logDir.exists()) {
-            logDir.mkdirs();
-        }
-
-        String logFileName = LOG_DIR + "/patient.log";
-        try (FileWriter fileWriter = new FileWriter(LOG_DIR + "/patient.log", true);
-             PrintWriter printWriter = new PrintWriter(fileWriter)) {
-            String logEntry = String.format("Operation: %s, Patient: %s, Visit ID: %d, Timestamp: %d\n",
-                    operation, patientUsername, visitId, System.currentTimeMillis());
-            printWriter.println(logEntry);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        // 记录在异步写线程中写入二进制审计日志
+        AuditLogPipeline.getInstance().append(
+                AuditRecord.booking(System.currentTimeMillis(), operation, patientUsername, visitId));
     }
 }
@@ -0,0 +1,57 @@
+package com.example.hospital_0515.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * VirtualThreads 通过反射创建虚拟线程，项目仍可在 Java 21 以前的版本上编译和运行。
+ * 运行时不支持虚拟线程时 {@link #isSupported()} 返回 false，其他方法抛出 IllegalStateException。
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * 当前 JVM 是否支持虚拟线程（Java 21 及以上）
+     */
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 创建虚拟线程工厂，线程名为 prefix 加递增序号
+     * @param prefix 线程名前缀
+     */
+    public static ThreadFactory threadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("当前 JVM 不支持虚拟线程: " + System.getProperty("java.version"), e);
+        }
+    }
+
+    /**
+     * 创建每个任务一个虚拟线程的执行器
+     * @param prefix 线程名前缀
+     */
+    public static ExecutorService newExecutor(String prefix) {
+        ThreadFactory factory = threadFactory(prefix);
+        try {
+            Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) method.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("当前 JVM 不支持虚拟线程: " + System.getProperty("java.version"), e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+-- 基线表结构，与此前由 ddl-auto=update 生成的结构一致；已有数据库中的表保持不变
+CREATE TABLE IF NOT EXISTS patient (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    id_card VARCHAR(255),
+    name VARCHAR(255),
+    medical_record VARCHAR(255),
+    username VARCHAR(255),
+    password VARCHAR(255),
+    age INTEGER,
+    gender VARCHAR(255),
+    address VARCHAR(255),
+    contact VARCHAR(255),
+    status VARCHAR(255),
+    credit_score INTEGER
+);
+
+CREATE TABLE IF NOT EXISTS doctor (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    id_card VARCHAR(255),
+    name VARCHAR(255),
+    department VARCHAR(255),
+    title VARCHAR(255),
+    username VARCHAR(255),
+    password VARCHAR(255),
+    age INTEGER,
+    gender VARCHAR(255),
+    address VARCHAR(255),
+    contact VARCHAR(255),
+    hospital VARCHAR(255),
+    specialty VARCHAR(255),
+    status VARCHAR(255)
+);
+
+CREATE TABLE IF NOT EXISTS admin (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    id_card VARCHAR(255),
+    name VARCHAR(255),
+    username VARCHAR(255),
+    password VARCHAR(255),
+    address VARCHAR(255),
+    contact VARCHAR(255),
+    status VARCHAR(255),
+    first_login BOOLEAN NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS visit (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    department VARCHAR(255),
+    visit_time TIMESTAMP,
+    available_slots INTEGER NOT NULL,
+    status VARCHAR(255),
+    doctor_name VARCHAR(255),
+    auction BOOLEAN NOT NULL,
+    recurring BOOLEAN NOT NULL,
+    recurring_day_of_week VARCHAR(255),
+    recurring_visit_time TIME
+);
+
+-- 周期性出诊生成的幂等键，旧数据库中没有该列
+ALTER TABLE visit ADD COLUMN IF NOT EXISTS generation_key VARCHAR(255);
+
+CREATE TABLE IF NOT EXISTS bid (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    visit_id BIGINT,
+    patient_username VARCHAR(255),
+    bid_amount DOUBLE NOT NULL,
+    bid_time TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS booking (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    visit_id BIGINT NOT NULL,
+    patient_username VARCHAR(255) NOT NULL,
+    status VARCHAR(255) NOT NULL,
+    created_at TIMESTAMP,
+    updated_at TIMESTAMP
+);
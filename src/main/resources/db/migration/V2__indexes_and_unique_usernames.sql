@@ -0,0 +1,31 @@
+-- 与各 Repository 查询条件对应的索引；已存在的同名索引保持不变
+
+-- 用户名唯一，登录、身份缓存和按用户名查询均走唯一索引
+CREATE UNIQUE INDEX IF NOT EXISTS uk_patient_username ON patient (username);
+CREATE UNIQUE INDEX IF NOT EXISTS uk_doctor_username ON doctor (username);
+CREATE UNIQUE INDEX IF NOT EXISTS uk_admin_username ON admin (username);
+
+-- 按状态查询及按ID键集分页
+CREATE INDEX IF NOT EXISTS idx_patient_status_id ON patient (status, id);
+CREATE INDEX IF NOT EXISTS idx_doctor_status_id ON doctor (status, id);
+CREATE INDEX IF NOT EXISTS idx_admin_status ON admin (status);
+
+-- 出诊：按状态/竞拍的键集分页、按状态/竞拍/时间的范围查询
+CREATE INDEX IF NOT EXISTS idx_visit_status_auction_id ON visit (status, auction, id);
+CREATE INDEX IF NOT EXISTS idx_visit_status_auction_time ON visit (status, auction, visit_time);
+-- 出诊：按医生、按科室、按时间查询
+CREATE INDEX IF NOT EXISTS idx_visit_doctor_time ON visit (doctor_name, visit_time);
+CREATE INDEX IF NOT EXISTS idx_visit_department_time ON visit (department, visit_time);
+CREATE INDEX IF NOT EXISTS idx_visit_time ON visit (visit_time);
+-- 出诊：周期性出诊模板
+CREATE INDEX IF NOT EXISTS idx_visit_recurring_day ON visit (recurring, recurring_day_of_week);
+CREATE UNIQUE INDEX IF NOT EXISTS uk_visit_generation_key ON visit (generation_key);
+
+-- 竞价：按出诊查询（含按金额排序）、按患者键集分页
+CREATE INDEX IF NOT EXISTS idx_bid_visit_amount ON bid (visit_id, bid_amount);
+CREATE INDEX IF NOT EXISTS idx_bid_patient_id ON bid (patient_username, id);
+
+-- 预约
+CREATE UNIQUE INDEX IF NOT EXISTS uk_booking_visit_patient ON booking (visit_id, patient_username);
+CREATE INDEX IF NOT EXISTS idx_booking_patient_status ON booking (patient_username, status);
+CREATE INDEX IF NOT EXISTS idx_booking_visit_status ON booking (visit_id, status);
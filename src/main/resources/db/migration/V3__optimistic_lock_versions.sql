@@ -0,0 +1,3 @@
+-- 出诊和患者的乐观锁版本号，已有记录从0开始
+ALTER TABLE visit ADD COLUMN IF NOT EXISTS version BIGINT DEFAULT 0 NOT NULL;
+ALTER TABLE patient ADD COLUMN IF NOT EXISTS version BIGINT DEFAULT 0 NOT NULL;
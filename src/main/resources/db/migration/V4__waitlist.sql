@@ -0,0 +1,13 @@
+-- 号源已挂完的出诊的候补队列，按 信用分降序、ID 升序 出队
+CREATE TABLE IF NOT EXISTS waitlist_entry (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    visit_id BIGINT NOT NULL,
+    patient_username VARCHAR(255) NOT NULL,
+    credit_score INTEGER NOT NULL,
+    created_at TIMESTAMP
+);
+
+-- 每个患者在同一出诊上只排一次
+CREATE UNIQUE INDEX IF NOT EXISTS uk_waitlist_visit_patient ON waitlist_entry (visit_id, patient_username);
+-- 按出诊加载队列
+CREATE INDEX IF NOT EXISTS idx_waitlist_visit_score ON waitlist_entry (visit_id, credit_score, id);
@@ -0,0 +1,15 @@
+-- 支付、取消和竞价请求的幂等结果，hospital.idempotency.persist=true 时写入，过期后定期删除
+CREATE TABLE IF NOT EXISTS idempotency_record (
+    username VARCHAR(255) NOT NULL,
+    idempotency_key VARCHAR(128) NOT NULL,
+    fingerprint VARCHAR(512) NOT NULL,
+    status INTEGER NOT NULL,
+    body CLOB,
+    json_body BOOLEAN NOT NULL,
+    expires_at TIMESTAMP NOT NULL
+);
+
+-- 按 用户名 + 键 查找和覆盖写入
+CREATE UNIQUE INDEX IF NOT EXISTS uk_idempotency_user_key ON idempotency_record (username, idempotency_key);
+-- 清理过期记录
+CREATE INDEX IF NOT EXISTS idx_idempotency_expires ON idempotency_record (expires_at);
@@ -0,0 +1,31 @@
+-- 每一次出价的历史记录，只追加不修改
+CREATE TABLE IF NOT EXISTS bid_history (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    visit_id BIGINT NOT NULL,
+    patient_username VARCHAR(255) NOT NULL,
+    bid_amount DOUBLE NOT NULL,
+    bid_time TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS idx_bid_history_patient_id ON bid_history (patient_username, id);
+CREATE INDEX IF NOT EXISTS idx_bid_history_visit_id ON bid_history (visit_id, id);
+
+-- 已有的出价全部转入历史
+INSERT INTO bid_history (visit_id, patient_username, bid_amount, bid_time)
+SELECT visit_id, patient_username, bid_amount, bid_time FROM bid
+WHERE visit_id IS NOT NULL AND patient_username IS NOT NULL
+ORDER BY id;
+
+-- 每个患者在每个出诊上只保留最高的一次出价（同金额保留最早的），与结算的排名规则一致
+DELETE FROM bid WHERE visit_id IS NULL OR patient_username IS NULL;
+DELETE FROM bid b WHERE EXISTS (
+    SELECT 1 FROM bid o
+    WHERE o.visit_id = b.visit_id AND o.patient_username = b.patient_username
+      AND (o.bid_amount > b.bid_amount OR (o.bid_amount = b.bid_amount AND o.id < b.id))
+);
+
+-- 同一患者并发加价的乐观锁版本号
+ALTER TABLE bid ADD COLUMN IF NOT EXISTS version BIGINT DEFAULT 0 NOT NULL;
+
+-- 每个 (出诊, 患者) 只有一条当前出价
+CREATE UNIQUE INDEX IF NOT EXISTS uk_bid_visit_patient ON bid (visit_id, patient_username);
@@ -0,0 +1,25 @@
+-- 将旧版 Visit.bookedBy 集合表 visit_booked_by 中的数据迁移到 booking 表，旧数据保留在 visit_booked_by_legacy 中。
+-- 在 EntityManagerFactory 和各内存缓存加载之前执行；每条语句都可重复执行，中途失败后下次启动重新执行不会重复写入。
+-- 新建的库中没有旧表，先建空表使后续语句可以统一执行
+CREATE TABLE IF NOT EXISTS visit_booked_by (
+    visit_id BIGINT,
+    booked_by VARCHAR(255)
+);
+CREATE TABLE IF NOT EXISTS visit_booked_by_legacy (
+    visit_id BIGINT,
+    booked_by VARCHAR(255)
+);
+
+INSERT INTO booking (visit_id, patient_username, status, created_at, updated_at)
+SELECT DISTINCT l.visit_id, l.booked_by, 'BOOKED', CURRENT_TIMESTAMP, CURRENT_TIMESTAMP
+FROM visit_booked_by l
+WHERE l.visit_id IS NOT NULL AND l.booked_by IS NOT NULL
+  AND NOT EXISTS (SELECT 1 FROM booking b WHERE b.visit_id = l.visit_id AND b.patient_username = l.booked_by);
+
+INSERT INTO visit_booked_by_legacy (visit_id, booked_by)
+SELECT DISTINCT l.visit_id, l.booked_by
+FROM visit_booked_by l
+WHERE NOT EXISTS (SELECT 1 FROM visit_booked_by_legacy o WHERE o.visit_id = l.visit_id AND o.booked_by = l.booked_by);
+
+-- DDL 会先提交上面的写入，旧表只在数据转移完成后删除
+DROP TABLE visit_booked_by;
@@ -0,0 +1,5 @@
+-- 已完成的竞拍结算日期：午夜任务结算完当天的全部竞拍后写入，启动时据此判断当天的结算是否被中断或错过
+CREATE TABLE IF NOT EXISTS settlement_run (
+    settlement_date DATE NOT NULL PRIMARY KEY,
+    completed_at TIMESTAMP NOT NULL
+);
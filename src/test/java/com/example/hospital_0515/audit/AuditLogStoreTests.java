@@ -0,0 +1,133 @@
+package com.example.hospital_0515.audit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 追加、提交、重新打开段文件和字典后，按用户、出诊和时间范围分页查询；旧版文本日志只导入一次。
+ */
+class AuditLogStoreTests {
+
+	private static final long BASE = 1_700_000_000_000L;
+	private static final int BOOKINGS = 300;
+
+	@TempDir
+	File directory;
+
+	@Test
+	void reopenedStoreAnswersIndexedAndTimeRangeQueries() throws Exception {
+		AuditLogStore store = new AuditLogStore(directory);
+		int appended = 0;
+		for (int i = 0; i < BOOKINGS; i++) {
+			store.append(AuditRecord.booking(BASE + i * 1000L, "BOOK", "patient-" + (i % 3), 10L + i % 5));
+			appended++;
+			if (i % 10 == 0) {
+				store.append(AuditRecord.admin(BASE + i * 1000L, "APPROVE", "admin", "patient-" + i, (long) i));
+				appended++;
+			}
+		}
+		store.commit();
+		// 未提交的记录重新打开后不可见
+		store.append(AuditRecord.booking(BASE + BOOKINGS * 1000L, "BOOK", "ghost", 99L));
+
+		AuditLogStore reopened = new AuditLogStore(directory);
+		assertEquals(appended, reopened.size());
+
+		AuditQuery byActor = new AuditQuery();
+		byActor.setActor("patient-1");
+		byActor.setLimit(30);
+		List<AuditRecord> actorRecords = drain(reopened, byActor);
+		assertEquals(BOOKINGS / 3, actorRecords.size());
+		for (AuditRecord record : actorRecords) {
+			assertEquals("patient-1", record.getActor());
+			assertEquals(AuditRecord.Kind.BOOKING, record.getKind());
+		}
+
+		AuditQuery byVisit = new AuditQuery();
+		byVisit.setVisitId(12L);
+		byVisit.setLimit(7);
+		List<AuditRecord> visitRecords = drain(reopened, byVisit);
+		assertEquals(BOOKINGS / 5, visitRecords.size());
+		for (AuditRecord record : visitRecords) {
+			assertEquals(12L, record.getTargetId().longValue());
+		}
+
+		// 时间范围两端包含，第100到199条预约及其间的10条管理员记录
+		AuditQuery byTime = new AuditQuery();
+		byTime.setFrom(BASE + 100_000L);
+		byTime.setTo(BASE + 199_000L);
+		byTime.setLimit(25);
+		List<AuditRecord> timeRecords = drain(reopened, byTime);
+		assertEquals(110, timeRecords.size());
+		assertEquals(BASE + 100_000L, timeRecords.get(0).getTimestamp());
+		assertEquals(BASE + 199_000L, timeRecords.get(timeRecords.size() - 1).getTimestamp());
+
+		AuditQuery ghost = new AuditQuery();
+		ghost.setActor("ghost");
+		AuditPage page = reopened.query(ghost);
+		assertTrue(page.getRecords().isEmpty());
+		assertNull(page.getNext());
+
+		// 重新打开后继续追加，覆盖未提交的记录
+		reopened.append(AuditRecord.booking(BASE + BOOKINGS * 1000L, "CANCEL", "patient-1", 10L));
+		reopened.commit();
+		assertEquals(appended + 1, new AuditLogStore(directory).size());
+	}
+
+	@Test
+	void legacyTextLogIsImportedOnce() throws Exception {
+		File bookingLog = new File(directory, "patient.log");
+		Files.write(bookingLog.toPath(), Arrays.asList(
+				"Operation: BOOK, Patient: patient-1, Visit ID: 10, Timestamp: " + BASE,
+				"Operation: CANCEL, Patient: patient-1, Visit ID: 10, Timestamp: " + (BASE + 1000L),
+				"not a log line"), StandardCharsets.UTF_8);
+		File audit = new File(directory, "audit");
+
+		TextLogImporter importer = new TextLogImporter(new AuditLogStore(audit));
+		assertFalse(importer.isImported(bookingLog));
+		assertEquals(2, importer.importBookingLog(bookingLog));
+		assertEquals(-1, importer.importBookingLog(bookingLog));
+
+		// 标记随记录一起提交，重新打开后仍然跳过，文本日志不被修改
+		AuditLogStore reopened = new AuditLogStore(audit);
+		assertTrue(new TextLogImporter(reopened).isImported(bookingLog));
+		assertEquals(-1, new TextLogImporter(reopened).importBookingLog(bookingLog));
+		assertEquals(3, reopened.size());
+		assertTrue(bookingLog.exists());
+
+		AuditQuery byActor = new AuditQuery();
+		byActor.setActor("patient-1");
+		assertEquals(2, drain(reopened, byActor).size());
+	}
+
+	/**
+	 * 按 next 游标读取所有页，检查位置严格递增
+	 */
+	private static List<AuditRecord> drain(AuditLogStore store, AuditQuery query) {
+		List<AuditRecord> records = new ArrayList<>();
+		Long after = null;
+		do {
+			query.setAfter(after);
+			AuditPage page = store.query(query);
+			assertTrue(page.getRecords().size() <= query.getLimit());
+			records.addAll(page.getRecords());
+			after = page.getNext();
+		} while (after != null);
+		for (int i = 1; i < records.size(); i++) {
+			assertTrue(records.get(i).getPosition() > records.get(i - 1).getPosition());
+		}
+		return records;
+	}
+}
@@ -0,0 +1,345 @@
+package com.example.hospital_0515.loadtest;
+
+import com.example.hospital_0515.service.SlotInventoryService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.File;
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 模拟早上7点挂号高峰和午夜前竞拍的闭环压测。
+ * 启动应用（内存 H2），通过 /api/patients/generate 和 /api/doctors/generate 创建账号，医生表单登录后发布出诊，
+ * 之后每个工作线程不断重复完整会话：患者登录 → 查询可预约出诊 → 挂号 → 支付，或患者登录 → 查询竞拍出诊 → 出价。
+ * 结束时输出各接口的吞吐量和延迟分布，并检查超卖和号源守恒，结果以 JSON 写入 target/loadtest。
+ * 默认不执行，用 -Dloadtest=true 开启，参数见下方 loadtest.* 系统属性。
+ * 本类在平台线程模式下运行，{@link VirtualThreadBookingRushLoadTest} 用相同负载在虚拟线程模式下运行，
+ * 两份报告文件名分别带 platform 和 virtual，用于比较两种模式。
+ */
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"spring.datasource.url=jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1",
+		"spring.main.banner-mode=off"
+})
+class BookingRushLoadTest {
+
+	private static final int PATIENTS = Integer.getInteger("loadtest.patients", 2_000);
+	private static final int DOCTORS = Integer.getInteger("loadtest.doctors", 50);
+	private static final int VISITS_PER_DOCTOR = Integer.getInteger("loadtest.visits-per-doctor", 6);
+	private static final int SLOTS_PER_VISIT = Integer.getInteger("loadtest.slots-per-visit", 20);
+	private static final int AUCTIONS_PER_DOCTOR = Integer.getInteger("loadtest.auctions-per-doctor", 1);
+	private static final int WORKERS = Integer.getInteger("loadtest.workers", 500);
+	private static final int DURATION_SECONDS = Integer.getInteger("loadtest.duration-seconds", 60);
+	// 出价会话占全部会话的百分比，其余为挂号会话
+	private static final int BID_PERCENT = Integer.getInteger("loadtest.bid-percent", 20);
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private SlotInventoryService slotInventoryService;
+
+	@Value("${hospital.threads.virtual:false}")
+	private boolean virtualThreads;
+
+	private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+	// 出诊ID -> 客户端收到支付成功的次数
+	private final Map<Long, AtomicLong> paidByVisit = new ConcurrentHashMap<>();
+	private final AtomicLong sessions = new AtomicLong();
+	private final AtomicLong failedSessions = new AtomicLong();
+
+	@Test
+	void bookingRush() throws Exception {
+		setUp();
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+		ExecutorService workers = newWorkerExecutor();
+		long start = System.nanoTime();
+		for (int w = 0; w < WORKERS; w++) {
+			workers.execute(() -> {
+				while (System.nanoTime() < deadline) {
+					runSession();
+				}
+			});
+		}
+		workers.shutdown();
+		workers.awaitTermination(DURATION_SECONDS + 120L, TimeUnit.SECONDS);
+		double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+		List<String> violations = checkConsistency();
+		Map<String, Object> report = new LinkedHashMap<>();
+		report.put("startedAt", LocalDateTime.now().toString());
+		report.put("serverThreads", serverThreads());
+		report.put("workers", WORKERS);
+		report.put("executor", workers.getClass().getName());
+		report.put("elapsedSeconds", elapsedSeconds);
+		report.put("sessions", sessions.get());
+		report.put("failedSessions", failedSessions.get());
+		report.put("sessionsPerSecond", sessions.get() / elapsedSeconds);
+		Map<String, Object> endpoints = new LinkedHashMap<>();
+		histograms.forEach((name, histogram) -> endpoints.put(name, histogram.summary(elapsedSeconds)));
+		report.put("endpoints", endpoints);
+		report.put("violations", violations);
+
+		File dir = new File(System.getProperty("loadtest.output", "target/loadtest"));
+		dir.mkdirs();
+		File file = new File(dir, "booking-rush-" + serverThreads() + "-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json");
+		objectMapper.copy().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, report);
+		System.out.println("----Load test: " + sessions.get() + " sessions, " + violations.size()
+				+ " violations, report written to " + file.getAbsolutePath() + " ----");
+		assertTrue(violations.isEmpty(), String.join("\n", violations));
+	}
+
+	/**
+	 * 生成账号，医生登录后发布明天的普通出诊和竞拍出诊，管理员登录后审批
+	 */
+	private void setUp() throws Exception {
+		Session anonymous = new Session();
+		anonymous.send("generatePatients", post("/api/patients/generate?count=" + PATIENTS, ""));
+		anonymous.send("generateDoctors", post("/api/doctors/generate?count=" + DOCTORS, ""));
+
+		List<Long> normal = new ArrayList<>();
+		List<Long> auctions = new ArrayList<>();
+		LocalDateTime tomorrow = LocalDate.now().plusDays(1).atTime(8, 0);
+		for (int d = 0; d < DOCTORS; d++) {
+			Session doctor = new Session();
+			doctor.login("doctor" + d, "p" + d);
+			for (int v = 0; v < VISITS_PER_DOCTOR + AUCTIONS_PER_DOCTOR; v++) {
+				boolean auction = v >= VISITS_PER_DOCTOR;
+				Map<String, Object> visit = new LinkedHashMap<>();
+				visit.put("department", "Department " + d);
+				visit.put("visitTime", tomorrow.plusMinutes(30L * v).toString());
+				visit.put("availableSlots", auction ? 1 : SLOTS_PER_VISIT);
+				HttpResponse<String> response = doctor.send("createVisit",
+						postJson(auction ? "/api/visits/create-auction" : "/api/visits/create", objectMapper.writeValueAsString(visit)));
+				(auction ? auctions : normal).add(objectMapper.readTree(response.body()).get("id").asLong());
+			}
+		}
+
+		Session admin = new Session();
+		admin.login("admin", "admin");
+		for (Long id : normal) {
+			admin.send("approveVisit", put("/api/visits/approve/" + id));
+			paidByVisit.put(id, new AtomicLong());
+		}
+		for (Long id : auctions) {
+			admin.send("approveAuctionVisit", put("/api/visits/approve-auction/" + id));
+		}
+		// 准备阶段的请求不计入结果
+		histograms.clear();
+	}
+
+	private void runSession() {
+		Session session = new Session();
+		int patient = ThreadLocalRandom.current().nextInt(PATIENTS);
+		try {
+			session.login("patient" + patient, "p" + patient);
+			if (ThreadLocalRandom.current().nextInt(100) < BID_PERCENT) {
+				bidSession(session);
+			} else {
+				bookingSession(session);
+			}
+			sessions.incrementAndGet();
+		} catch (Exception e) {
+			failedSessions.incrementAndGet();
+		}
+	}
+
+	private void bookingSession(Session session) throws Exception {
+		JsonNode visits = objectMapper.readTree(session.send("listAvailable", get("/api/visits/patient")).body());
+		List<Long> open = new ArrayList<>();
+		for (JsonNode visit : visits) {
+			if (visit.get("availableSlots").asInt() > 0) {
+				open.add(visit.get("id").asLong());
+			}
+		}
+		if (open.isEmpty()) {
+			return;
+		}
+		Long id = open.get(ThreadLocalRandom.current().nextInt(open.size()));
+		if (session.send("book", put("/api/visits/book/" + id)).statusCode() != 200) {
+			return;
+		}
+		if (session.send("pay", put("/api/visits/pay/" + id)).statusCode() == 200) {
+			paidByVisit.get(id).incrementAndGet();
+		}
+	}
+
+	private void bidSession(Session session) throws Exception {
+		JsonNode auctions = objectMapper.readTree(session.send("listAuctions", get("/api/visits/available-auction?fields=id")).body());
+		if (auctions.size() == 0) {
+			return;
+		}
+		long id = auctions.get(ThreadLocalRandom.current().nextInt(auctions.size())).get("id").asLong();
+		session.send("placeBid", post("/api/bids/place?visitId=" + id + "&amount=" + (100 + ThreadLocalRandom.current().nextInt(900)), ""));
+	}
+
+	/**
+	 * 检查超卖和号源守恒：
+	 * 每个出诊的有效预约数不超过号源，有效预约数 + 剩余号源 = 初始号源，客户端收到的支付成功次数等于有效预约数
+	 */
+	private List<String> checkConsistency() {
+		slotInventoryService.flush();
+		Map<Long, Long> booked = new ConcurrentHashMap<>();
+		jdbcTemplate.query("SELECT visit_id, COUNT(*) FROM booking WHERE status = 'BOOKED' GROUP BY visit_id",
+				rs -> {
+					booked.put(rs.getLong(1), rs.getLong(2));
+				});
+		List<String> violations = new ArrayList<>();
+		paidByVisit.forEach((id, paid) -> {
+			long count = booked.getOrDefault(id, 0L);
+			int available = slotInventoryService.available(id);
+			if (count > SLOTS_PER_VISIT) {
+				violations.add("出诊 " + id + " 超卖: " + count + " 个有效预约, 号源 " + SLOTS_PER_VISIT);
+			}
+			if (count + available != SLOTS_PER_VISIT) {
+				violations.add("出诊 " + id + " 号源不守恒: 有效预约 " + count + " + 剩余 " + available + " != " + SLOTS_PER_VISIT);
+			}
+			if (paid.get() != count) {
+				violations.add("出诊 " + id + " 支付成功 " + paid.get() + " 次, 有效预约 " + count + " 个");
+			}
+		});
+		return violations;
+	}
+
+	private String serverThreads() {
+		return virtualThreads ? "virtual" : "platform";
+	}
+
+	/**
+	 * Java 21 及以上使用虚拟线程，每个会话一个线程；更早的版本退回到固定大小线程池
+	 */
+	private static ExecutorService newWorkerExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(WORKERS);
+		}
+	}
+
+	private HttpRequest.Builder get(String path) {
+		return HttpRequest.newBuilder(uri(path)).GET();
+	}
+
+	private HttpRequest.Builder put(String path) {
+		return HttpRequest.newBuilder(uri(path)).PUT(HttpRequest.BodyPublishers.noBody());
+	}
+
+	private HttpRequest.Builder post(String path, String form) {
+		return HttpRequest.newBuilder(uri(path))
+				.header("Content-Type", "application/x-www-form-urlencoded")
+				.POST(HttpRequest.BodyPublishers.ofString(form));
+	}
+
+	private HttpRequest.Builder postJson(String path, String json) {
+		return HttpRequest.newBuilder(uri(path))
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(json));
+	}
+
+	private URI uri(String path) {
+		return URI.create("http://localhost:" + port + path);
+	}
+
+	/**
+	 * 一个用户会话，登录后的 JSESSIONID 保存在自己的 CookieManager 中
+	 */
+	private class Session {
+
+		private final HttpClient client = HttpClient.newBuilder()
+				.cookieHandler(new CookieManager())
+				.connectTimeout(Duration.ofSeconds(10))
+				.build();
+
+		void login(String username, String password) throws Exception {
+			String form = "username=" + URLEncoder.encode(username, StandardCharsets.UTF_8)
+					+ "&password=" + URLEncoder.encode(password, StandardCharsets.UTF_8);
+			HttpResponse<String> response = send("login", post("/login", form));
+			// 登录成功时重定向到角色页面，失败时重定向到 /login.html?error
+			String location = response.headers().firstValue("Location").orElse("");
+			if (response.statusCode() != 302 || location.contains("error")) {
+				throw new IllegalStateException("登录失败: " + username);
+			}
+		}
+
+		HttpResponse<String> send(String name, HttpRequest.Builder request) throws Exception {
+			long start = System.nanoTime();
+			HttpResponse<String> response = client.send(request.timeout(Duration.ofSeconds(30)).build(),
+					HttpResponse.BodyHandlers.ofString());
+			histograms.computeIfAbsent(name, key -> new LatencyHistogram())
+					.record(System.nanoTime() - start, response.statusCode());
+			return response;
+		}
+	}
+
+	/**
+	 * 一个接口的延迟分布（HdrHistogram，微秒，3位有效数字）和各状态码的次数
+	 */
+	static final class LatencyHistogram {
+
+		private final Histogram histogram = new ConcurrentHistogram(3);
+		private final Map<Integer, AtomicLong> statuses = new ConcurrentHashMap<>();
+
+		void record(long nanos, int status) {
+			histogram.recordValue(Math.max(1, nanos / 1000));
+			statuses.computeIfAbsent(status, key -> new AtomicLong()).incrementAndGet();
+		}
+
+		Map<String, Object> summary(double elapsedSeconds) {
+			Map<String, Object> summary = new LinkedHashMap<>();
+			summary.put("requests", histogram.getTotalCount());
+			summary.put("requestsPerSecond", histogram.getTotalCount() / elapsedSeconds);
+			summary.put("statuses", statuses);
+			summary.put("p50Micros", histogram.getValueAtPercentile(50));
+			summary.put("p90Micros", histogram.getValueAtPercentile(90));
+			summary.put("p99Micros", histogram.getValueAtPercentile(99));
+			summary.put("p999Micros", histogram.getValueAtPercentile(99.9));
+			summary.put("maxMicros", histogram.getMaxValue());
+			Map<Double, Long> percentiles = new LinkedHashMap<>();
+			for (HistogramIterationValue value : histogram.percentiles(5)) {
+				percentiles.put(value.getPercentileLevelIteratedTo(), value.getValueIteratedTo());
+			}
+			summary.put("percentilesMicros", percentiles);
+			return summary;
+		}
+	}
+}
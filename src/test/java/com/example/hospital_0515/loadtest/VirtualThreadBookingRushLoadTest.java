@@ -0,0 +1,19 @@
+package com.example.hospital_0515.loadtest;
+
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * 在虚拟线程模式（hospital.threads.virtual=true）下运行与 {@link BookingRushLoadTest} 相同的挂号高峰压测。
+ * 默认不执行，用 -Dloadtest=true 开启，需要 Java 21 及以上。
+ */
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+@EnabledIf("com.example.hospital_0515.util.VirtualThreads#isSupported")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"spring.datasource.url=jdbc:h2:mem:loadtest-virtual;DB_CLOSE_DELAY=-1",
+		"spring.main.banner-mode=off",
+		"hospital.threads.virtual=true"
+})
+class VirtualThreadBookingRushLoadTest extends BookingRushLoadTest {
+}
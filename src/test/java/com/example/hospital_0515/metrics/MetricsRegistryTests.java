@@ -0,0 +1,50 @@
+package com.example.hospital_0515.metrics;
+
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsRegistryTests {
+
+	private final PrometheusMeterRegistry prometheus = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+	private final MetricsRegistry registry = new MetricsRegistry(prometheus);
+
+	@Test
+	void scrapeUsesPrometheusTextFormat() {
+		registry.observe("http_server_requests_sql_statements", "每次请求执行的SQL条数", MetricsRegistry.COUNT_BUCKETS, 3,
+				"uri", "/api/visits/pay/{id}", "method", "PUT");
+		registry.observe("http_server_requests_sql_statements", "每次请求执行的SQL条数", MetricsRegistry.COUNT_BUCKETS, 1000,
+				"uri", "/api/visits/pay/{id}", "method", "PUT");
+		registry.increment("scheduled_job_items_total", "定时任务处理的条数", 3, "job", "auctionSettlement");
+		registry.gauge("db_pool_connections_active", "正在使用的连接数", () -> 2);
+		registry.counter("sql_statements_total", "应用启动以来 Hibernate 执行的SQL条数", () -> 7);
+		registry.gauge("broken", "读取失败", () -> {
+			throw new IllegalStateException();
+		});
+
+		String text = prometheus.scrape();
+		assertTrue(text.contains("# TYPE http_server_requests_sql_statements histogram\n"), text);
+		assertTrue(text.contains("http_server_requests_sql_statements_bucket{method=\"PUT\",uri=\"/api/visits/pay/{id}\",le=\"2.0\",} 0.0\n"), text);
+		assertTrue(text.contains("http_server_requests_sql_statements_bucket{method=\"PUT\",uri=\"/api/visits/pay/{id}\",le=\"3.0\",} 1.0\n"), text);
+		assertTrue(text.contains("http_server_requests_sql_statements_bucket{method=\"PUT\",uri=\"/api/visits/pay/{id}\",le=\"500.0\",} 1.0\n"), text);
+		assertTrue(text.contains("http_server_requests_sql_statements_bucket{method=\"PUT\",uri=\"/api/visits/pay/{id}\",le=\"+Inf\",} 2.0\n"), text);
+		assertTrue(text.contains("http_server_requests_sql_statements_count{method=\"PUT\",uri=\"/api/visits/pay/{id}\",} 2.0\n"), text);
+		assertTrue(text.contains("scheduled_job_items_total{job=\"auctionSettlement\",} 3.0\n"), text);
+		assertTrue(text.contains("db_pool_connections_active 2.0\n"), text);
+		assertTrue(text.contains("sql_statements_total 7.0\n"), text);
+		assertTrue(text.contains("broken NaN\n"), text);
+	}
+
+	@Test
+	void timeJobCountsFailures() {
+		assertThrows(IllegalStateException.class, () -> registry.timeJob("flush", () -> {
+			throw new IllegalStateException();
+		}));
+		String text = prometheus.scrape();
+		assertTrue(text.contains("scheduled_job_failures_total{job=\"flush\",} 1.0\n"), text);
+		assertTrue(text.contains("scheduled_job_duration_seconds_count{job=\"flush\",} 1.0\n"), text);
+	}
+}
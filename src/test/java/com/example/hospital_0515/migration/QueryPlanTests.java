@@ -0,0 +1,211 @@
+package com.example.hospital_0515.migration;
+
+import com.example.hospital_0515.metrics.SqlStatementCounter;
+import com.example.hospital_0515.repository.AdminRepository;
+import com.example.hospital_0515.repository.BidHistoryRepository;
+import com.example.hospital_0515.repository.BidRepository;
+import com.example.hospital_0515.repository.BookingRepository;
+import com.example.hospital_0515.repository.DoctorRepository;
+import com.example.hospital_0515.repository.PatientRepository;
+import com.example.hospital_0515.repository.VisitRepository;
+import com.example.hospital_0515.repository.WaitlistRepository;
+import org.flywaydb.core.Flyway;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 逐个调用每个 Repository 查询方法，经 {@link SqlStatementCounter} 记下 Hibernate 实际生成的SQL，
+ * 再以带 ? 占位符的预编译语句执行 EXPLAIN，任何查询退化为全表扫描时失败。
+ * 参数在生成执行计划时未知，H2 无法像字面量那样把 (:p IS NULL OR ...) 之类的条件常量折叠掉。
+ */
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:query_plan;DB_CLOSE_DELAY=-1",
+		"spring.main.banner-mode=off"
+})
+class QueryPlanTests {
+
+	private static final Class<?>[] REPOSITORIES = {
+			AdminRepository.class, BidHistoryRepository.class, BidRepository.class, BookingRepository.class,
+			DoctorRepository.class, PatientRepository.class, VisitRepository.class, WaitlistRepository.class
+	};
+
+	// 启动时一次性加载的全表聚合或投影，本就需要读取整张表
+	private static final Set<String> FULL_SCAN_ALLOWED = new HashSet<>(Arrays.asList(
+			"VisitRepository.countNormalVisitsByDepartment",
+			"VisitRepository.countNormalVisitsByDoctorName",
+			"DoctorRepository.findAllHospitals"
+	));
+
+	private static final LocalDateTime TIME = LocalDateTime.of(2024, 6, 1, 8, 0);
+
+	@Autowired
+	private ApplicationContext applicationContext;
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Test
+	void migrationsApplyOnlyOnce() throws Exception {
+		JdbcDataSource fresh = new JdbcDataSource();
+		fresh.setURL("jdbc:h2:mem:query_plan_migrate;DB_CLOSE_DELAY=-1");
+		fresh.setUser("sa");
+		assertEquals(8, Flyway.configure().dataSource(fresh).load().migrate().migrationsExecuted);
+		// 再次执行时不应重复执行已执行的脚本
+		assertEquals(0, Flyway.configure().dataSource(fresh).load().migrate().migrationsExecuted);
+		// 应用启动时已迁移过
+		assertEquals(0, Flyway.configure().dataSource(dataSource).load().migrate().migrationsExecuted);
+	}
+
+	@Test
+	void existingSchemaWithoutFlywayHistoryIsUpgraded() throws Exception {
+		JdbcDataSource existing = new JdbcDataSource();
+		existing.setURL("jdbc:h2:mem:query_plan_existing;DB_CLOSE_DELAY=-1");
+		existing.setUser("sa");
+		// 旧版迁移器维护的数据库：表已存在，没有 Flyway 历史表
+		Flyway.configure().dataSource(existing).table("legacy_history").load().migrate();
+		try (Connection connection = existing.getConnection(); Statement statement = connection.createStatement()) {
+			statement.execute("DROP TABLE \"legacy_history\"");
+		}
+		Flyway flyway = Flyway.configure().dataSource(existing).baselineOnMigrate(true).baselineVersion("0").load();
+		assertEquals(8, flyway.migrate().migrationsExecuted);
+		assertEquals("8", flyway.info().current().getVersion().getVersion());
+	}
+
+	@Test
+	void noRepositoryQueryScansWholeTable() throws Exception {
+		List<String> silent = new ArrayList<>();
+		List<String> scans = new ArrayList<>();
+		try (Connection connection = dataSource.getConnection()) {
+			for (Class<?> repository : REPOSITORIES) {
+				Object bean = applicationContext.getBean(repository);
+				for (Method method : repository.getDeclaredMethods()) {
+					String key = repository.getSimpleName() + "." + method.getName();
+					List<String> statements = capture(bean, method, key);
+					if (statements.isEmpty()) {
+						silent.add(key);
+					}
+					if (FULL_SCAN_ALLOWED.contains(key)) {
+						continue;
+					}
+					for (String sql : statements) {
+						String plan = explain(connection, sql);
+						if (plan.contains("tableScan")) {
+							scans.add(key + ": " + plan);
+						}
+					}
+				}
+			}
+		}
+		assertTrue(silent.isEmpty(), "调用后没有发出SQL的查询: " + silent);
+		assertTrue(scans.isEmpty(), "以下查询退化为全表扫描:\n" + String.join("\n", scans));
+	}
+
+	/**
+	 * 用示例参数调用查询方法，返回期间 Hibernate 发出的SQL
+	 */
+	private static List<String> capture(Object bean, Method method, String key) throws Exception {
+		Type[] types = method.getGenericParameterTypes();
+		Object[] args = new Object[types.length];
+		for (int i = 0; i < types.length; i++) {
+			args[i] = argument(types[i], key);
+		}
+		SqlStatementCounter.record();
+		try {
+			method.invoke(bean, args);
+		} catch (InvocationTargetException e) {
+			SqlStatementCounter.stopRecording();
+			throw new IllegalStateException(key + " 调用失败", e.getCause());
+		}
+		return SqlStatementCounter.stopRecording();
+	}
+
+	private static Object argument(Type type, String key) {
+		if (type instanceof ParameterizedType) {
+			ParameterizedType parameterized = (ParameterizedType) type;
+			Class<?> raw = (Class<?>) parameterized.getRawType();
+			Type element = parameterized.getActualTypeArguments()[0];
+			if (Collection.class.isAssignableFrom(raw) && element instanceof Class) {
+				Collection<Object> values = Set.class.isAssignableFrom(raw) ? new LinkedHashSet<>() : new ArrayList<>();
+				for (int i = 1; i <= 3; i++) {
+					values.add(sample((Class<?>) element, i, key));
+				}
+				return values;
+			}
+			throw new IllegalArgumentException(key + " 不支持的参数类型: " + type);
+		}
+		return sample((Class<?>) type, 1, key);
+	}
+
+	private static Object sample(Class<?> type, int i, String key) {
+		if (type == Long.class || type == long.class) {
+			return (long) i;
+		}
+		if (type == Integer.class || type == int.class) {
+			return i;
+		}
+		if (type == Boolean.class || type == boolean.class) {
+			return false;
+		}
+		if (type == String.class) {
+			return "x" + i;
+		}
+		if (type == LocalDateTime.class) {
+			return TIME.plusDays(i - 1);
+		}
+		if (type == DayOfWeek.class) {
+			return DayOfWeek.of(i);
+		}
+		if (type == Pageable.class) {
+			return PageRequest.of(0, 100);
+		}
+		throw new IllegalArgumentException(key + " 不支持的参数类型: " + type);
+	}
+
+	/**
+	 * 所有参数绑定为 NULL 后执行 EXPLAIN；执行计划在预编译时生成，与绑定的值无关
+	 */
+	private static String explain(Connection connection, String sql) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+			int parameters = statement.getParameterMetaData().getParameterCount();
+			for (int i = 1; i <= parameters; i++) {
+				statement.setNull(i, Types.NULL);
+			}
+			try (ResultSet rs = statement.executeQuery()) {
+				StringBuilder plan = new StringBuilder();
+				while (rs.next()) {
+					plan.append(rs.getString(1));
+				}
+				return plan.toString().replaceAll("\\s+", " ");
+			}
+		}
+	}
+}
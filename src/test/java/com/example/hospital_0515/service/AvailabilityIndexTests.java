@@ -0,0 +1,86 @@
+package com.example.hospital_0515.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AvailabilityIndexTests {
+
+	private static final LocalDateTime TODAY = LocalDateTime.of(2024, 6, 1, 0, 0);
+
+	/**
+	 * 每个边界时刻各放一个出诊，ID 按时间顺序编号
+	 */
+	private static AvailabilityIndex index() {
+		AvailabilityIndex index = new AvailabilityIndex();
+		index.put(slot(1, TODAY.plusHours(6).plusMinutes(59)), true);
+		index.put(slot(2, TODAY.plusHours(7)), true);
+		index.put(slot(3, TODAY.plusHours(8).plusMinutes(30)), true);
+		index.put(slot(4, TODAY.plusHours(11).plusMinutes(59)), true);
+		index.put(slot(5, TODAY.plusHours(12)), true);
+		index.put(slot(6, TODAY.plusHours(23).plusMinutes(59)), true);
+		index.put(slot(7, TODAY.plusDays(1)), true);
+		index.put(slot(8, TODAY.plusDays(3).plusHours(12)), true);
+		index.put(slot(9, TODAY.plusDays(4)), true);
+		index.put(slot(10, TODAY.plusDays(4).plusMinutes(1)), true);
+		return index;
+	}
+
+	@Test
+	void beforeSevenOnlyTodayAfternoonIsBookable() {
+		assertEquals(Arrays.asList(5L, 6L, 7L, 8L, 9L), ids(index(), TODAY.plusHours(6).plusMinutes(59)));
+	}
+
+	@Test
+	void sevenToNineOpensTheRestOfToday() {
+		assertEquals(Arrays.asList(2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L), ids(index(), TODAY.plusHours(7)));
+		assertEquals(Arrays.asList(4L, 5L, 6L, 7L, 8L, 9L), ids(index(), TODAY.plusHours(8).plusMinutes(59)));
+	}
+
+	@Test
+	void nineToFourteenOpensOnlyTodayAfternoon() {
+		assertEquals(Arrays.asList(5L, 6L, 7L, 8L, 9L), ids(index(), TODAY.plusHours(9)));
+		assertEquals(Arrays.asList(5L, 6L, 7L, 8L, 9L), ids(index(), TODAY.plusHours(13).plusMinutes(59)));
+	}
+
+	@Test
+	void fromFourteenOnlyTomorrowOnwardsIsBookable() {
+		assertEquals(Arrays.asList(7L, 8L, 9L), ids(index(), TODAY.plusHours(14)));
+	}
+
+	@Test
+	void filtersByDepartmentDoctorAndSlots() {
+		AvailabilityIndex index = new AvailabilityIndex();
+		index.put(new AvailabilityIndex.Slot(1, TODAY.plusDays(1).plusHours(9), "内科", "doctorA"), true);
+		index.put(new AvailabilityIndex.Slot(2, TODAY.plusDays(1).plusHours(10), "外科", "doctorB"), true);
+		index.put(new AvailabilityIndex.Slot(3, TODAY.plusDays(2).plusHours(15), "内科", "doctorC"), false);
+		LocalDateTime now = TODAY.plusHours(15);
+
+		assertEquals(Arrays.asList(1L), ids(index.findBookable("内科", null, now)));
+		assertEquals(Arrays.asList(2L), ids(index.findBookable(null, "doctorB", now)));
+		assertEquals(Arrays.asList(1L, 2L), ids(index.findBookable("", "", now)));
+
+		// 号源归还后重新可预约
+		index.updateSlots(3, id -> true);
+		assertEquals(Arrays.asList(1L, 3L), ids(index.findBookable("内科", null, now)));
+		index.remove(1);
+		assertEquals(Arrays.asList(3L), ids(index.findBookable("内科", null, now)));
+	}
+
+	private static AvailabilityIndex.Slot slot(long id, LocalDateTime visitTime) {
+		return new AvailabilityIndex.Slot(id, visitTime, "内科", "doctorA");
+	}
+
+	private static List<Long> ids(AvailabilityIndex index, LocalDateTime now) {
+		return ids(index.findBookable(null, null, now));
+	}
+
+	private static List<Long> ids(List<AvailabilityIndex.Slot> slots) {
+		return slots.stream().map(AvailabilityIndex.Slot::getId).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,90 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.model.Bid;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 同一患者反复出价和并发加价后，竞价表中只有一条最高出价，每次有效出价都记入历史。
+ */
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:bid_upsert;DB_CLOSE_DELAY=-1",
+		"spring.main.banner-mode=off",
+		"hospital.retry.max-attempts=30",
+		"hospital.retry.max-delay-ms=50"
+})
+class BidServiceTests {
+
+	@Autowired
+	private BidService bidService;
+
+	@Autowired
+	private ConflictRetryExecutor conflictRetryExecutor;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void raisesUpdateTheLiveBidInPlace() {
+		Bid first = bidService.place(1L, "bid-patient", 100, LocalDateTime.now());
+		Bid raised = bidService.place(1L, "bid-patient", 150, LocalDateTime.now());
+		assertEquals(first.getId(), raised.getId());
+		assertNull(bidService.place(1L, "bid-patient", 120, LocalDateTime.now()));
+
+		assertEquals(1, count("SELECT COUNT(*) FROM bid WHERE visit_id = 1 AND patient_username = 'bid-patient'"));
+		assertEquals(150.0, amount(1L, "bid-patient"));
+		assertEquals(2, count("SELECT COUNT(*) FROM bid_history WHERE visit_id = 1 AND patient_username = 'bid-patient'"));
+	}
+
+	@Test
+	void concurrentBidsKeepOneRowWithTheHighestAmount() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicInteger accepted = new AtomicInteger();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 1; i <= 200; i++) {
+			double amount = i;
+			futures.add(executor.submit(() -> {
+				start.await();
+				Bid bid = conflictRetryExecutor.execute("test",
+						() -> bidService.place(2L, "bid-racer", amount, LocalDateTime.now()));
+				if (bid != null) {
+					accepted.incrementAndGet();
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+
+		assertEquals(1, count("SELECT COUNT(*) FROM bid WHERE visit_id = 2"));
+		assertEquals(200.0, amount(2L, "bid-racer"));
+		assertEquals(accepted.get(), count("SELECT COUNT(*) FROM bid_history WHERE visit_id = 2"));
+	}
+
+	private int count(String sql) {
+		return jdbcTemplate.queryForObject(sql, Integer.class);
+	}
+
+	private double amount(Long visitId, String patientUsername) {
+		return jdbcTemplate.queryForObject("SELECT bid_amount FROM bid WHERE visit_id = ? AND patient_username = ?",
+				Double.class, visitId, patientUsername);
+	}
+}
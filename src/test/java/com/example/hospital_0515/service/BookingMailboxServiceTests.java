@@ -0,0 +1,196 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.model.Visit;
+import com.example.hospital_0515.repository.VisitRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 单个热门出诊上的并发支付和取消，检查信箱批量执行后不超卖、不重复预约、号源守恒，期间并发回写不重复扣减；
+ * 以及取消后候补按信用分转正。
+ * 号源的定时回写间隔设为一小时，数据库中的号源只能来自写入预约的事务。
+ */
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:booking_mailbox;DB_CLOSE_DELAY=-1",
+		"spring.main.banner-mode=off",
+		"hospital.booking.mailboxes=4",
+		"hospital.slot-inventory.flush-interval-ms=3600000"
+})
+class BookingMailboxServiceTests {
+
+	private static final int SLOTS = 100;
+	private static final int PATIENTS = 300;
+
+	@Autowired
+	private BookingMailboxService bookingMailboxService;
+
+	@Autowired
+	private SlotInventoryService slotInventoryService;
+
+	@Autowired
+	private WaitlistService waitlistService;
+
+	@Autowired
+	private VisitRepository visitRepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void hotVisitNeverOversellsOrDoubleBooks() throws Exception {
+		Long visitId = createVisit("mailbox-doctor", SLOTS);
+
+		// 每个患者支付两次，其中一部分患者支付成功后立即取消
+		Map<BookingMailboxService.Outcome, AtomicInteger> outcomes = new ConcurrentHashMap<>();
+		ExecutorService executor = Executors.newFixedThreadPool(64);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < PATIENTS * 2; i++) {
+			String patient = "mailbox-patient-" + (i % PATIENTS);
+			boolean cancelAfterPay = i % PATIENTS % 5 == 0;
+			futures.add(executor.submit(() -> {
+				start.await();
+				BookingMailboxService.Outcome outcome = bookingMailboxService.pay(visitId, patient);
+				outcomes.computeIfAbsent(outcome, key -> new AtomicInteger()).incrementAndGet();
+				if (outcome == BookingMailboxService.Outcome.BOOKED && cancelAfterPay) {
+					outcome = bookingMailboxService.cancel(visitId, patient);
+					outcomes.computeIfAbsent(outcome, key -> new AtomicInteger()).incrementAndGet();
+				}
+				return null;
+			}));
+		}
+		// 挂号期间不断回写，信箱暂扣的号源不能先被回写、再随预约事务扣减一次
+		AtomicBoolean running = new AtomicBoolean(true);
+		Future<?> flusher = executor.submit(() -> {
+			start.await();
+			while (running.get()) {
+				slotInventoryService.flush();
+				Thread.sleep(1);
+			}
+			return null;
+		});
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		running.set(false);
+		flusher.get();
+		executor.shutdown();
+
+		int booked = count(outcomes, BookingMailboxService.Outcome.BOOKED);
+		int cancelled = count(outcomes, BookingMailboxService.Outcome.CANCELLED);
+		Integer active = jdbcTemplate.queryForObject(
+				"SELECT COUNT(*) FROM booking WHERE visit_id = ? AND status = 'BOOKED'", Integer.class, visitId);
+		Integer distinct = jdbcTemplate.queryForObject(
+				"SELECT COUNT(DISTINCT patient_username) FROM booking WHERE visit_id = ? AND status = 'BOOKED'", Integer.class, visitId);
+		Integer stored = jdbcTemplate.queryForObject("SELECT available_slots FROM visit WHERE id = ?", Integer.class, visitId);
+
+		assertEquals(booked - cancelled, active.intValue());
+		assertEquals(active.intValue(), distinct.intValue());
+		assertEquals(SLOTS - active, stored.intValue());
+		assertEquals(SLOTS - active, slotInventoryService.available(visitId));
+	}
+
+	@Test
+	void slotCountIsCommittedWithBookingsBeforeAnyFlush() {
+		Long visitId = createVisit("durable-doctor", 3);
+		assertEquals(BookingMailboxService.Outcome.BOOKED, bookingMailboxService.pay(visitId, "durable-a"));
+		assertEquals(BookingMailboxService.Outcome.BOOKED, bookingMailboxService.pay(visitId, "durable-b"));
+		assertEquals(1, storedSlots(visitId));
+		assertEquals(BookingMailboxService.Outcome.CANCELLED, bookingMailboxService.cancel(visitId, "durable-a"));
+		assertEquals(2, storedSlots(visitId));
+
+		// 模拟重启：丢弃内存计数后从数据库重建，不会多出已售出的号源
+		slotInventoryService.invalidate(visitId);
+		assertEquals(2, slotInventoryService.available(visitId));
+		assertEquals(BookingMailboxService.Outcome.BOOKED, bookingMailboxService.pay(visitId, "durable-c"));
+		assertEquals(BookingMailboxService.Outcome.BOOKED, bookingMailboxService.pay(visitId, "durable-d"));
+		assertEquals(BookingMailboxService.Outcome.SOLD_OUT, bookingMailboxService.pay(visitId, "durable-e"));
+		assertEquals(0, storedSlots(visitId));
+
+		// 回写时不会重复写入已随事务提交的变化
+		slotInventoryService.flush();
+		assertEquals(0, storedSlots(visitId));
+	}
+
+	@Test
+	void cancellationPromotesWaitlistHeadByCreditScore() {
+		Long visitId = createVisit("waitlist-doctor", 2);
+		assertEquals(BookingMailboxService.Outcome.BOOKED, bookingMailboxService.pay(visitId, "waitlist-a"));
+		assertEquals(BookingMailboxService.Outcome.BOOKED, bookingMailboxService.pay(visitId, "waitlist-b"));
+		assertEquals(BookingMailboxService.Outcome.SOLD_OUT, bookingMailboxService.pay(visitId, "waitlist-c"));
+
+		assertEquals(BookingMailboxService.Outcome.WAITLISTED, bookingMailboxService.joinWaitlist(visitId, "waitlist-c", 80));
+		assertEquals(BookingMailboxService.Outcome.WAITLISTED, bookingMailboxService.joinWaitlist(visitId, "waitlist-d", 100));
+		assertEquals(BookingMailboxService.Outcome.WAITLISTED, bookingMailboxService.joinWaitlist(visitId, "waitlist-e", 80));
+		assertEquals(BookingMailboxService.Outcome.ALREADY_WAITLISTED, bookingMailboxService.joinWaitlist(visitId, "waitlist-c", 80));
+		assertEquals(BookingMailboxService.Outcome.ALREADY_BOOKED, bookingMailboxService.joinWaitlist(visitId, "waitlist-a", 100));
+		assertEquals(1, waitlistService.position(visitId, "waitlist-d"));
+		assertEquals(2, waitlistService.position(visitId, "waitlist-c"));
+		assertEquals(3, waitlistService.position(visitId, "waitlist-e"));
+
+		// 信用分最高的候补直接转正，号源不回到计数中
+		assertEquals(BookingMailboxService.Outcome.CANCELLED, bookingMailboxService.cancel(visitId, "waitlist-a"));
+		assertEquals(0, slotInventoryService.available(visitId));
+		assertEquals("BOOKED", bookingStatus(visitId, "waitlist-d"));
+		assertEquals(0, waitlistService.position(visitId, "waitlist-d"));
+		assertEquals(1, waitlistService.position(visitId, "waitlist-c"));
+
+		assertEquals(BookingMailboxService.Outcome.LEFT_WAITLIST, bookingMailboxService.leaveWaitlist(visitId, "waitlist-c"));
+		assertEquals(BookingMailboxService.Outcome.NOT_WAITLISTED, bookingMailboxService.leaveWaitlist(visitId, "waitlist-c"));
+
+		assertEquals(BookingMailboxService.Outcome.CANCELLED, bookingMailboxService.cancel(visitId, "waitlist-b"));
+		assertEquals("BOOKED", bookingStatus(visitId, "waitlist-e"));
+
+		// 此前取消过的患者转正时复用原有预约记录
+		assertEquals(BookingMailboxService.Outcome.WAITLISTED, bookingMailboxService.joinWaitlist(visitId, "waitlist-a", 90));
+		assertEquals(BookingMailboxService.Outcome.CANCELLED, bookingMailboxService.cancel(visitId, "waitlist-d"));
+		assertEquals("BOOKED", bookingStatus(visitId, "waitlist-a"));
+
+		// 队列为空时号源归还
+		assertEquals(BookingMailboxService.Outcome.CANCELLED, bookingMailboxService.cancel(visitId, "waitlist-e"));
+		assertEquals(1, slotInventoryService.available(visitId));
+		Integer waiting = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM waitlist_entry WHERE visit_id = ?", Integer.class, visitId);
+		assertEquals(0, waiting.intValue());
+	}
+
+	private Long createVisit(String doctorName, int slots) {
+		Visit visit = new Visit();
+		visit.setDepartment("内科");
+		visit.setDoctorName(doctorName);
+		visit.setVisitTime(LocalDateTime.now().plusDays(3));
+		visit.setAvailableSlots(slots);
+		visit.setStatus("APPROVED");
+		return visitRepository.save(visit).getId();
+	}
+
+	private int storedSlots(Long visitId) {
+		return jdbcTemplate.queryForObject("SELECT available_slots FROM visit WHERE id = ?", Integer.class, visitId);
+	}
+
+	private String bookingStatus(Long visitId, String patientUsername) {
+		return jdbcTemplate.queryForObject("SELECT status FROM booking WHERE visit_id = ? AND patient_username = ?",
+				String.class, visitId, patientUsername);
+	}
+
+	private static int count(Map<BookingMailboxService.Outcome, AtomicInteger> outcomes, BookingMailboxService.Outcome outcome) {
+		AtomicInteger count = outcomes.get(outcome);
+		return count == null ? 0 : count.get();
+	}
+}
@@ -0,0 +1,115 @@
+package com.example.hospital_0515.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 同一个幂等键的并发和重复提交只执行一次，键用于不同请求时拒绝，服务端错误不记录，读取记录失败时不执行。
+ */
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:idempotency;DB_CLOSE_DELAY=-1",
+		"spring.main.banner-mode=off",
+		"hospital.idempotency.persist=true"
+})
+class IdempotencyServiceTests {
+
+	@Autowired
+	private IdempotencyService idempotencyService;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void concurrentDuplicatesExecuteOnce() throws Exception {
+		AtomicInteger executions = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(32);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<ResponseEntity<?>>> futures = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			futures.add(executor.submit(() -> {
+				start.await();
+				return idempotencyService.execute("key-1", "idempotency-patient", "pay:1", () -> {
+					executions.incrementAndGet();
+					return ResponseEntity.ok("支付成功");
+				});
+			}));
+		}
+		start.countDown();
+		int replayed = 0;
+		for (Future<ResponseEntity<?>> future : futures) {
+			ResponseEntity<?> response = future.get();
+			assertEquals(HttpStatus.OK, response.getStatusCode());
+			assertEquals("支付成功", response.getBody());
+			if (response.getHeaders().containsKey(IdempotencyService.REPLAYED_HEADER)) {
+				replayed++;
+			}
+		}
+		executor.shutdown();
+
+		assertEquals(1, executions.get());
+		assertEquals(199, replayed);
+	}
+
+	@Test
+	void keyReusedForOtherRequestIsRejected() {
+		idempotencyService.execute("key-2", "idempotency-patient", "cancel:1", () -> ResponseEntity.ok().build());
+		ResponseEntity<?> response = idempotencyService.execute("key-2", "idempotency-patient", "cancel:2",
+				() -> ResponseEntity.ok().build());
+		assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, response.getStatusCode());
+
+		// 不同用户的同一个键互不影响
+		response = idempotencyService.execute("key-2", "idempotency-other", "cancel:2", () -> ResponseEntity.ok().build());
+		assertNull(response.getHeaders().getFirst(IdempotencyService.REPLAYED_HEADER));
+	}
+
+	@Test
+	void serverErrorsAreNotRecorded() {
+		AtomicInteger executions = new AtomicInteger();
+		for (int i = 0; i < 3; i++) {
+			idempotencyService.execute("key-3", "idempotency-patient", "bid:1:100.0", () -> {
+				executions.incrementAndGet();
+				return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("预约繁忙，请稍后重试");
+			});
+		}
+		assertEquals(3, executions.get());
+	}
+
+	@Test
+	void unreadableRecordsRejectInsteadOfExecuting() {
+		AtomicInteger executions = new AtomicInteger();
+		jdbcTemplate.execute("ALTER TABLE idempotency_record RENAME TO idempotency_record_offline");
+		try {
+			ResponseEntity<?> response = idempotencyService.execute("key-4", "idempotency-patient", "pay:4", () -> {
+				executions.incrementAndGet();
+				return ResponseEntity.ok("支付成功");
+			});
+			assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+		} finally {
+			jdbcTemplate.execute("ALTER TABLE idempotency_record_offline RENAME TO idempotency_record");
+		}
+		assertEquals(0, executions.get());
+
+		// 恢复后同一个键可以正常执行
+		ResponseEntity<?> response = idempotencyService.execute("key-4", "idempotency-patient", "pay:4", () -> {
+			executions.incrementAndGet();
+			return ResponseEntity.ok("支付成功");
+		});
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		assertEquals(1, executions.get());
+	}
+}
@@ -0,0 +1,137 @@
+package com.example.hospital_0515.service;
+
+import com.example.hospital_0515.model.Patient;
+import com.example.hospital_0515.model.Visit;
+import com.example.hospital_0515.repository.PatientRepository;
+import com.example.hospital_0515.repository.VisitRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 每个出诊、每个患者上数百个并发写入，检查版本号冲突重试后没有丢失的更新。
+ */
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:optimistic;DB_CLOSE_DELAY=-1",
+		"spring.main.banner-mode=off",
+		"hospital.retry.max-attempts=30",
+		"hospital.retry.max-delay-ms=50"
+})
+class OptimisticConcurrencyTests {
+
+	private static final int WRITERS = 300;
+
+	@Autowired
+	private ConflictRetryExecutor conflictRetryExecutor;
+
+	@Autowired
+	private SlotInventoryService slotInventoryService;
+
+	@Autowired
+	private PatientRepository patientRepository;
+
+	@Autowired
+	private VisitRepository visitRepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void concurrentCreditScoreUpdatesAreNotLost() throws Exception {
+		Patient patient = new Patient();
+		patient.setUsername("optimistic-patient");
+		patient.setName("optimistic-patient");
+		patient.setCreditScore(0);
+		patientRepository.save(patient);
+
+		AtomicInteger succeeded = new AtomicInteger();
+		AtomicInteger exhausted = new AtomicInteger();
+		runConcurrently(WRITERS, i -> {
+			try {
+				conflictRetryExecutor.run("test", () -> {
+					Patient current = patientRepository.findByUsername("optimistic-patient");
+					current.setCreditScore(current.getCreditScore() + 1);
+					patientRepository.save(current);
+				});
+				succeeded.incrementAndGet();
+			} catch (OptimisticLockingFailureException e) {
+				exhausted.incrementAndGet();
+			}
+		});
+
+		Patient result = patientRepository.findByUsername("optimistic-patient");
+		assertEquals(WRITERS, succeeded.get() + exhausted.get());
+		assertEquals(succeeded.get(), result.getCreditScore().intValue());
+		assertEquals(succeeded.get(), result.getVersion().longValue());
+	}
+
+	@Test
+	void slotFlushMergesConcurrentExternalUpdates() throws Exception {
+		Visit visit = new Visit();
+		visit.setDepartment("内科");
+		visit.setDoctorName("optimistic-doctor");
+		visit.setVisitTime(LocalDateTime.now().plusDays(1));
+		visit.setAvailableSlots(1_000);
+		visit.setStatus("APPROVED");
+		Long visitId = visitRepository.save(visit).getId();
+
+		// 每10个写入中：1个绕过内存计数直接修改数据库（模拟结算），1个回写，其余占用号源
+		AtomicInteger reserved = new AtomicInteger();
+		AtomicInteger external = new AtomicInteger();
+		runConcurrently(WRITERS, i -> {
+			if (i % 10 == 0) {
+				jdbcTemplate.update("UPDATE visit SET available_slots = available_slots - 1, version = version + 1 WHERE id = ?", visitId);
+				external.incrementAndGet();
+				slotInventoryService.refresh(visitId);
+			} else if (i % 10 == 1) {
+				slotInventoryService.flush();
+			} else if (slotInventoryService.reserve(visitId)) {
+				reserved.incrementAndGet();
+			}
+		});
+		slotInventoryService.flush();
+
+		int expected = 1_000 - reserved.get() - external.get();
+		Integer stored = jdbcTemplate.queryForObject("SELECT available_slots FROM visit WHERE id = ?", Integer.class, visitId);
+		assertEquals(expected, stored.intValue());
+		assertEquals(expected, slotInventoryService.available(visitId));
+		assertTrue(reserved.get() > 0);
+	}
+
+	private static void runConcurrently(int writers, IntTask task) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(64);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < writers; i++) {
+			int index = i;
+			futures.add(executor.submit(() -> {
+				start.await();
+				task.run(index);
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+	}
+
+	private interface IntTask {
+		void run(int index);
+	}
+}
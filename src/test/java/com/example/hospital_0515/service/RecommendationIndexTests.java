@@ -0,0 +1,83 @@
+package com.example.hospital_0515.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecommendationIndexTests {
+
+	private static final LocalDateTime NOW = LocalDateTime.of(2024, 6, 1, 8, 0);
+
+	@Test
+	void recommendsSameDepartmentThenSameDoctorThenByTime() {
+		RecommendationIndex index = new RecommendationIndex();
+		index.add(new RecommendationIndex.OpenVisit(1, NOW.plusHours(1), "内科", "doctorA"));
+		index.add(new RecommendationIndex.OpenVisit(2, NOW.plusHours(2), "外科", "doctorB"));
+		index.add(new RecommendationIndex.OpenVisit(3, NOW.plusHours(3), "眼科", "doctorC"));
+		index.add(new RecommendationIndex.OpenVisit(4, NOW.plusHours(4), "外科", "doctorD"));
+		index.add(new RecommendationIndex.OpenVisit(5, NOW.plusHours(5), "眼科", "doctorC"));
+		index.add(new RecommendationIndex.OpenVisit(6, NOW.minusHours(1), "外科", "doctorB"));
+
+		RecommendationIndex.Affinity affinity = new RecommendationIndex.Affinity();
+		affinity.add(2, "外科", "doctorB");
+		affinity.add(100, null, "doctorC");
+
+		List<Long> ids = index.recommend(affinity, NOW, 10, id -> id != 1).stream()
+				.map(RecommendationIndex.OpenVisit::getId)
+				.collect(Collectors.toList());
+		assertEquals(Arrays.asList(4L, 3L, 5L), ids);
+
+		affinity.remove(100, null, "doctorC");
+		index.purgeBefore(NOW);
+		ids = index.recommend(affinity, NOW, 2, id -> true).stream()
+				.map(RecommendationIndex.OpenVisit::getId)
+				.collect(Collectors.toList());
+		assertEquals(Arrays.asList(4L, 1L), ids);
+		assertEquals(5, index.size());
+	}
+
+	@Test
+	void topTenLatencyWithOneMillionFutureVisits() {
+		int visits = Integer.getInteger("recommendation.visits", 1_000_000);
+		RecommendationIndex index = new RecommendationIndex();
+		Random random = new Random(42);
+		for (int i = 1; i <= visits; i++) {
+			index.add(new RecommendationIndex.OpenVisit(i, NOW.plusMinutes(random.nextInt(60 * 24 * 30)),
+					"Department " + random.nextInt(50), "doctor" + random.nextInt(5000)));
+		}
+		RecommendationIndex.Affinity[] patients = new RecommendationIndex.Affinity[1000];
+		for (int p = 0; p < patients.length; p++) {
+			patients[p] = new RecommendationIndex.Affinity();
+			int bookings = random.nextInt(20);
+			for (int b = 0; b < bookings; b++) {
+				RecommendationIndex.OpenVisit visit = index.get(1 + random.nextInt(visits));
+				patients[p].add(visit.getId(), visit.getDepartment(), visit.getDoctorName());
+			}
+		}
+
+		int calls = 20_000;
+		long[] nanos = new long[calls];
+		for (int i = -calls; i < calls; i++) {
+			long start = System.nanoTime();
+			List<RecommendationIndex.OpenVisit> result = index.recommend(patients[Math.floorMod(i, patients.length)], NOW, 10,
+					id -> id % 7 != 0);
+			long elapsed = System.nanoTime() - start;
+			assertEquals(10, result.size());
+			if (i >= 0) {
+				nanos[i] = elapsed;
+			}
+		}
+		Arrays.sort(nanos);
+		long p50 = nanos[calls / 2] / 1000;
+		long p99 = nanos[calls * 99 / 100] / 1000;
+		System.out.println("----Recommendation top-10 over " + visits + " visits: p50=" + p50 + "us, p99=" + p99 + "us ----");
+		assertTrue(p99 < 50_000, "p99 " + p99 + "us");
+	}
+}